@@ -4,13 +4,19 @@ import jisa.gui.GUI;
 import temeasure.gui.MainWindow;
 
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 
 public class Main extends GUI {
 
     public static void main(String[] args) throws IOException {
 
+        // Time since the JVM was launched, so start-up is measured from the user's point of view
+        long launched = ManagementFactory.getRuntimeMXBean().getStartTime();
+
         MainWindow mainWindow = new MainWindow();
         mainWindow.show();
 
+        System.out.printf("Window shown %d ms after launch.%n", System.currentTimeMillis() - launched);
+
     }
 }
@@ -0,0 +1,388 @@
+package temeasure.analysis;
+
+import jisa.experiment.Col;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Streaming reader of a results file, as written by a measurement's ResultWriter, one row at a time. Columns in the file
+ * are matched to the given schema (eg GatedTEM.COLUMNS) by name from its header line, so their order does not matter
+ * and any missing from older files read as NaN. Attribute/comment lines (starting with % or #) are skipped.
+ * <p>
+ * Each row is parsed straight from a reusable byte buffer into a reusable row buffer, so reading allocates nothing per
+ * row. Numbers with up to 15 significant digits and moderate exponents are parsed exactly; longer ones (eg the 17
+ * digits of a full double) are within a couple of ulps of Double.parseDouble(), far below the resolution of any
+ * instrument. Anything else (NaN, Infinity etc) falls back to Double.parseDouble().
+ */
+public class ResultReader implements AutoCloseable {
+
+    private static final int      BUFFER_SIZE = 1 << 16;
+    private static final double[] POWERS      = new double[23];
+
+    static {
+
+        POWERS[0] = 1.0;
+
+        for (int i = 1; i < POWERS.length; i++) {
+            POWERS[i] = POWERS[i - 1] * 10.0;
+        }
+
+    }
+
+    private final Path        path;
+    private final InputStream input;
+    private final byte[]      buffer = new byte[BUFFER_SIZE];
+    private final double[]    row;
+    private final int[]       mapping;
+
+    private int  position = 0;
+    private int  limit    = 0;
+    private long line     = 0;
+
+    /**
+     * Opens the given results file and reads its header, matching its columns to the given schema.
+     *
+     * @param path    Path to the results file
+     * @param columns Columns to read into (eg GatedTEM.COLUMNS)
+     *
+     * @throws IOException If the file cannot be read or has no header
+     */
+    public ResultReader(Path path, Col... columns) throws IOException {
+
+        this.path  = path;
+        this.input = Files.newInputStream(path);
+        this.row   = new double[columns.length];
+
+        String header = readHeader();
+
+        if (header == null) {
+            input.close();
+            throw new IOException(String.format("%s: no header line.", path));
+        }
+
+        String[] names = header.split(",", -1);
+
+        mapping = new int[names.length];
+        Arrays.fill(mapping, -1);
+
+        for (int i = 0; i < names.length; i++) {
+
+            String name = names[i].trim().replace("\"", "");
+
+            for (int c = 0; c < columns.length; c++) {
+
+                Col    col   = columns[c];
+                String title = col.getUnit() == null ? col.getName() : String.format("%s [%s]", col.getName(), col.getUnit());
+
+                if (name.equals(title) || name.equals(col.getName())) {
+                    mapping[i] = c;
+                    break;
+                }
+
+            }
+
+        }
+
+    }
+
+    /**
+     * Reads the next row of values into the row buffer.
+     *
+     * @return Whether there was a row to read (false at the end of the file)
+     *
+     * @throws IOException If reading fails or the row contains something that is not a number
+     */
+    public boolean next() throws IOException {
+
+        while (true) {
+
+            if (!fill()) {
+                return false;
+            }
+
+            line++;
+
+            byte first = buffer[position];
+
+            // Skip blank, attribute and comment lines
+            if (first == '\n' || first == '\r' || first == '%' || first == '#') {
+                skipLine();
+                continue;
+            }
+
+            Arrays.fill(row, Double.NaN);
+
+            int field = 0;
+
+            while (true) {
+
+                double value = parseField();
+
+                if (field < mapping.length && mapping[field] >= 0) {
+                    row[mapping[field]] = value;
+                }
+
+                field++;
+
+                if (!fill() || buffer[position] == '\n' || buffer[position] == '\r') {
+                    skipLine();
+                    return true;
+                }
+
+                position++; // Comma
+
+            }
+
+        }
+
+    }
+
+    /**
+     * Returns the value in the given column of the row last read.
+     *
+     * @param col Column index, in the schema given (ie one of the COL_* constants of the measurement)
+     *
+     * @return Value, NaN if missing
+     */
+    public double get(int col) {
+        return row[col];
+    }
+
+    /**
+     * Returns the line number of the row last read, for error messages.
+     *
+     * @return Line number, counting from 1
+     */
+    public long getLine() {
+        return line;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    @Override
+    public void close() throws IOException {
+        input.close();
+    }
+
+    /**
+     * Makes sure there is at least one unread byte in the buffer, reading more of the file if needed.
+     */
+    private boolean fill() throws IOException {
+
+        if (position < limit) {
+            return true;
+        }
+
+        limit    = input.read(buffer, 0, buffer.length);
+        position = 0;
+
+        return limit > 0;
+
+    }
+
+    /**
+     * Makes sure the buffer holds at least the given number of unread bytes (or the rest of the file), moving what is
+     * left to the start of the buffer so a field never has to be parsed across two reads.
+     */
+    private void ensure(int bytes) throws IOException {
+
+        if (limit - position >= bytes) {
+            return;
+        }
+
+        int left = Math.max(0, limit - position);
+
+        System.arraycopy(buffer, position, buffer, 0, left);
+
+        position = 0;
+        limit    = left;
+
+        while (limit < bytes) {
+
+            int read = input.read(buffer, limit, buffer.length - limit);
+
+            if (read < 0) {
+                break;
+            }
+
+            limit += read;
+
+        }
+
+    }
+
+    private void skipLine() throws IOException {
+
+        while (fill()) {
+
+            byte b = buffer[position++];
+
+            if (b == '\n') {
+                return;
+            }
+
+        }
+
+    }
+
+    private String readHeader() throws IOException {
+
+        while (fill()) {
+
+            StringBuilder header = new StringBuilder();
+
+            while (fill() && buffer[position] != '\n') {
+                header.append((char) buffer[position++]);
+            }
+
+            skipLine();
+            line++;
+
+            String text = header.toString().trim();
+
+            if (!text.isEmpty() && !text.startsWith("%") && !text.startsWith("#")) {
+                return text;
+            }
+
+        }
+
+        return null;
+
+    }
+
+    /**
+     * Parses the field starting at the current position, leaving the position at the comma or line ending after it.
+     */
+    private double parseField() throws IOException {
+
+        // A field is never longer than this, so having it all in the buffer means the end of the buffer is never hit
+        ensure(128);
+
+        int start = position;
+        int end   = position;
+
+        while (end < limit && buffer[end] != ',' && buffer[end] != '\n' && buffer[end] != '\r') {
+            end++;
+        }
+
+        position = end;
+
+        // Strip quotes and spaces
+        while (start < end && (buffer[start] == '"' || buffer[start] == ' ')) {
+            start++;
+        }
+
+        while (end > start && (buffer[end - 1] == '"' || buffer[end - 1] == ' ')) {
+            end--;
+        }
+
+        if (start == end) {
+            return Double.NaN;
+        }
+
+        // == FAST PATH ================================================================================================
+        int     i        = start;
+        boolean negative = false;
+
+        if (buffer[i] == '-' || buffer[i] == '+') {
+            negative = buffer[i] == '-';
+            i++;
+        }
+
+        long    mantissa = 0;
+        int     digits   = 0;
+        int     exponent = 0;
+        boolean any      = false;
+        boolean point    = false;
+
+        for (; i < end; i++) {
+
+            byte b = buffer[i];
+
+            if (b >= '0' && b <= '9') {
+
+                any = true;
+
+                if (mantissa == 0 && b == '0') {
+                    // Leading zeros carry no significance
+                    if (point) {
+                        exponent--;
+                    }
+                } else if (digits < 18) {
+                    mantissa = mantissa * 10 + (b - '0');
+                    digits++;
+                    if (point) {
+                        exponent--;
+                    }
+                } else if (!point) {
+                    // Digits beyond what a long holds only scale the value
+                    exponent++;
+                }
+
+            } else if (b == '.' && !point) {
+                point = true;
+            } else {
+                break;
+            }
+
+        }
+
+        if (any && i < end && (buffer[i] == 'e' || buffer[i] == 'E')) {
+
+            int     power = 0;
+            boolean minus = false;
+
+            i++;
+
+            if (i < end && (buffer[i] == '-' || buffer[i] == '+')) {
+                minus = buffer[i] == '-';
+                i++;
+            }
+
+            int first = i;
+
+            while (i < end && buffer[i] >= '0' && buffer[i] <= '9' && power < 10000) {
+                power = power * 10 + (buffer[i++] - '0');
+            }
+
+            if (i == first) {
+                any = false;
+            }
+
+            exponent += minus ? -power : power;
+
+        }
+
+        if (any && i == end && Math.abs(exponent) <= 2 * (POWERS.length - 1)) {
+
+            double value = mantissa;
+
+            if (exponent < 0) {
+                value = -exponent < POWERS.length ? value / POWERS[-exponent] : value / POWERS[POWERS.length - 1] / POWERS[-exponent - POWERS.length + 1];
+            } else if (exponent > 0) {
+                value = exponent < POWERS.length ? value * POWERS[exponent] : value * POWERS[POWERS.length - 1] * POWERS[exponent - POWERS.length + 1];
+            }
+
+            return negative ? -value : value;
+
+        }
+
+        // == SLOW PATH ================================================================================================
+        String text = new String(buffer, start, end - start, StandardCharsets.ISO_8859_1);
+
+        try {
+            return Double.parseDouble(text);
+        } catch (NumberFormatException e) {
+            throw new IOException(String.format("%s:%d: \"%s\" is not a number.", path, line, text));
+        }
+
+    }
+
+}
@@ -0,0 +1,373 @@
+package temeasure.analysis;
+
+import temeasure.measurement.GatedTEM;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Offline analysis of a campaign of GatedTEM results files (eg one per temperature and sample), merged into a single
+ * summary. For each file, the thermo-voltage is fitted against heater power for every gate set-point and configuration
+ * (hot/cold-gate), giving the slope dV/dP along with the mean gate voltage and sample temperature it was taken at. Given
+ * a ThermalCalibration (the temperature difference per unit heater power from RT calibrations at several temperatures),
+ * the slope is also converted to a Seebeck coefficient, S = -(dV/dP) / (dT/dP), using dT/dP interpolated at the mean
+ * sample temperature of each fit.
+ * <p>
+ * Files are split between all cores with fork/join, each one streamed through a ResultReader into running sums, so only
+ * the fitted results of each file are ever held in memory, however many files there are.
+ * <p>
+ * Usage: SeebeckAnalysis [--calibration calibration.csv] summary.csv (results.csv | directory)...
+ * <p>
+ * Without --calibration, or for fits outside its calibrated temperatures, the dT/dP and Seebeck columns are NaN. As
+ * dT/dP depends on the sample, files from different samples should be analysed separately, each with its own
+ * calibration.
+ */
+public class SeebeckAnalysis {
+
+    private static final String HEADER = "File,Gate Config,Gate Set [V],Gate Voltage [V],Sample Temperature [K],Points,dV/dP [V/W],dV/dP Error [V/W],Intercept [V],R^2,dT/dP [K/W],Seebeck [V/K],Seebeck Error [V/K]";
+
+    public static void main(String[] args) throws Exception {
+
+        ThermalCalibration calibration = null;
+        List<String>       paths       = new ArrayList<>();
+
+        for (int i = 0; i < args.length; i++) {
+
+            if (args[i].equals("--calibration") && i + 1 < args.length) {
+                calibration = new ThermalCalibration(Paths.get(args[++i]));
+            } else {
+                paths.add(args[i]);
+            }
+
+        }
+
+        if (paths.size() < 2) {
+            System.err.println("Usage: SeebeckAnalysis [--calibration <calibration.csv>] <summary.csv> (<results.csv> | <directory>)...");
+            System.exit(1);
+        }
+
+        Path       summary = Paths.get(paths.get(0));
+        List<Path> files   = new ArrayList<>();
+
+        for (String path : paths.subList(1, paths.size())) {
+            files.addAll(expand(Paths.get(path), summary));
+        }
+
+        if (files.isEmpty()) {
+            System.err.println("No results files found.");
+            System.exit(1);
+        }
+
+        long         start   = System.nanoTime();
+        ForkJoinPool pool    = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        Batch        results = pool.invoke(new Analyse(files, 0, files.size()));
+
+        pool.shutdown();
+
+        results.fits.sort(Comparator.comparingDouble((Fit f) -> f.config)
+                                    .thenComparingDouble(f -> f.gateSet)
+                                    .thenComparingDouble(Fit::getTemperature)
+                                    .thenComparing(f -> f.file.toString()));
+
+        write(results.fits, summary, calibration);
+
+        System.out.printf(
+                "Analysed %d files (%d fits) on %d threads in %.1f s, summary written to %s.%n",
+                files.size() - results.failures.size(),
+                results.fits.size(),
+                pool.getParallelism(),
+                (System.nanoTime() - start) / 1e9,
+                summary
+        );
+
+        for (String failure : results.failures) {
+            System.err.println(failure);
+        }
+
+        System.exit(results.failures.isEmpty() ? 0 : 2);
+
+    }
+
+    /**
+     * Returns the given file, or all CSV files in the given directory, leaving out the summary itself.
+     */
+    private static List<Path> expand(Path path, Path summary) throws IOException {
+
+        if (!Files.isDirectory(path)) {
+            return List.of(path);
+        }
+
+        try (Stream<Path> listing = Files.list(path)) {
+            return listing.filter(p -> p.toString().toLowerCase().endsWith(".csv"))
+                          .filter(p -> !p.toAbsolutePath().equals(summary.toAbsolutePath()))
+                          .sorted()
+                          .collect(Collectors.toList());
+        }
+
+    }
+
+    /**
+     * Fits every gate set-point and configuration in one file.
+     *
+     * @param file Results file
+     *
+     * @return One fit per gate set-point and configuration, in the order they first appear
+     *
+     * @throws IOException If the file cannot be read or parsed
+     */
+    public static List<Fit> analyse(Path file) throws IOException {
+
+        Map<Fit, Fit> fits = new TreeMap<>(Comparator.comparingDouble((Fit f) -> f.config).thenComparingDouble(f -> f.gateSet));
+        List<Fit>     list = new ArrayList<>();
+        Fit           last = null;
+
+        try (ResultReader reader = new ResultReader(file, GatedTEM.COLUMNS)) {
+
+            while (reader.next()) {
+
+                double config  = reader.get(GatedTEM.COL_GATE_CONFIG);
+                double gateSet = reader.get(GatedTEM.COL_GATE_SET_VOLTAGE);
+
+                // Points of the same set-point come together, so the map is only needed when the set-point changes
+                if (last == null || last.config != config || last.gateSet != gateSet) {
+
+                    Fit key = new Fit(file, config, gateSet);
+
+                    last = fits.computeIfAbsent(key, k -> {
+                        list.add(k);
+                        return k;
+                    });
+
+                }
+
+                last.add(
+                        reader.get(GatedTEM.COL_HEATER_POWER),
+                        reader.get(GatedTEM.COL_THERMO_VOLTAGE),
+                        reader.get(GatedTEM.COL_GATE_VOLTAGE),
+                        reader.get(GatedTEM.COL_SAMPLE_TEMPERATURE)
+                );
+
+            }
+
+        }
+
+        return list;
+
+    }
+
+    private static void write(List<Fit> fits, Path path, ThermalCalibration calibration) throws IOException {
+
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(path))) {
+
+            writer.println(HEADER);
+
+            for (Fit fit : fits) {
+
+                double dTdP = calibration == null ? Double.NaN : calibration.get(fit.getTemperature());
+
+                writer.printf(
+                        "\"%s\",%s,%s,%s,%s,%d,%s,%s,%s,%s,%s,%s,%s%n",
+                        fit.file.getFileName(),
+                        fit.config == 0.0 ? "Hot-Gate" : "Cold-Gate",
+                        fit.gateSet,
+                        fit.getGateVoltage(),
+                        fit.getTemperature(),
+                        fit.n,
+                        fit.getSlope(),
+                        fit.getSlopeError(),
+                        fit.getIntercept(),
+                        fit.getRSquared(),
+                        dTdP,
+                        -fit.getSlope() / dTdP,
+                        fit.getSlopeError() / Math.abs(dTdP)
+                );
+
+            }
+
+        }
+
+    }
+
+    /**
+     * Fitted results of a range of files, along with any that could not be analysed.
+     */
+    private static class Batch {
+
+        private final List<Fit>    fits     = new ArrayList<>();
+        private final List<String> failures = new ArrayList<>();
+
+    }
+
+    /**
+     * Analyses a range of files, splitting it in two until each task has a single file.
+     */
+    private static class Analyse extends RecursiveTask<Batch> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final List<Path> files;
+        private final int        from;
+        private final int        to;
+
+        private Analyse(List<Path> files, int from, int to) {
+            this.files = files;
+            this.from  = from;
+            this.to    = to;
+        }
+
+        @Override
+        protected Batch compute() {
+
+            if (to - from > 1) {
+
+                int     middle = (from + to) >>> 1;
+                Analyse left   = new Analyse(files, from, middle);
+                Analyse right  = new Analyse(files, middle, to);
+
+                left.fork();
+
+                Batch batch = right.compute();
+                Batch other = left.join();
+
+                batch.fits.addAll(other.fits);
+                batch.failures.addAll(other.failures);
+
+                return batch;
+
+            }
+
+            Batch batch = new Batch();
+
+            for (int i = from; i < to; i++) {
+
+                try {
+                    batch.fits.addAll(analyse(files.get(i)));
+                } catch (IOException e) {
+                    batch.failures.add(String.format("Skipped %s: %s", files.get(i), e.getMessage()));
+                }
+
+            }
+
+            return batch;
+
+        }
+
+    }
+
+    /**
+     * Running least-squares fit of thermo-voltage against heater power for one gate set-point and configuration of one
+     * file, along with the mean gate voltage and sample temperature. Points with a NaN in any of these are left out.
+     */
+    public static class Fit {
+
+        private final Path   file;
+        private final double config;
+        private final double gateSet;
+
+        // Running means and co-moments (Welford), which unlike raw sums of squares survive a large thermo-voltage offset
+        private int    n     = 0;
+        private double meanX = 0;
+        private double meanY = 0;
+        private double sxx   = 0;
+        private double syy   = 0;
+        private double sxy   = 0;
+        private double sumG  = 0;
+        private double sumT  = 0;
+
+        private Fit(Path file, double config, double gateSet) {
+            this.file    = file;
+            this.config  = config;
+            this.gateSet = gateSet;
+        }
+
+        private void add(double power, double voltage, double gate, double temperature) {
+
+            if (Double.isNaN(power) || Double.isNaN(voltage) || Double.isNaN(gate) || Double.isNaN(temperature)) {
+                return;
+            }
+
+            n++;
+
+            double dx = power - meanX;
+            double dy = voltage - meanY;
+
+            meanX += dx / n;
+            meanY += dy / n;
+            sxx   += dx * (power - meanX);
+            syy   += dy * (voltage - meanY);
+            sxy   += dx * (voltage - meanY);
+            sumG  += gate;
+            sumT  += temperature;
+
+        }
+
+        public Path getFile() {
+            return file;
+        }
+
+        /**
+         * Returns the gate configuration.
+         *
+         * @return 0 for hot-gate, 1 for cold-gate
+         */
+        public double getConfig() {
+            return config;
+        }
+
+        public double getGateSet() {
+            return gateSet;
+        }
+
+        public int getPoints() {
+            return n;
+        }
+
+        public double getGateVoltage() {
+            return sumG / n;
+        }
+
+        public double getTemperature() {
+            return sumT / n;
+        }
+
+        /**
+         * Returns the slope of thermo-voltage against heater power.
+         *
+         * @return dV/dP, in V/W (NaN if fewer than 2 distinct powers)
+         */
+        public double getSlope() {
+            return sxx > 0 ? sxy / sxx : Double.NaN;
+        }
+
+        public double getIntercept() {
+            return meanY - getSlope() * meanX;
+        }
+
+        /**
+         * Returns the standard error of the slope, from the scatter of the points about the fit.
+         *
+         * @return Error in dV/dP, in V/W (NaN if fewer than 3 points)
+         */
+        public double getSlopeError() {
+            return n > 2 && sxx > 0 ? Math.sqrt(Math.max(0, (syy - sxy * sxy / sxx) / (n - 2)) / sxx) : Double.NaN;
+        }
+
+        public double getRSquared() {
+            return sxx > 0 && syy > 0 ? sxy * sxy / (sxx * syy) : Double.NaN;
+        }
+
+    }
+
+}
@@ -0,0 +1,114 @@
+package temeasure.analysis;
+
+import jisa.experiment.Col;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Temperature difference across a sample per unit heater power (dT/dP), as found by RT calibrations at a number of
+ * sample temperatures, read from a CSV file with the columns:
+ *
+ * <pre>
+ * "Temperature [K]","dT/dP [K/W]"
+ * 100.0,2.31
+ * 150.0,2.54
+ * ...
+ * </pre>
+ * <p>
+ * Columns are matched by name, so may come in any order alongside others. Between calibrated temperatures the value is
+ * interpolated linearly, while outside the calibrated span there is none, so that a calibration is never extrapolated.
+ * A separate file can be given for each sample.
+ */
+public class ThermalCalibration {
+
+    public static final Col[] COLUMNS = {
+            new Col("Temperature", "K"),
+            new Col("dT/dP", "K/W")
+    };
+
+    private static final int COL_TEMPERATURE = 0;
+    private static final int COL_DTDP        = 1;
+
+    private final double[] temperatures;
+    private final double[] values;
+
+    /**
+     * Reads a calibration file.
+     *
+     * @param path Path to the file
+     *
+     * @throws IOException If the file cannot be read or parsed, or holds no calibrated points
+     */
+    public ThermalCalibration(Path path) throws IOException {
+
+        double[][] points = new double[16][];
+        int        count  = 0;
+
+        try (ResultReader reader = new ResultReader(path, COLUMNS)) {
+
+            while (reader.next()) {
+
+                double temperature = reader.get(COL_TEMPERATURE);
+                double value       = reader.get(COL_DTDP);
+
+                if (Double.isNaN(temperature) || Double.isNaN(value)) {
+                    continue;
+                }
+
+                if (count == points.length) {
+                    points = Arrays.copyOf(points, 2 * count);
+                }
+
+                points[count++] = new double[]{temperature, value};
+
+            }
+
+        }
+
+        if (count == 0) {
+            throw new IOException(String.format("%s: no calibrated points (expected \"Temperature [K]\" and \"dT/dP [K/W]\" columns).", path));
+        }
+
+        Arrays.sort(points, 0, count, (a, b) -> Double.compare(a[0], b[0]));
+
+        temperatures = new double[count];
+        values       = new double[count];
+
+        for (int i = 0; i < count; i++) {
+            temperatures[i] = points[i][0];
+            values[i]       = points[i][1];
+        }
+
+    }
+
+    /**
+     * Returns dT/dP at the given sample temperature, interpolated between the calibrated temperatures either side of it.
+     *
+     * @param temperature Sample temperature, in Kelvin
+     *
+     * @return dT/dP, in K/W, or NaN if outside the calibrated span
+     */
+    public double get(double temperature) {
+
+        int index = Arrays.binarySearch(temperatures, temperature);
+
+        if (index >= 0) {
+            return values[index];
+        }
+
+        int above = -index - 1;
+
+        if (above == 0 || above == temperatures.length) {
+            return Double.NaN;
+        }
+
+        int    below = above - 1;
+        double f     = (temperature - temperatures[below]) / (temperatures[above] - temperatures[below]);
+
+        return values[below] + f * (values[above] - values[below]);
+
+    }
+
+}
@@ -0,0 +1,366 @@
+package temeasure.batch;
+
+import jisa.devices.SMU;
+import jisa.devices.TC;
+import jisa.devices.VMeter;
+import temeasure.data.DataPoint;
+import temeasure.devices.Decorators;
+import temeasure.devices.ResilientInstrument;
+import temeasure.devices.TraceRecorder;
+import temeasure.devices.TraceReplay;
+import temeasure.diagnostics.Diagnostics;
+import temeasure.measurement.GatedTEM;
+import temeasure.measurement.Progress;
+import temeasure.measurement.RTCalibration;
+import temeasure.measurement.StoredMeasurement;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs a single measurement from a plan file, with no GUI, streaming results to disk and reporting progress and timing
+ * on stdout.
+ * <p>
+ * Usage: BatchMain plan.properties [key=value ...]
+ * <p>
+ * Any key=value arguments override the values in the plan. Exits with status 0 if the measurement completes, 1 if it
+ * fails and 3 if the leakage guard aborts it. If it is interrupted (eg by Ctrl+C), the measurement is stopped, turning
+ * all outputs off and closing its results, before exiting with the status the JVM gives to a signal (130 for Ctrl+C).
+ * <p>
+ * If the plan gives "trace = [file]", all instrument calls are recorded to that file. If it gives "replay = [file]", the
+ * instruments in that trace are replayed instead of connected to (so need no driver or address), either as fast as
+ * possible or, with "replay.mode = realtime", taking as long as each call originally did. Optionally, "deadline" and
+ * "retries" set how long each instrument call may take (10 s by default) and how many times a failed read is retried (2
+ * by default).
+ */
+public class BatchMain {
+
+    // Longest to wait, on top of instrument deadlines, for a stopped measurement to finish before exiting, in seconds
+    private static final long SHUTDOWN_WAIT = 10;
+
+    public static void main(String[] args) {
+
+        long launched = ManagementFactory.getRuntimeMXBean().getStartTime();
+
+        if (args.length < 1) {
+            System.err.println("Usage: BatchMain <plan.properties> [key=value ...]");
+            System.exit(1);
+        }
+
+        StoredMeasurement measurement = null;
+        CountDownLatch    finished    = new CountDownLatch(1);
+        int               status      = 0;
+
+        try {
+
+            Plan plan = new Plan(args[0]);
+
+            for (int i = 1; i < args.length; i++) {
+                plan.set(args[i]);
+            }
+
+            log("Plan read from %s (%d ms after launch).", args[0], System.currentTimeMillis() - launched);
+
+            // Every instrument call must complete within the deadline, with failed reads retried before giving up
+            ResilientInstrument.configure(
+                    plan.has("deadline") ? plan.getDouble("deadline") : 10.0,
+                    plan.has("retries") ? plan.getInt("retries") : 2
+            );
+
+            if (plan.has("replay")) {
+
+                TraceReplay replay = new TraceReplay(
+                        plan.getString("replay"),
+                        plan.has("replay.mode") && plan.getString("replay.mode").equalsIgnoreCase("realtime")
+                );
+
+                Decorators.startReplay(replay);
+                log("Replaying %d instrument calls from %s.", replay.getTotal(), replay.getPath());
+
+            }
+
+            if (plan.has("trace")) {
+                Decorators.startTrace(plan.getString("trace"));
+                log("Recording instrument calls to %s.", plan.getString("trace"));
+            }
+
+            long connecting = System.nanoTime();
+
+            switch (plan.getString("measurement")) {
+
+                case "GatedTEM":
+                    measurement = createGatedTEM(plan);
+                    break;
+
+                case "RTCalibration":
+                    measurement = createRTCalibration(plan);
+                    break;
+
+                default:
+                    throw new IllegalArgumentException(String.format(
+                            "Unknown measurement \"%s\" (expected GatedTEM or RTCalibration).",
+                            plan.getString("measurement")
+                    ));
+
+            }
+
+            log("Instruments connected in %.1f s.", (System.nanoTime() - connecting) / 1e9);
+
+            measurement.writeTo(plan.getString("output"));
+
+            watchProgress(measurement);
+
+            // Notes only go to the run log unless shown here
+            measurement.addNoteListener(note -> log("%s", note));
+
+            // If interrupted, stop the measurement and hold off exiting until it has turned all outputs off (each of which
+            // may take up to the deadline if an instrument is hung) and closed its results
+            StoredMeasurement running = measurement;
+            long              wait    = SHUTDOWN_WAIT + 4 * Math.round(plan.has("deadline") ? plan.getDouble("deadline") : 10.0);
+
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+
+                if (running.isRunning()) {
+
+                    log("Interrupted, stopping measurement and turning outputs off.");
+                    running.stop();
+
+                    try {
+
+                        if (!finished.await(wait, TimeUnit.SECONDS)) {
+                            log("Measurement did not finish stopping within %d s, outputs may still be on.", wait);
+                        }
+
+                    } catch (InterruptedException ignored) {}
+
+                }
+
+            }));
+
+            log("Starting %s with %d points, writing to %s.", plan.getString("measurement"), measurement.getTotalPoints(), plan.getString("output"));
+            log("Settling alone will take up to %.0f s.", measurement.getTotalSettleTime());
+
+            measurement.performMeasurement();
+
+            printBreakdown(measurement.getBreakdown());
+            printTrace();
+
+            // Stopping by a signal exits from the shutdown hook with the signal's status, so this is only reached if
+            // stopped some other way
+            if (measurement.wasStopped()) {
+                log("Measurement stopped before completion.");
+                status = 2;
+            } else if (measurement.getAbortReason() != null) {
+                log("Measurement aborted: %s", measurement.getAbortReason());
+                status = 3;
+            } else {
+                log("Measurement complete.");
+            }
+
+        } catch (Exception e) {
+
+            log("Error: %s", e.getMessage());
+            e.printStackTrace();
+            status = 1;
+
+        } finally {
+
+            Decorators.stopTrace();
+
+            finished.countDown();
+
+        }
+
+        System.exit(status);
+
+    }
+
+    private static GatedTEM createGatedTEM(Plan plan) throws Exception {
+
+        VMeter thermoVoltage = connect(plan, "thermoVoltage", "Thermo-Voltage Meter", VMeter.class);
+        SMU    hotGate       = connect(plan, "hotGate", "Hot-Gate SMU", SMU.class);
+        SMU    coldGate      = connect(plan, "coldGate", "Cold-Gate SMU", SMU.class);
+        SMU    heater        = connect(plan, "heater", "Heater SMU", SMU.class);
+        TC     stage         = connect(plan, "stage", "Sample TC", TC.class);
+
+        GatedTEM measurement = new GatedTEM(thermoVoltage, hotGate, coldGate, heater, stage);
+
+        measurement.configureGate(plan.getDouble("gate.start"), plan.getDouble("gate.stop"), plan.getInt("gate.steps"))
+                   .configureHeater(plan.getDouble("heater.start"), plan.getDouble("heater.stop"), plan.getInt("heater.steps"))
+                   .configureTiming(plan.getDouble("timing.gate"), plan.getDouble("timing.heater"), plan.getDouble("timing.integration"));
+
+        // The leakage guard keeps its default limits unless the plan gives them
+        if (plan.has("guard.gate.limit")) {
+            measurement.getGuard().configureGate(plan.getDouble("guard.gate.limit"), plan.getInt("guard.trend.points"), plan.getDouble("guard.trend.factor"));
+        }
+
+        if (plan.has("guard.heater.limit")) {
+            measurement.getGuard().configureHeater(plan.getDouble("guard.heater.limit"));
+        }
+
+        if (plan.has("guard.skips")) {
+            measurement.getGuard().configureAbort(plan.getInt("guard.skips"));
+        }
+
+        return measurement;
+
+    }
+
+    private static RTCalibration createRTCalibration(Plan plan) throws Exception {
+
+        SMU heater = connect(plan, "heater", "Heater SMU", SMU.class);
+        SMU rt     = connect(plan, "rt", "RT SMU", SMU.class);
+        TC  stage  = connect(plan, "stage", "Sample TC", TC.class);
+
+        RTCalibration measurement = new RTCalibration(heater, rt, stage);
+
+        measurement.configureRT(plan.getDouble("rt.start"), plan.getDouble("rt.stop"), plan.getInt("rt.steps"))
+                   .configureHeater(plan.getDouble("heater.start"), plan.getDouble("heater.stop"), plan.getInt("heater.steps"))
+                   .configureTiming(plan.getDouble("timing.heater"), plan.getDouble("timing.rt"), plan.getDouble("timing.rest"), plan.getDouble("timing.integration"))
+                   .configureSweeps(plan.getInt("sweeps"));
+
+        // Percentages are given as on the GUI, and any tolerance not given keeps its default
+        if (plan.has("delta")) {
+            measurement.configureDelta(Boolean.parseBoolean(plan.getString("delta")), plan.getDouble("delta.precision", 0.0) / 100.0);
+        }
+
+        measurement.configureRest(
+                plan.getDouble("rest.tolerance.resistance", measurement.getRestRTolerance() * 100.0) / 100.0,
+                plan.getDouble("rest.tolerance.temperature", measurement.getRestTTolerance())
+        );
+
+        return measurement;
+
+    }
+
+    /**
+     * Connects to an instrument from the plan, decorated in the same way (and under the same role name) as when running
+     * from the GUI, so that traces recorded in one can be replayed in the other.
+     */
+    private static <T> T connect(Plan plan, String name, String role, Class<T> type) throws Exception {
+
+        TraceReplay replay = Decorators.getReplay();
+
+        if (replay != null && replay.has(role)) {
+
+            Object replayed = Decorators.decorate(role, null);
+
+            if (!type.isInstance(replayed)) {
+                throw new IllegalArgumentException(String.format("%s in %s is not a %s.", role, replay.getPath(), type.getSimpleName()));
+            }
+
+            log("Replaying %s.", name);
+            return type.cast(replayed);
+
+        }
+
+        long start      = System.nanoTime();
+        T    instrument = plan.getInstrument(name, type);
+
+        log("Connected to %s in %.1f s.", name, (System.nanoTime() - start) / 1e9);
+
+        return Decorators.decorate(role, instrument);
+
+    }
+
+    /**
+     * Prints a line for each data-point as it is taken, along with the refined estimate of when the run will finish, from
+     * its own stage so that a slow terminal cannot hold up the measurement.
+     */
+    private static void watchProgress(StoredMeasurement measurement) {
+
+        measurement.getPublisher().subscribe("Progress", new Flow.Subscriber<DataPoint>() {
+
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                subscription.request(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void onNext(DataPoint point) {
+
+                Progress progress = measurement.getProgress();
+
+                log(
+                        "Point %d/%d (%.0f%%), %.0f s elapsed (%.0f%% waiting, %.0f%% acquiring), about %.0f s left, finishing around %tT.",
+                        point.getIndex() + 1,
+                        progress.getTotal(),
+                        100.0 * (point.getIndex() + 1) / progress.getTotal(),
+                        progress.getElapsed(),
+                        100.0 * progress.getWaiting() / progress.getElapsed(),
+                        100.0 * progress.getAcquiring() / progress.getElapsed(),
+                        progress.getRemaining(),
+                        progress.getFinishTime()
+                );
+
+            }
+
+            @Override
+            public void onError(Throwable throwable) {}
+
+            @Override
+            public void onComplete() {}
+
+        }, Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "Progress");
+            thread.setDaemon(true);
+            return thread;
+        }), 1024);
+
+    }
+
+    private static void printBreakdown(Diagnostics.Breakdown run) {
+
+        double total = run.getElapsed();
+
+        log("Run took %.1f s:", total);
+
+        for (Diagnostics.Activity activity : Diagnostics.Activity.values()) {
+            log("    %-8s %10.1f s (%.0f%%)", activity, run.get(activity), 100.0 * run.get(activity) / total);
+        }
+
+        log("    %-8s %10.1f s (%.0f%%)", "IDLE", run.getIdle(), 100.0 * run.getIdle() / total);
+
+        Decorators.getSavedCommands().forEach((name, saved) -> {
+            if (saved > 0) {
+                log("Skipped %d redundant commands to %s.", saved, name);
+            }
+        });
+
+        Decorators.getTimeouts().forEach((name, timeouts) -> {
+            if (timeouts > 0) {
+                log("%d calls to %s timed out.", timeouts, name);
+            }
+        });
+
+        Decorators.getInvalidReadings().forEach((name, invalid) -> {
+            if (invalid > 0) {
+                log("%d readings from %s failed and were recorded as NaN.", invalid, name);
+            }
+        });
+
+    }
+
+    private static void printTrace() {
+
+        TraceRecorder trace  = Decorators.getTrace();
+        TraceReplay   replay = Decorators.getReplay();
+
+        if (trace != null) {
+            log("Recorded %d instrument calls to %s.", trace.getCalls(), trace.getPath());
+        }
+
+        if (replay != null) {
+            log("Replayed %d of %d instrument calls, with %d divergences.", replay.getReplayed(), replay.getTotal(), replay.getDivergences());
+        }
+
+    }
+
+    private static void log(String format, Object... args) {
+        System.out.printf("[%tT] %s%n", System.currentTimeMillis(), String.format(format, args));
+    }
+
+}
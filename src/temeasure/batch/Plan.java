@@ -0,0 +1,188 @@
+package temeasure.batch;
+
+import jisa.addresses.Address;
+import jisa.addresses.StrAddress;
+
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.lang.reflect.InvocationTargetException;
+import java.util.Properties;
+
+/**
+ * Measurement plan read from a properties file, for example:
+ *
+ * <pre>
+ * measurement               = GatedTEM
+ * output                    = /data/run-01.csv
+ *
+ * instrument.heater.driver  = jisa.devices.K2450
+ * instrument.heater.address = GPIB0::15::INSTR
+ * ...
+ *
+ * gate.start                = -7.0
+ * gate.stop                 = -2.0
+ * gate.steps                = 11
+ * heater.start              = 0.0
+ * heater.stop               = -5.0
+ * heater.steps              = 11
+ * timing.gate               = 20.0
+ * timing.heater             = 30.0
+ * timing.integration        = 0.2
+ *
+ * guard.gate.limit          = 100e-9   (optional, with guard.trend.points and guard.trend.factor)
+ * guard.heater.limit        = 0.01     (optional)
+ * guard.skips               = 2        (optional)
+ * </pre>
+ * <p>
+ * or, for an RT calibration:
+ *
+ * <pre>
+ * measurement                = RTCalibration
+ * ...
+ *
+ * rt.start                   = 100e-6
+ * rt.stop                    = 100e-6
+ * rt.steps                   = 1
+ * heater.start               = 0.0
+ * heater.stop                = -5.0
+ * heater.steps               = 11
+ * timing.heater              = 30.0
+ * timing.rt                  = 0.1
+ * timing.rest                = 60.0
+ * timing.integration         = 0.2
+ * sweeps                     = 3
+ *
+ * delta                      = true     (optional, false by default)
+ * delta.precision            = 0.01     (optional, target precision in %, 0 to take every sweep)
+ * rest.tolerance.resistance  = 0.2      (optional, in % of the baseline resistance)
+ * rest.tolerance.temperature = 0.05     (optional, in K)
+ * </pre>
+ * <p>
+ * Percentages are given as on the GUI. Each optional key can be given on its own, leaving the others at their defaults.
+ * Each instrument is given as the fully-qualified class name of its JISA driver and its VISA address.
+ */
+public class Plan {
+
+    private final Properties properties = new Properties();
+    private final String     source;
+
+    /**
+     * Reads a plan from a file.
+     *
+     * @param path Path to the plan file
+     *
+     * @throws IOException If the file cannot be read
+     */
+    public Plan(String path) throws IOException {
+
+        try (Reader reader = new FileReader(path)) {
+            properties.load(reader);
+        }
+
+        source = path;
+
+    }
+
+    /**
+     * Sets (or overrides) a single value of the plan, as given on the command line in the form key=value.
+     *
+     * @param assignment Key and value, separated by '='
+     */
+    public void set(String assignment) {
+
+        int split = assignment.indexOf('=');
+
+        if (split < 1) {
+            throw new IllegalArgumentException(String.format("Expected key=value, got \"%s\".", assignment));
+        }
+
+        properties.setProperty(assignment.substring(0, split).trim(), assignment.substring(split + 1).trim());
+
+    }
+
+    public boolean has(String key) {
+        return properties.containsKey(key);
+    }
+
+    public String getString(String key) {
+
+        String value = properties.getProperty(key);
+
+        if (value == null || value.trim().isEmpty()) {
+            throw new IllegalArgumentException(String.format("%s: missing value for \"%s\".", source, key));
+        }
+
+        return value.trim();
+
+    }
+
+    public double getDouble(String key) {
+
+        try {
+            return Double.parseDouble(getString(key));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(String.format("%s: \"%s\" must be a number.", source, key));
+        }
+
+    }
+
+    /**
+     * Returns the given value as a number, or the given default if the plan does not have it.
+     *
+     * @param key      Key of the value
+     * @param fallback Value to use if the key is missing
+     *
+     * @return Value
+     */
+    public double getDouble(String key, double fallback) {
+        return has(key) ? getDouble(key) : fallback;
+    }
+
+    public int getInt(String key) {
+
+        try {
+            return Integer.parseInt(getString(key));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(String.format("%s: \"%s\" must be a whole number.", source, key));
+        }
+
+    }
+
+    /**
+     * Connects to the instrument given by instrument.[name].driver and instrument.[name].address.
+     *
+     * @param name Name of the instrument in the plan
+     * @param type Type of instrument required
+     * @param <T>  Instrument type
+     *
+     * @return Connected instrument
+     *
+     * @throws Exception If the driver cannot be found or the instrument cannot be connected to
+     */
+    public <T> T getInstrument(String name, Class<T> type) throws Exception {
+
+        String driver  = getString("instrument." + name + ".driver");
+        String address = getString("instrument." + name + ".address");
+
+        Class<?> driverClass;
+
+        try {
+            driverClass = Class.forName(driver);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalArgumentException(String.format("%s: unknown driver \"%s\" for %s.", source, driver, name));
+        }
+
+        if (!type.isAssignableFrom(driverClass)) {
+            throw new IllegalArgumentException(String.format("%s: %s is not a %s, so cannot be used for %s.", source, driver, type.getSimpleName(), name));
+        }
+
+        try {
+            return type.cast(driverClass.getConstructor(Address.class).newInstance(new StrAddress(address)));
+        } catch (InvocationTargetException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+
+    }
+
+}
@@ -0,0 +1,244 @@
+package temeasure.control;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Lookup table of tuned PID values, one entry per temperature (and heater range) that has been tuned, kept in a CSV file
+ * so that it lasts between sessions. Looking up a temperature only uses the entries with the same heater range (or all
+ * entries, if none have that range), and only within the span of temperatures they were tuned at: between two tuned
+ * temperatures the values are interpolated, and past the ends they are only used within a short distance. Anywhere else
+ * nothing is found, so that values tuned for a very different temperature are never applied.
+ */
+public class PIDTable {
+
+    // Entries tuned within this of an existing one (with the same heater range) replace it, in Kelvin
+    private static final double SAME_TEMPERATURE = 0.1;
+
+    // Furthest outside the tuned span of temperatures that the nearest entry is still used, in Kelvin
+    private static final double MAX_DISTANCE = 2.0;
+
+    private static final String HEADER = "Temperature [K],Heater Range [%],P,I,D,Period [s],Amplitude [K]";
+
+    private final String      path;
+    private final List<Entry> entries = new ArrayList<>();
+
+    /**
+     * Opens the table stored in the given file, or starts an empty one if there is no file yet.
+     *
+     * @param path Path to the table file
+     *
+     * @throws IOException If the file exists but cannot be read
+     */
+    public PIDTable(String path) throws IOException {
+
+        this.path = path;
+
+        File file = new File(path);
+
+        if (!file.exists()) {
+            return;
+        }
+
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+
+            String line = reader.readLine(); // Header
+
+            while ((line = reader.readLine()) != null) {
+
+                String[] values = line.split(",");
+
+                if (values.length < 7) {
+                    continue;
+                }
+
+                try {
+                    entries.add(new Entry(
+                            Double.parseDouble(values[0]),
+                            Double.parseDouble(values[1]),
+                            Double.parseDouble(values[2]),
+                            Double.parseDouble(values[3]),
+                            Double.parseDouble(values[4]),
+                            Double.parseDouble(values[5]),
+                            Double.parseDouble(values[6])
+                    ));
+                } catch (NumberFormatException e) {
+                    throw new IOException(String.format("%s: invalid line \"%s\".", path, line));
+                }
+
+            }
+
+        }
+
+        entries.sort(Comparator.comparingDouble(Entry::getTemperature));
+
+    }
+
+    /**
+     * Adds a newly tuned entry, replacing any tuned at (nearly) the same temperature with the same heater range, and
+     * saves the table.
+     *
+     * @param entry Entry to add
+     *
+     * @throws IOException If the table cannot be saved
+     */
+    public synchronized void put(Entry entry) throws IOException {
+
+        entries.removeIf(e -> e.range == entry.range && Math.abs(e.temperature - entry.temperature) < SAME_TEMPERATURE);
+        entries.add(entry);
+        entries.sort(Comparator.comparingDouble(Entry::getTemperature));
+
+        save();
+
+    }
+
+    /**
+     * Returns the PID values to use at the given temperature and heater range, interpolated between the entries tuned
+     * either side of it.
+     *
+     * @param temperature Temperature, in Kelvin
+     * @param range       Heater range, in %
+     *
+     * @return Entry to use, or null if nothing has been tuned close enough (ie the PID values should be left alone)
+     */
+    public synchronized Entry lookup(double temperature, double range) {
+
+        boolean anyRanged = entries.stream().anyMatch(e -> e.range == range);
+        Entry   below     = null;
+        Entry   above     = null;
+
+        // Entries are in order of temperature, so this leaves the closest on each side
+        for (Entry entry : entries) {
+
+            if (anyRanged && entry.range != range) {
+                continue;
+            }
+
+            if (entry.temperature <= temperature) {
+                below = entry;
+            } else if (above == null) {
+                above = entry;
+            }
+
+        }
+
+        if (below != null && above != null) {
+            return below.interpolate(above, temperature);
+        }
+
+        Entry nearest = below != null ? below : above;
+
+        return nearest != null && nearest.distance(temperature) <= MAX_DISTANCE ? nearest : null;
+
+    }
+
+    /**
+     * Returns all entries, in order of temperature.
+     *
+     * @return List of entries
+     */
+    public synchronized List<Entry> getEntries() {
+        return new ArrayList<>(entries);
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    private void save() throws IOException {
+
+        try (PrintWriter writer = new PrintWriter(new FileWriter(path))) {
+
+            writer.println(HEADER);
+
+            for (Entry e : entries) {
+                writer.printf("%s,%s,%s,%s,%s,%s,%s%n", e.temperature, e.range, e.p, e.i, e.d, e.period, e.amplitude);
+            }
+
+        }
+
+    }
+
+    /**
+     * PID values tuned at one temperature and heater range, along with the oscillation they were found from.
+     */
+    public static class Entry {
+
+        private final double temperature;
+        private final double range;
+        private final double p;
+        private final double i;
+        private final double d;
+        private final double period;
+        private final double amplitude;
+
+        public Entry(double temperature, double range, double p, double i, double d, double period, double amplitude) {
+            this.temperature = temperature;
+            this.range       = range;
+            this.p           = p;
+            this.i           = i;
+            this.d           = d;
+            this.period      = period;
+            this.amplitude   = amplitude;
+        }
+
+        private double distance(double temperature) {
+            return Math.abs(this.temperature - temperature);
+        }
+
+        /**
+         * Returns the values linearly interpolated between this entry and one tuned at a higher temperature.
+         */
+        private Entry interpolate(Entry above, double temperature) {
+
+            if (temperature <= this.temperature) {
+                return this;
+            }
+
+            double f = (temperature - this.temperature) / (above.temperature - this.temperature);
+
+            return new Entry(
+                    temperature,
+                    range,
+                    p + f * (above.p - p),
+                    i + f * (above.i - i),
+                    d + f * (above.d - d),
+                    period + f * (above.period - period),
+                    amplitude + f * (above.amplitude - amplitude)
+            );
+
+        }
+
+        public double getTemperature() {
+            return temperature;
+        }
+
+        public double getRange() {
+            return range;
+        }
+
+        public double getP() {
+            return p;
+        }
+
+        public double getI() {
+            return i;
+        }
+
+        public double getD() {
+            return d;
+        }
+
+        public double getPeriod() {
+            return period;
+        }
+
+        public double getAmplitude() {
+            return amplitude;
+        }
+
+    }
+
+}
@@ -0,0 +1,178 @@
+package temeasure.control;
+
+import jisa.devices.TC;
+
+import java.util.function.Consumer;
+
+/**
+ * Relay-feedback (Astrom-Hagglund) autotune of a temperature controller's PID loop. The heater is driven in bang-bang
+ * mode, switching between two manual powers either side of the power it was at whenever the temperature crosses the
+ * set-point (with some hysteresis), which makes the temperature oscillate at the loop's ultimate period. From the period
+ * and amplitude of that oscillation, PID values are found with the Ziegler-Nichols rules. The heater range is set before
+ * tuning, as the values found only hold for the range they were tuned at.
+ * <p>
+ * The values found are given as P in % heater output per Kelvin, I as a reset in repeats per minute and D as a rate in
+ * seconds, which is how most (eg Lakeshore) controllers take them.
+ */
+public class RelayAutotune {
+
+    // Time between temperature samples, in milliseconds
+    private static final int SAMPLE_INTERVAL = 250;
+
+    private final TC               tc;
+    private final double           setPoint;
+    private final double           range;
+    private final double           amplitude;
+    private final double           hysteresis;
+    private final int              cycles;
+    private final double           maxTime;
+    private final Consumer<String> status;
+
+    /**
+     * Creates an autotune routine for the given controller.
+     *
+     * @param tc         Temperature controller to tune
+     * @param setPoint   Temperature to tune around, in Kelvin
+     * @param range      Heater range to tune at, in %
+     * @param amplitude  Relay amplitude: how far above and below its starting power to drive the heater, in %
+     * @param hysteresis How far past the set-point the temperature must go before switching, in Kelvin
+     * @param cycles     Number of oscillation cycles to average over (after a first one that is discarded)
+     * @param maxTime    Longest to wait for the oscillations, in seconds
+     * @param status     Receives progress updates
+     */
+    public RelayAutotune(TC tc, double setPoint, double range, double amplitude, double hysteresis, int cycles, double maxTime, Consumer<String> status) {
+        this.tc         = tc;
+        this.setPoint   = setPoint;
+        this.range      = range;
+        this.amplitude  = amplitude;
+        this.hysteresis = hysteresis;
+        this.cycles     = Math.max(1, cycles);
+        this.maxTime    = maxTime;
+        this.status     = status;
+    }
+
+    /**
+     * Runs the autotune, blocking until done, then applies the PID values found and returns the controller to automatic
+     * heater control. If it fails or is interrupted, the PID values are left as they were.
+     *
+     * @return PID values found, along with the oscillation they were found from
+     *
+     * @throws Exception If the oscillation does not settle within the time allowed, or communication fails
+     */
+    public PIDTable.Entry run() throws Exception {
+
+        if (range <= 0) {
+            throw new IllegalArgumentException("Heater range must not be off.");
+        }
+
+        tc.setTargetTemperature(setPoint);
+        tc.setHeaterRange(range);
+
+        double bias  = tc.getHeaterPower();
+        double high  = Math.min(100.0, bias + amplitude);
+        double low   = Math.max(0.0, bias - amplitude);
+        double relay = (high - low) / 2;
+
+        if (relay <= 0) {
+            throw new IllegalArgumentException("Relay amplitude must be greater than zero.");
+        }
+
+        long    start    = System.nanoTime();
+        long    lastUp   = -1;
+        boolean heating  = tc.getTemperature() < setPoint;
+        double  cycleMax = Double.NEGATIVE_INFINITY;
+        double  cycleMin = Double.POSITIVE_INFINITY;
+        int     seen     = 0;
+        double  periods  = 0;
+        double  heights  = 0;
+
+        try {
+
+            tc.setManualHeater(heating ? high : low);
+
+            while (seen <= cycles) {
+
+                if ((System.nanoTime() - start) / 1e9 > maxTime) {
+                    throw new IllegalStateException(String.format("No steady oscillation around %.2f K within %.0f s.", setPoint, maxTime));
+                }
+
+                Thread.sleep(SAMPLE_INTERVAL);
+
+                double temperature = tc.getTemperature();
+
+                if (Double.isNaN(temperature)) {
+                    continue;
+                }
+
+                cycleMax = Math.max(cycleMax, temperature);
+                cycleMin = Math.min(cycleMin, temperature);
+
+                if (heating && temperature > setPoint + hysteresis) {
+
+                    heating = false;
+                    tc.setManualHeater(low);
+
+                } else if (!heating && temperature < setPoint - hysteresis) {
+
+                    long now = System.nanoTime();
+
+                    heating = true;
+                    tc.setManualHeater(high);
+
+                    // Each switch up completes a cycle, the first of which is only the approach so is not counted
+                    if (lastUp >= 0) {
+
+                        if (seen > 0) {
+                            periods += (now - lastUp) / 1e9;
+                            heights += (cycleMax - cycleMin) / 2;
+                        }
+
+                        status.accept(seen == 0
+                                      ? String.format("Approach done, period %.1f s", (now - lastUp) / 1e9)
+                                      : String.format("Cycle %d/%d, period %.1f s", seen, cycles, (now - lastUp) / 1e9));
+
+                        seen++;
+
+                    }
+
+                    lastUp   = now;
+                    cycleMax = temperature;
+                    cycleMin = temperature;
+
+                }
+
+            }
+
+            double period = periods / cycles;
+            double height = heights / cycles;
+
+            // Ultimate gain from the describing function of a relay with hysteresis, then classic Ziegler-Nichols
+            double ultimate = 4 * relay / (Math.PI * Math.sqrt(Math.max(height * height - hysteresis * hysteresis, 1e-12)));
+            double p        = 0.6 * ultimate;
+            double i        = 60.0 / (period / 2);
+            double d        = period / 8;
+
+            tc.setPValue(p);
+            tc.setIValue(i);
+            tc.setDValue(d);
+
+            status.accept(String.format("Done: P = %.3g, I = %.3g, D = %.3g", p, i, d));
+
+            return new PIDTable.Entry(setPoint, range, p, i, d, period, height);
+
+        } finally {
+
+            // Hand control back to the controller even if stopped, so clear any interrupt until that is done
+            boolean interrupted = Thread.interrupted();
+
+            tc.useAutoHeater();
+
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+
+        }
+
+    }
+
+}
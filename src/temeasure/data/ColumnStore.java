@@ -0,0 +1,249 @@
+package temeasure.data;
+
+import jisa.experiment.Col;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.IntConsumer;
+import java.util.function.IntToDoubleFunction;
+
+/**
+ * Append-only table of results that stores each column as a series of fixed-size primitive double[] chunks. Rows are
+ * filled into a reusable row buffer and then committed, so appending allocates nothing except a new chunk every
+ * CHUNK_SIZE rows, and existing data is never copied when the store grows. Columns can be read through views that
+ * refer directly to the stored chunks.
+ *
+ * A single thread may write to the store while any number of others read from it.
+ */
+public class ColumnStore {
+
+    public static final int CHUNK_BITS = 12;
+    public static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    public static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private final Col[]                columns;
+    private final double[]             row;
+    private final List<PartitionIndex> indexes   = new CopyOnWriteArrayList<>();
+    private final List<IntConsumer>    listeners = new CopyOnWriteArrayList<>();
+
+    // Indexed as [column][chunk][row within chunk]
+    private volatile double[][][] chunks;
+    private volatile int          size = 0;
+
+    public ColumnStore(Col... columns) {
+
+        this.columns = columns;
+        this.row     = new double[columns.length];
+        this.chunks  = new double[columns.length][0][];
+
+    }
+
+    public Col[] getColumns() {
+        return columns;
+    }
+
+    public int getNumCols() {
+        return columns.length;
+    }
+
+    /**
+     * Returns the number of committed rows.
+     *
+     * @return Number of rows
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the reusable buffer to fill in before calling commit(). It holds the values of the previously committed
+     * row until overwritten.
+     *
+     * @return Row buffer, indexed by column
+     */
+    public double[] row() {
+        return row;
+    }
+
+    /**
+     * Appends the contents of the row buffer to the store.
+     *
+     * @return Index of the new row
+     */
+    public synchronized int commit() {
+
+        int index = size;
+        int chunk = index >>> CHUNK_BITS;
+
+        // Need a new chunk in each column, only the (small) chunk tables are copied
+        if ((index & CHUNK_MASK) == 0) {
+
+            double[][][] grown = new double[columns.length][][];
+
+            for (int c = 0; c < columns.length; c++) {
+                grown[c]        = Arrays.copyOf(chunks[c], chunk + 1);
+                grown[c][chunk] = new double[CHUNK_SIZE];
+            }
+
+            chunks = grown;
+
+        }
+
+        double[][][] current = chunks;
+
+        for (int c = 0; c < columns.length; c++) {
+            current[c][chunk][index & CHUNK_MASK] = row[c];
+        }
+
+        // Publishing the new size makes the row visible to readers
+        size = index + 1;
+
+        for (PartitionIndex partitionIndex : indexes) {
+            partitionIndex.add(row, index);
+        }
+
+        for (IntConsumer listener : listeners) {
+            listener.accept(index);
+        }
+
+        return index;
+
+    }
+
+    /**
+     * Copies the given values into the row buffer and commits them.
+     *
+     * @param values Values, one per column
+     *
+     * @return Index of the new row
+     */
+    public synchronized int add(double[] values) {
+        System.arraycopy(values, 0, row, 0, columns.length);
+        return commit();
+    }
+
+    /**
+     * Creates a secondary index grouping rows by the values in the given key columns, including all rows already in the
+     * store. The index is kept up to date as further rows are committed.
+     *
+     * @param keyCols Indices of the key columns
+     *
+     * @return Partition index
+     */
+    public synchronized PartitionIndex addIndex(int... keyCols) {
+
+        PartitionIndex index = new PartitionIndex(keyCols);
+        double[]       tmp   = new double[columns.length];
+
+        for (int r = 0; r < size; r++) {
+
+            for (int c = 0; c < columns.length; c++) {
+                tmp[c] = get(r, c);
+            }
+
+            index.add(tmp, r);
+
+        }
+
+        indexes.add(index);
+        return index;
+
+    }
+
+    /**
+     * Adds a listener to be called, on the writing thread, with the index of each newly committed row.
+     *
+     * @param listener Listener to add
+     */
+    public void addListener(IntConsumer listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(IntConsumer listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Returns the value in the given row and column.
+     *
+     * @param row Row index
+     * @param col Column index
+     *
+     * @return Value
+     */
+    public double get(int row, int col) {
+
+        if (row >= size) {
+            throw new IndexOutOfBoundsException(String.format("Row %d is not in store of %d rows", row, size));
+        }
+
+        return chunks[col][row >>> CHUNK_BITS][row & CHUNK_MASK];
+
+    }
+
+    /**
+     * Returns a live view of the given column, without copying any data.
+     *
+     * @param col Column index
+     *
+     * @return View of column
+     */
+    public ColumnView column(int col) {
+        return new ColumnView(col);
+    }
+
+    /**
+     * Read-only view of a single column of the store, reflecting rows as they are committed.
+     */
+    public class ColumnView implements IntToDoubleFunction {
+
+        private final int col;
+
+        private ColumnView(int col) {
+            this.col = col;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public double get(int row) {
+            return ColumnStore.this.get(row, col);
+        }
+
+        @Override
+        public double applyAsDouble(int row) {
+            return get(row);
+        }
+
+        /**
+         * Copies a range of this column into an array, chunk by chunk.
+         *
+         * @param from   First row to copy
+         * @param to     Row after the last to copy
+         * @param dest   Array to copy into
+         * @param offset Position in the array to copy the first row to
+         */
+        public void copyTo(int from, int to, double[] dest, int offset) {
+
+            double[][] column = chunks[col];
+
+            while (from < to) {
+
+                int chunk  = from >>> CHUNK_BITS;
+                int start  = from & CHUNK_MASK;
+                int length = Math.min(CHUNK_SIZE - start, to - from);
+
+                System.arraycopy(column[chunk], start, dest, offset, length);
+
+                from += length;
+                offset += length;
+
+            }
+
+        }
+
+    }
+
+}
@@ -0,0 +1,55 @@
+package temeasure.data;
+
+/**
+ * Immutable snapshot of a single committed row of results, as delivered to subscribers of a PointPublisher.
+ */
+public class DataPoint {
+
+    private final int      index;
+    private final long     time;
+    private final double[] values;
+
+    DataPoint(int index, long time, double[] values) {
+        this.index  = index;
+        this.time   = time;
+        this.values = values;
+    }
+
+    /**
+     * Returns the index of this row in the measurement's column store.
+     *
+     * @return Row index
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * Returns the time at which this point was published, from System.nanoTime().
+     *
+     * @return Publish time, in nanoseconds
+     */
+    public long getTime() {
+        return time;
+    }
+
+    /**
+     * Returns the value in the given column.
+     *
+     * @param col Column index (ie one of the COL_* constants of the measurement)
+     *
+     * @return Value
+     */
+    public double get(int col) {
+        return values[col];
+    }
+
+    public int size() {
+        return values.length;
+    }
+
+    public double[] toArray() {
+        return values.clone();
+    }
+
+}
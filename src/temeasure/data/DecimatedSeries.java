@@ -0,0 +1,246 @@
+package temeasure.data;
+
+import jisa.gui.Series;
+
+import java.util.function.IntToDoubleFunction;
+
+/**
+ * Feeds a plot series with a bounded number of points, however many are added. Points are grouped into consecutive
+ * buckets and only the minimum and maximum of each bucket are drawn, so the shape of the data (including any spikes) is
+ * kept while the number of drawn points stays at most twice the number of buckets. Whenever the number of buckets
+ * doubles, neighbouring buckets are merged and the series is redrawn. The series can also be re-binned from the
+ * underlying data over a chosen x-range, for instance when zooming in.
+ */
+public class DecimatedSeries {
+
+    private final Series series;
+    private final int    maxBuckets;
+
+    // Completed buckets, as the x and y values of their minimum and maximum points
+    private final double[] minX;
+    private final double[] minY;
+    private final double[] maxX;
+    private final double[] maxY;
+    private       int      buckets   = 0;
+    private       int      perBucket = 1;
+
+    // Bucket currently being filled
+    private double oMinX;
+    private double oMinY;
+    private double oMaxX;
+    private double oMaxY;
+    private int    oCount = 0;
+
+    private double xMin = Double.NEGATIVE_INFINITY;
+    private double xMax = Double.POSITIVE_INFINITY;
+
+    /**
+     * Creates a decimating adapter around the given series.
+     *
+     * @param series     Series to draw into
+     * @param maxBuckets Number of buckets to aim for, ie the width of the plot in pixels
+     */
+    public DecimatedSeries(Series series, int maxBuckets) {
+        this.series     = series;
+        this.maxBuckets = maxBuckets;
+        this.minX       = new double[2 * maxBuckets];
+        this.minY       = new double[2 * maxBuckets];
+        this.maxX       = new double[2 * maxBuckets];
+        this.maxY       = new double[2 * maxBuckets];
+    }
+
+    public Series getSeries() {
+        return series;
+    }
+
+    /**
+     * Adds a new point to the end of the series. Points outside the current x-range (see rebin(...)) are ignored.
+     *
+     * @param x X-value
+     * @param y Y-value
+     */
+    public synchronized void add(double x, double y) {
+
+        if (x < xMin || x > xMax) {
+            return;
+        }
+
+        accumulate(x, y);
+
+        if (oCount < perBucket) {
+            return;
+        }
+
+        closeBucket();
+
+        if (buckets == minX.length) {
+            compact();
+            redraw();
+        } else {
+            drawBucket(buckets - 1);
+        }
+
+    }
+
+    /**
+     * Discards all points and re-bins the series from the underlying data, only including points within the given
+     * x-range. Points added after this with add(...) are also limited to the range.
+     *
+     * @param size Number of points in the underlying data
+     * @param x    Returns the x-value of a given point
+     * @param y    Returns the y-value of a given point
+     * @param from Minimum x-value to show
+     * @param to   Maximum x-value to show
+     */
+    public synchronized void rebin(int size, IntToDoubleFunction x, IntToDoubleFunction y, double from, double to) {
+
+        reset();
+
+        xMin = from;
+        xMax = to;
+
+        // Count how many points fall in range so that the bucket size can be chosen up-front
+        int inRange = 0;
+
+        for (int i = 0; i < size; i++) {
+
+            double xv = x.applyAsDouble(i);
+
+            if (xv >= from && xv <= to) {
+                inRange++;
+            }
+
+        }
+
+        perBucket = 1;
+
+        while (inRange > perBucket * maxBuckets) {
+            perBucket *= 2;
+        }
+
+        for (int i = 0; i < size; i++) {
+
+            double xv = x.applyAsDouble(i);
+
+            if (xv < from || xv > to) {
+                continue;
+            }
+
+            accumulate(xv, y.applyAsDouble(i));
+
+            if (oCount == perBucket) {
+                closeBucket();
+            }
+
+        }
+
+        // Treat any left-over points as a complete bucket so that the most recent data is visible straight away
+        if (oCount > 0) {
+            closeBucket();
+        }
+
+        redraw();
+
+    }
+
+    /**
+     * Removes all points from the series and resets the x-range to include everything.
+     */
+    public synchronized void clear() {
+        reset();
+        xMin = Double.NEGATIVE_INFINITY;
+        xMax = Double.POSITIVE_INFINITY;
+        series.clear();
+    }
+
+    private void reset() {
+        buckets   = 0;
+        perBucket = 1;
+        oCount    = 0;
+    }
+
+    private void accumulate(double x, double y) {
+
+        if (oCount == 0 || y < oMinY) {
+            oMinX = x;
+            oMinY = y;
+        }
+
+        if (oCount == 0 || y > oMaxY) {
+            oMaxX = x;
+            oMaxY = y;
+        }
+
+        oCount++;
+
+    }
+
+    private void closeBucket() {
+        minX[buckets] = oMinX;
+        minY[buckets] = oMinY;
+        maxX[buckets] = oMaxX;
+        maxY[buckets] = oMaxY;
+        buckets++;
+        oCount = 0;
+    }
+
+    /**
+     * Merges neighbouring pairs of buckets, halving the number of buckets and doubling the points per bucket.
+     */
+    private void compact() {
+
+        for (int i = 0; i < buckets / 2; i++) {
+
+            int a = 2 * i;
+            int b = a + 1;
+
+            boolean minA = minY[a] <= minY[b];
+            boolean maxA = maxY[a] >= maxY[b];
+
+            minX[i] = minA ? minX[a] : minX[b];
+            minY[i] = minA ? minY[a] : minY[b];
+            maxX[i] = maxA ? maxX[a] : maxX[b];
+            maxY[i] = maxA ? maxY[a] : maxY[b];
+
+        }
+
+        buckets /= 2;
+        perBucket *= 2;
+
+    }
+
+    private void redraw() {
+
+        series.clear();
+
+        for (int i = 0; i < buckets; i++) {
+            drawBucket(i);
+        }
+
+    }
+
+    private void drawBucket(int i) {
+
+        double x1 = minX[i];
+        double y1 = minY[i];
+        double x2 = maxX[i];
+        double y2 = maxY[i];
+
+        // Single-point bucket, or the minimum and maximum are the same point
+        if (x1 == x2 && y1 == y2) {
+            series.addPoint(x1, y1);
+            return;
+        }
+
+        // Draw the two extremes in the order they occurred
+        if (x1 <= x2) {
+            series.addPoint(x1, y1);
+            series.addPoint(x2, y2);
+        } else {
+            series.addPoint(x2, y2);
+            series.addPoint(x1, y1);
+        }
+
+    }
+
+}
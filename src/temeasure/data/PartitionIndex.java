@@ -0,0 +1,157 @@
+package temeasure.data;
+
+import java.util.*;
+
+/**
+ * Secondary index on one or more key columns of a column store, grouping the indices of rows by their key values. Rows
+ * are added to their partition as they are committed, at constant cost, so anything that only needs the rows with a
+ * given key (ie a filtered or split plot series) can read its partition directly rather than scanning the whole store.
+ */
+public class PartitionIndex {
+
+    private final    int[]               keyCols;
+    private final    Map<Key, Partition> partitions = new HashMap<>();
+    private final    List<Partition>     ordered    = new ArrayList<>();
+    private final    Key                 probe;
+    private volatile List<Partition>     snapshot   = Collections.emptyList();
+
+    PartitionIndex(int... keyCols) {
+        this.keyCols = keyCols.clone();
+        this.probe   = new Key(new double[keyCols.length]);
+    }
+
+    public int[] getKeyColumns() {
+        return keyCols.clone();
+    }
+
+    /**
+     * Adds the given row to its partition. Called by the store with each committed row.
+     *
+     * @param row   Values of the row
+     * @param index Index of the row in the store
+     */
+    synchronized void add(double[] row, int index) {
+
+        // Look up using a reusable key so that nothing is allocated for rows in an existing partition
+        for (int i = 0; i < keyCols.length; i++) {
+            probe.values[i] = row[keyCols[i]];
+        }
+
+        probe.rehash();
+
+        Partition partition = partitions.get(probe);
+
+        if (partition == null) {
+            Key key = new Key(probe.values.clone());
+            partition = new Partition(key.values);
+            partitions.put(key, partition);
+            ordered.add(partition);
+            snapshot = List.copyOf(ordered);
+        }
+
+        partition.add(index);
+
+    }
+
+    /**
+     * Returns all partitions, in the order in which they first appeared.
+     *
+     * @return List of partitions
+     */
+    public List<Partition> getPartitions() {
+        return snapshot;
+    }
+
+    /**
+     * Returns the partition with the given key values, or null if no rows have had that key.
+     *
+     * @param key Key values, in the same order as the key columns
+     *
+     * @return Partition, or null
+     */
+    public synchronized Partition get(double... key) {
+        return partitions.get(new Key(key.clone()));
+    }
+
+    /**
+     * Indices of all rows in the store sharing the same key values.
+     */
+    public static class Partition {
+
+        private final    double[] key;
+        private volatile int[]    rows = new int[16];
+        private volatile int      size = 0;
+
+        private Partition(double[] key) {
+            this.key = key;
+        }
+
+        private void add(int index) {
+
+            int[] current = rows;
+
+            if (size == current.length) {
+                current = Arrays.copyOf(current, size * 2);
+                rows    = current;
+            }
+
+            current[size] = index;
+            size          = size + 1;
+
+        }
+
+        /**
+         * Returns the value of the given key column shared by all rows in this partition.
+         *
+         * @param i Position of the key column in the index
+         *
+         * @return Key value
+         */
+        public double getKey(int i) {
+            return key[i];
+        }
+
+        public int size() {
+            return size;
+        }
+
+        /**
+         * Returns the store index of the i-th row in this partition.
+         *
+         * @param i Position in partition
+         *
+         * @return Row index in the store
+         */
+        public int get(int i) {
+            return rows[i];
+        }
+
+    }
+
+    private static class Key {
+
+        private final double[] values;
+        private       int      hash;
+
+        private Key(double[] values) {
+            this.values = values;
+            rehash();
+        }
+
+        private void rehash() {
+            hash = Arrays.hashCode(values);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key && Arrays.equals(values, ((Key) o).values);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+    }
+
+}
@@ -0,0 +1,255 @@
+package temeasure.data;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Publishes each data-point of a measurement to any number of independent subscriber stages. Every stage has its own
+ * executor and bounded buffer, and points are offered without ever blocking, so a slow stage can only fall behind (and
+ * eventually have points dropped), never slow down the publishing thread or any other stage. The backlog, drop count
+ * and delivery delay of each stage can be observed while running. Executors created by the publisher itself (see
+ * subscribe(Flow.Subscriber)) are shut down once the publisher is closed and they have delivered what they hold.
+ * <p>
+ * A stage that must see every point (eg a safety check) can instead subscribe with subscribeLossless(), whose buffer
+ * grows as needed rather than dropping. Any stage that throws from onNext() is cancelled and told so through its
+ * onError(), rather than silently.
+ */
+public class PointPublisher implements Flow.Publisher<DataPoint> {
+
+    public static final int DEFAULT_BUFFER = 1024;
+
+    private final List<Stage> stages = new CopyOnWriteArrayList<>();
+
+    /**
+     * Subscribes with its own single-threaded executor and the default buffer size. The executor is shut down when the
+     * publisher is closed.
+     *
+     * @param subscriber Subscriber to add
+     */
+    @Override
+    public void subscribe(Flow.Subscriber<? super DataPoint> subscriber) {
+
+        ExecutorService executor = newExecutor(subscriber);
+
+        subscribe(subscriber.getClass().getSimpleName(), subscriber, executor, DEFAULT_BUFFER).owned = executor;
+
+    }
+
+    /**
+     * Subscribes with its own single-threaded executor and a buffer that is never full, so that no point is ever dropped
+     * however far behind the stage falls. The executor is shut down when the publisher is closed.
+     *
+     * @param subscriber Subscriber to add
+     *
+     * @return The new stage
+     */
+    public Stage subscribeLossless(Flow.Subscriber<? super DataPoint> subscriber) {
+
+        ExecutorService executor = newExecutor(subscriber);
+        Stage           stage    = subscribe(subscriber.getClass().getSimpleName(), subscriber, executor, Integer.MAX_VALUE);
+
+        stage.owned    = executor;
+        stage.lossless = true;
+
+        return stage;
+
+    }
+
+    private static ExecutorService newExecutor(Flow.Subscriber<? super DataPoint> subscriber) {
+
+        return Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "Stage: " + subscriber.getClass().getSimpleName());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+    }
+
+    /**
+     * Subscribes as a new, independent stage.
+     *
+     * @param name       Name of the stage, for diagnostics
+     * @param subscriber Subscriber to receive points
+     * @param executor   Executor on which to deliver points to the subscriber
+     * @param bufferSize Maximum number of points to hold for this stage before dropping
+     *
+     * @return The new stage
+     */
+    public Stage subscribe(String name, Flow.Subscriber<? super DataPoint> subscriber, Executor executor, int bufferSize) {
+
+        Stage stage = new Stage(name, executor, bufferSize);
+        stage.publisher.subscribe(new TimedSubscriber(stage, subscriber));
+        stages.add(stage);
+
+        return stage;
+
+    }
+
+    public boolean hasSubscribers() {
+        return !stages.isEmpty();
+    }
+
+    public List<Stage> getStages() {
+        return List.copyOf(stages);
+    }
+
+    /**
+     * Publishes a row to all stages, without blocking.
+     *
+     * @param index  Index of the row in the column store
+     * @param values Values of the row, which are copied
+     */
+    public void publish(int index, double[] values) {
+
+        if (stages.isEmpty()) {
+            return;
+        }
+
+        DataPoint point = new DataPoint(index, System.nanoTime(), values.clone());
+
+        for (Stage stage : stages) {
+
+            stage.published.incrementAndGet();
+
+            // The buffer of a lossless stage grows rather than filling, so submitting never blocks
+            if (stage.lossless) {
+                stage.publisher.submit(point);
+                continue;
+            }
+
+            stage.publisher.offer(point, (subscriber, dropped) -> {
+                stage.dropped.incrementAndGet();
+                return false;
+            });
+
+        }
+
+    }
+
+    /**
+     * Signals completion to all stages, which will still receive any points already buffered. Executors the publisher
+     * created itself are then shut down, so their threads end once those points have been delivered.
+     */
+    public void close() {
+
+        for (Stage stage : stages) {
+
+            stage.publisher.close();
+
+            if (stage.owned != null) {
+                stage.owned.shutdown();
+            }
+
+        }
+
+    }
+
+    /**
+     * A single subscriber, along with its executor and buffer.
+     */
+    public static class Stage {
+
+        private final String                         name;
+        private final SubmissionPublisher<DataPoint> publisher;
+        private final AtomicLong                     published = new AtomicLong(0);
+        private final AtomicLong                     delivered = new AtomicLong(0);
+        private final AtomicLong                     dropped   = new AtomicLong(0);
+        private volatile long                        lastDelay = 0;
+        private volatile long                        maxDelay  = 0;
+        private          ExecutorService             owned     = null;  // Created by the publisher, so shut down by it
+        private          boolean                     lossless  = false; // Never drops points
+
+        private Stage(String name, Executor executor, int bufferSize) {
+            this.name      = name;
+            this.publisher = new SubmissionPublisher<>(executor, bufferSize, (subscriber, error) -> subscriber.onError(error));
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Returns the number of points published to, but not yet processed by, this stage.
+         *
+         * @return Number of points behind
+         */
+        public long getBacklog() {
+            return published.get() - delivered.get() - dropped.get();
+        }
+
+        public long getDelivered() {
+            return delivered.get();
+        }
+
+        public long getDropped() {
+            return dropped.get();
+        }
+
+        /**
+         * Returns the time between the most recently delivered point being published and this stage receiving it.
+         *
+         * @return Delay, in seconds
+         */
+        public double getLastDelay() {
+            return lastDelay / 1e9;
+        }
+
+        public double getMaxDelay() {
+            return maxDelay / 1e9;
+        }
+
+    }
+
+    /**
+     * Passes points on to a subscriber, recording how long after publication each one arrived.
+     */
+    private static class TimedSubscriber implements Flow.Subscriber<DataPoint> {
+
+        private final Stage                              stage;
+        private final Flow.Subscriber<? super DataPoint> subscriber;
+
+        private TimedSubscriber(Stage stage, Flow.Subscriber<? super DataPoint> subscriber) {
+            this.stage      = stage;
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            subscriber.onSubscribe(subscription);
+        }
+
+        @Override
+        public void onNext(DataPoint item) {
+
+            long delay = System.nanoTime() - item.getTime();
+
+            stage.lastDelay = delay;
+            stage.maxDelay  = Math.max(stage.maxDelay, delay);
+
+            try {
+                subscriber.onNext(item);
+            } finally {
+                stage.delivered.incrementAndGet();
+            }
+
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            subscriber.onError(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            subscriber.onComplete();
+        }
+
+    }
+
+}
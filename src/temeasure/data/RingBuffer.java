@@ -0,0 +1,133 @@
+package temeasure.data;
+
+/**
+ * Fixed-capacity table of rows stored in primitive arrays (one per column). Once full, each new row overwrites the
+ * oldest, so memory use stays constant however many rows are added.
+ */
+public class RingBuffer {
+
+    private final double[][] columns;
+    private final int        capacity;
+    private       int        head  = 0;  // Index at which the next row will be written
+    private       int        size  = 0;
+    private       long       total = 0;
+
+    /**
+     * Creates an empty buffer.
+     *
+     * @param numCols  Number of columns in each row
+     * @param capacity Maximum number of rows to hold
+     */
+    public RingBuffer(int numCols, int capacity) {
+
+        this.capacity = capacity;
+        this.columns  = new double[numCols][capacity];
+
+    }
+
+    /**
+     * Adds a row to the buffer, overwriting the oldest row if full.
+     *
+     * @param row Row of values, one per column
+     */
+    public synchronized void add(double[] row) {
+
+        for (int c = 0; c < columns.length; c++) {
+            columns[c][head] = row[c];
+        }
+
+        head = (head + 1) % capacity;
+        size = Math.min(size + 1, capacity);
+        total++;
+
+    }
+
+    /**
+     * Returns the value in the given column of the given row, where row 0 is the oldest row still held.
+     *
+     * @param row Row index, from oldest
+     * @param col Column index
+     *
+     * @return Value
+     */
+    public synchronized double get(int row, int col) {
+
+        if (row < 0 || row >= size) {
+            throw new IndexOutOfBoundsException(String.format("Row %d is not in buffer of %d rows", row, size));
+        }
+
+        return columns[col][(head - size + row + capacity) % capacity];
+
+    }
+
+    /**
+     * Returns a copy of every row currently held, taken in one go so that rows added meanwhile cannot shift or tear it.
+     * Readers that need more than one value from the same row should use this rather than get(), whose row indices
+     * shift by one with every row added once the buffer is full.
+     *
+     * @return Copy of each column, indexed as [column][row from oldest]
+     */
+    public synchronized double[][] snapshot() {
+        return copyLast(size);
+    }
+
+    /**
+     * Returns a copy of the rows added since the buffer had been given the given total number of rows (see getTotal()),
+     * taken in one go in the same way as snapshot(). If some of those rows have since been overwritten, only the rest are
+     * given.
+     *
+     * @param total Total number of rows added when the rows wanted started being added
+     *
+     * @return Copy of each column, indexed as [column][row from oldest]
+     */
+    public synchronized double[][] snapshotSince(long total) {
+        return copyLast((int) Math.min(size, Math.max(0, this.total - total)));
+    }
+
+    private double[][] copyLast(int count) {
+
+        double[][] copy  = new double[columns.length][count];
+        int        start = (head - count + capacity) % capacity;
+        int        first = Math.min(count, capacity - start);
+
+        for (int c = 0; c < columns.length; c++) {
+            System.arraycopy(columns[c], start, copy[c], 0, first);
+            System.arraycopy(columns[c], 0, copy[c], first, count - first);
+        }
+
+        return copy;
+
+    }
+
+    /**
+     * Returns the number of rows currently held.
+     *
+     * @return Number of rows
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int getNumCols() {
+        return columns.length;
+    }
+
+    /**
+     * Returns the number of rows ever added, including those that have since been overwritten.
+     *
+     * @return Total number of rows added
+     */
+    public synchronized long getTotal() {
+        return total;
+    }
+
+    public synchronized void clear() {
+        head = 0;
+        size = 0;
+    }
+
+}
@@ -0,0 +1,157 @@
+package temeasure.devices;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Write-through decorator that remembers the last state commanded of an instrument and skips any command that would not
+ * change it (eg setting the same voltage twice). Queries always reach the instrument, as do turnOn() and turnOff(),
+ * since whether an output is really on or off matters too much to be taken on trust (eg a compliance trip or the front
+ * panel can turn it off behind our back). Anything not recognised as a simple setter, or any command that fails, forgets
+ * everything remembered so that the next command of every kind is sent. The cache is also forgotten at the start of
+ * every run (see Decorators.invalidateCaches()), so it only ever saves repeated commands within a run.
+ */
+public class CachingInstrument implements InvocationHandler {
+
+    // Commands that each change what the others mean (eg changing source mode), so must forget each other
+    private static final List<List<String>> LINKED = List.of(
+            List.of("setVoltage", "setCurrent", "setSource")
+    );
+
+    // Commands that are always sent, but do not change what any of the remembered setters mean
+    private static final List<String> ALWAYS_SENT = List.of("turnOn", "turnOff");
+
+    private final Object              target;
+    private final Map<String, Object> state = new HashMap<>();
+    private final AtomicLong          sent  = new AtomicLong(0);
+    private final AtomicLong          saved = new AtomicLong(0);
+
+    CachingInstrument(Object target) {
+        this.target = target;
+    }
+
+    /**
+     * Returns the key and value representing the state a command sets, or null if it is not a simple setter.
+     */
+    private static Object[] stateOf(Method method, Object[] args) {
+
+        String name = method.getName();
+
+        switch (name) {
+
+            case "useAutoHeater":
+                return new Object[]{"heaterMode", "auto"};
+
+            case "setManualHeater":
+                return new Object[]{"heaterMode", List.of("manual", Arrays.asList(args))};
+
+            default:
+
+                if (name.startsWith("set") && args != null && args.length > 0) {
+                    return new Object[]{name, Arrays.asList(args)};
+                }
+
+                return null;
+
+        }
+
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+
+        if (method.getDeclaringClass() == Object.class) {
+            return Decorators.invokeObject(proxy, target, method, args);
+        }
+
+        // Queries never change the state of the instrument, so go straight through without waiting on any command
+        if (TimedInstrument.isQuery(method)) {
+            return call(method, args);
+        }
+
+        return command(method, args);
+
+    }
+
+    private synchronized Object command(Method method, Object[] args) throws Throwable {
+
+        if (ALWAYS_SENT.contains(method.getName())) {
+            return call(method, args);
+        }
+
+        Object[] command = stateOf(method, args);
+
+        if (command == null) {
+            Object result = call(method, args);
+            state.clear();
+            return result;
+        }
+
+        String key   = (String) command[0];
+        Object value = command[1];
+
+        if (state.containsKey(key) && state.get(key).equals(value)) {
+            saved.incrementAndGet();
+            return null;
+        }
+
+        Object result = call(method, args);
+
+        for (List<String> linked : LINKED) {
+            if (linked.contains(key)) {
+                linked.forEach(state::remove);
+            }
+        }
+
+        state.put(key, value);
+
+        return result;
+
+    }
+
+    private Object call(Method method, Object[] args) throws Throwable {
+
+        try {
+            sent.incrementAndGet();
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            // The command may or may not have taken effect, so nothing remembered can be trusted
+            invalidate();
+            throw e.getCause();
+        }
+
+    }
+
+    /**
+     * Forgets all remembered state, so that the next command of every kind is sent to the instrument. Should be called
+     * if the instrument may have been changed by something other than this program.
+     */
+    public synchronized void invalidate() {
+        state.clear();
+    }
+
+    /**
+     * Returns the number of calls passed on to the instrument.
+     *
+     * @return Number of calls sent
+     */
+    public long getSent() {
+        return sent.get();
+    }
+
+    /**
+     * Returns the number of commands skipped because they would not have changed anything.
+     *
+     * @return Number of transactions saved
+     */
+    public long getSaved() {
+        return saved.get();
+    }
+
+}
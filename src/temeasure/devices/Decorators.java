@@ -0,0 +1,262 @@
+package temeasure.devices;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Wraps the instruments configured on the config tabs in decorating proxies. Each decorator implements every interface
+ * of the instrument it wraps, so checks like "instanceof IMeter" still work on the decorated instrument. Each instrument
+ * is given a write-through cache of its state, and all calls that reach it are timed and given a deadline (see
+ * ResilientInstrument). The same instrument in the same
+ * role is always given the same decorated instance, so counters held by a decorator last between runs, until the
+ * instrument is reconnected (giving a new instance). Cached state does not: each run calls invalidateCaches() before it
+ * starts, since anything could have been changed on the instruments in between.
+ * <p>
+ * All calls that reach an instrument can also be recorded to a trace file, and a recorded trace can be loaded to stand
+ * in for the instruments it contains, so that runs can be reproduced without any hardware.
+ */
+public class Decorators {
+
+    private static final Map<String, Decorated> decorated = new LinkedHashMap<>();
+
+    private static volatile TraceRecorder trace  = null;
+    private static          TraceReplay   replay = null;
+
+    /**
+     * Returns the decorated version of the given instrument.
+     *
+     * @param name       Name of the instrument (ie which role it is configured for)
+     * @param instrument Instrument to decorate, or null
+     * @param <T>        Instrument type
+     *
+     * @return Decorated instrument (or its replayed stand-in, if a trace containing it is loaded), or null if given null
+     */
+    @SuppressWarnings("unchecked")
+    public static synchronized <T> T decorate(String name, T instrument) {
+
+        Object base = replay != null && replay.has(name) ? replay.get(name) : instrument;
+
+        if (base == null) {
+            return null;
+        }
+
+        Decorated entry = decorated.get(name);
+
+        // Only decorate afresh if this is the first time or the instrument has been replaced (ie reconnected), which
+        // also starts a fresh cache of its state
+        if (entry == null || entry.instrument != base) {
+            entry = new Decorated(name, base);
+            decorated.put(name, entry);
+        }
+
+        return (T) entry.proxy;
+
+    }
+
+    /**
+     * Makes every caching decorator forget the state it remembers, so that the next command of every kind is sent to
+     * each instrument. Called at the start of every run.
+     */
+    public static synchronized void invalidateCaches() {
+        decorated.values().forEach(d -> d.cache.invalidate());
+    }
+
+    /**
+     * Returns the number of commands skipped by the caching decorator of each instrument, in the order the instruments
+     * were first decorated.
+     *
+     * @return Map of instrument name to number of saved transactions
+     */
+    public static synchronized Map<String, Long> getSavedCommands() {
+
+        Map<String, Long> saved = new LinkedHashMap<>();
+        decorated.forEach((name, d) -> saved.put(name, d.cache.getSaved()));
+        return saved;
+
+    }
+
+    /**
+     * Returns the number of calls to each instrument that have missed their deadline, in the order the instruments were
+     * first decorated.
+     *
+     * @return Map of instrument name to number of timed out calls
+     */
+    public static synchronized Map<String, Long> getTimeouts() {
+
+        Map<String, Long> timeouts = new LinkedHashMap<>();
+        decorated.forEach((name, d) -> timeouts.put(name, d.resilience.getTimeouts()));
+        return timeouts;
+
+    }
+
+    /**
+     * Returns the number of readings from each instrument that failed on every attempt, and so were recorded as NaN, in
+     * the order the instruments were first decorated.
+     *
+     * @return Map of instrument name to number of invalid readings
+     */
+    public static synchronized Map<String, Long> getInvalidReadings() {
+
+        Map<String, Long> invalid = new LinkedHashMap<>();
+        decorated.forEach((name, d) -> invalid.put(name, d.resilience.getInvalid()));
+        return invalid;
+
+    }
+
+    /**
+     * Starts recording all calls that reach the instruments to a new trace file, replacing any trace already being
+     * recorded.
+     *
+     * @param path Path to the trace file
+     *
+     * @return The trace being recorded
+     *
+     * @throws IOException If the file cannot be created
+     */
+    public static synchronized TraceRecorder startTrace(String path) throws IOException {
+
+        stopTrace();
+        trace = new TraceRecorder(path);
+        return trace;
+
+    }
+
+    /**
+     * Stops recording the current trace, if any, and closes its file.
+     *
+     * @return The trace that was being recorded, or null if none was
+     */
+    public static synchronized TraceRecorder stopTrace() {
+
+        TraceRecorder stopped = trace;
+
+        if (stopped != null) {
+            trace = null;
+            stopped.close();
+        }
+
+        return stopped;
+
+    }
+
+    /**
+     * Returns the trace currently being recorded.
+     *
+     * @return Trace being recorded, or null if none is
+     */
+    public static TraceRecorder getTrace() {
+        return trace;
+    }
+
+    /**
+     * Loads a trace to stand in for the instruments it contains: from now on, decorate() returns the replayed version
+     * of any instrument in the trace, whether or not a real one is configured. Each replayed instrument starts with a
+     * fresh cache, so that the same commands reach it as when the trace was recorded.
+     *
+     * @param trace Trace to replay
+     */
+    public static synchronized void startReplay(TraceReplay trace) {
+
+        replay = trace;
+        decorated.keySet().removeIf(trace::has);
+
+    }
+
+    /**
+     * Stops standing in for any instruments with a replayed trace, so that the configured instruments are used again.
+     */
+    public static synchronized void stopReplay() {
+
+        if (replay != null) {
+            decorated.keySet().removeIf(replay::has);
+            replay = null;
+        }
+
+    }
+
+    public static synchronized TraceReplay getReplay() {
+        return replay;
+    }
+
+    /**
+     * Returns all interfaces implemented by the given instrument, including those of its superclasses.
+     */
+    static Class<?>[] interfaces(Object instrument) {
+
+        Set<Class<?>> interfaces = new LinkedHashSet<>();
+
+        for (Class<?> c = instrument.getClass(); c != null; c = c.getSuperclass()) {
+            for (Class<?> i : c.getInterfaces()) {
+                interfaces.add(i);
+            }
+        }
+
+        return interfaces.toArray(new Class<?>[0]);
+
+    }
+
+    /**
+     * Creates a proxy implementing all interfaces of the given instrument, passing calls to the given handler.
+     */
+    @SuppressWarnings("unchecked")
+    static <T> T proxy(T instrument, InvocationHandler handler) {
+        return (T) Proxy.newProxyInstance(instrument.getClass().getClassLoader(), interfaces(instrument), handler);
+    }
+
+    /**
+     * Handles the methods of Object on a proxy, so that it equals (and hashes like) only itself.
+     */
+    static Object invokeObject(Object proxy, Object target, Method method, Object[] args) throws Throwable {
+
+        switch (method.getName()) {
+
+            case "equals":
+                return proxy == args[0];
+
+            case "hashCode":
+                return System.identityHashCode(proxy);
+
+            default:
+                try {
+                    return method.invoke(target, args);
+                } catch (InvocationTargetException e) {
+                    throw e.getCause();
+                }
+
+        }
+
+    }
+
+    /**
+     * An instrument along with its chain of decorators: calls go through the cache first, so that skipped commands are
+     * never timed or traced, then the timer (so that time spent waiting on a hung instrument is still counted against
+     * the thread that waited), then the deadline, then the tracer.
+     */
+    private static class Decorated {
+
+        private final Object              instrument;
+        private final ResilientInstrument resilience;
+        private final CachingInstrument   cache;
+        private final Object              proxy;
+
+        private Decorated(String name, Object instrument) {
+
+            Object traced = TracingInstrument.wrap(instrument, name);
+
+            this.instrument = instrument;
+            this.resilience = new ResilientInstrument(traced, name);
+            this.cache      = new CachingInstrument(TimedInstrument.wrap(proxy(traced, resilience), name));
+            this.proxy      = proxy(instrument, cache);
+
+        }
+
+    }
+
+}
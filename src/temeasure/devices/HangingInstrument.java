@@ -0,0 +1,134 @@
+package temeasure.devices;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Stand-in for an instrument that hangs on demand, for checking how measurements cope with an instrument (or bus) that
+ * stops responding. It passes every call to the instrument it wraps, except that calls to methods set to hang block,
+ * ignoring interrupts just as a stuck bus read would, until released.
+ * <p>
+ * For example, to make the next two voltage readings hang until release() is called:
+ *
+ * <pre>
+ * HangingInstrument hanging = new HangingInstrument(smu);
+ * SMU               stuck   = hanging.getInstrument();
+ *
+ * hanging.hang("getVoltage", 2);
+ * </pre>
+ */
+public class HangingInstrument implements InvocationHandler {
+
+    private final Object               target;
+    private final Object               proxy;
+    private final Map<String, Integer> hangs = new HashMap<>();
+
+    private long released = 0;
+    private int  hanging  = 0;
+
+    /**
+     * Wraps the given instrument (or replayed trace etc) so that it can be made to hang.
+     *
+     * @param instrument Instrument to wrap
+     */
+    public HangingInstrument(Object instrument) {
+        this.target = instrument;
+        this.proxy  = Decorators.proxy(instrument, this);
+    }
+
+    /**
+     * Returns the wrapped instrument, implementing all the same interfaces as the original.
+     *
+     * @param <T> Instrument type
+     *
+     * @return Instrument that hangs on demand
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T getInstrument() {
+        return (T) proxy;
+    }
+
+    /**
+     * Makes the next given number of calls to the named method hang until release() is called.
+     *
+     * @param method Name of the method to hang
+     * @param calls  Number of calls to hang (or Integer.MAX_VALUE for all)
+     */
+    public synchronized void hang(String method, int calls) {
+        hangs.put(method, calls);
+    }
+
+    /**
+     * Lets all currently hung calls complete, and stops any further calls from hanging.
+     */
+    public synchronized void release() {
+        hangs.clear();
+        released++;
+        notifyAll();
+    }
+
+    /**
+     * Returns the number of calls currently hung.
+     *
+     * @return Number of hung calls
+     */
+    public synchronized int getHanging() {
+        return hanging;
+    }
+
+    private synchronized void await(String method) {
+
+        int remaining = hangs.getOrDefault(method, 0);
+
+        if (remaining <= 0) {
+            return;
+        }
+
+        if (remaining != Integer.MAX_VALUE) {
+            hangs.put(method, remaining - 1);
+        }
+
+        long    release     = released;
+        boolean interrupted = false;
+
+        hanging++;
+
+        while (released == release) {
+
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+
+        }
+
+        hanging--;
+
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+
+        if (method.getDeclaringClass() == Object.class) {
+            return Decorators.invokeObject(proxy, target, method, args);
+        }
+
+        await(method.getName());
+
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+
+    }
+
+}
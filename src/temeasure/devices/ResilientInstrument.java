@@ -0,0 +1,292 @@
+package temeasure.devices;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decorator that gives every call made to an instrument a deadline, so that a hung instrument (or bus) can never hold up
+ * the thread calling it for longer than that. All calls to the instrument are made, one at a time and in the order they
+ * were made, on its own I/O thread, so that only one is ever in progress on its session. If a call misses its deadline,
+ * the caller gives up on it and, until the hung call does return, every new call fails straight away rather than being
+ * sent on a session still waiting for the old reply (which could otherwise be taken as the answer to the wrong call).
+ * The exception is turning an output off, which matters more than that risk: it waits a moment for the hung call to
+ * return and, if it still hasn't, is sent anyway from a thread of its own.
+ * <p>
+ * Reads (get*() and is*() calls) are safe to repeat, so a read that times out or fails is retried, with a growing pause
+ * between attempts. If every attempt fails, a read of a number gives NaN, marking that point of the measurement as
+ * invalid but letting the rest of the run carry on. Anything else that times out throws an InstrumentTimeoutException.
+ */
+public class ResilientInstrument implements InvocationHandler {
+
+    private static final long BACK_OFF = 250;
+    private static final long GRACE    = 1000;
+
+    private static volatile long deadline = 10000;
+    private static volatile int  retries  = 2;
+
+    private final Object             target;
+    private final String             name;
+    private final ThreadPoolExecutor io;
+    private final AtomicLong         timeouts = new AtomicLong(0);
+    private final AtomicLong         retried  = new AtomicLong(0);
+    private final AtomicLong         invalid  = new AtomicLong(0);
+
+    // Call that missed its deadline and has not yet returned, if any
+    private volatile Call hung = null;
+
+    ResilientInstrument(Object target, String name) {
+
+        this.target = target;
+        this.name   = name;
+
+        // A single thread, so calls are made in order, which is let go while idle so a replaced instrument leaves nothing
+        this.io = new ThreadPoolExecutor(0, 1, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+            Thread thread = new Thread(r, "Instrument I/O: " + name);
+            thread.setDaemon(true);
+            return thread;
+        });
+
+    }
+
+    /**
+     * Sets how long any one call to an instrument may take, and how many times a failed read is retried, for all
+     * instruments.
+     *
+     * @param deadline Deadline for each call, in seconds (0 for no deadline)
+     * @param retries  Number of retries of a failed read
+     */
+    public static void configure(double deadline, int retries) {
+        ResilientInstrument.deadline = Math.max(0, Math.round(deadline * 1000));
+        ResilientInstrument.retries  = Math.max(0, retries);
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+
+        if (method.getDeclaringClass() == Object.class) {
+            return Decorators.invokeObject(proxy, target, method, args);
+        }
+
+        if (!TimedInstrument.isQuery(method)) {
+            return call(method, args);
+        }
+
+        long pause = BACK_OFF;
+
+        for (int attempt = 0; ; attempt++) {
+
+            try {
+                return call(method, args);
+            } catch (InterruptedIOException e) {
+                throw e;
+            } catch (IOException e) {
+
+                if (attempt >= retries) {
+
+                    if (method.getReturnType() == double.class || method.getReturnType() == Double.class) {
+                        invalid.incrementAndGet();
+                        System.err.printf("%s.%s() failed after %d attempts, recording NaN: %s%n", name, method.getName(), attempt + 1, e.getMessage());
+                        return Double.NaN;
+                    }
+
+                    throw e;
+
+                }
+
+                retried.incrementAndGet();
+                pause(pause);
+                pause *= 2;
+
+            }
+
+        }
+
+    }
+
+    /**
+     * Makes a single call on the I/O thread, waiting for it no longer than the deadline (if there is one).
+     */
+    private Object call(Method method, Object[] args) throws Throwable {
+
+        Call     stuck    = hung;
+        Executor executor = io;
+
+        if (stuck != null && !stuck.returned) {
+
+            if (!method.getName().equals("turnOff")) {
+                throw new InstrumentTimeoutException(name, method.getName(), stuck.method);
+            }
+
+            // The I/O thread is still stuck in the hung call, so if it doesn't return in time, go round it
+            if (!stuck.await(GRACE)) {
+
+                System.err.printf("%s.%s() sent while %s.%s() has still not responded.%n", name, method.getName(), name, stuck.method);
+
+                executor = r -> {
+                    Thread thread = new Thread(r, "Instrument I/O: " + name + " (turn-off)");
+                    thread.setDaemon(true);
+                    thread.start();
+                };
+
+            }
+
+        }
+
+        long limit = deadline;
+        Call call  = new Call(method.getName());
+
+        // The I/O thread makes the call on behalf of this one, so should be seen (eg by a trace) as the same stream
+        String             stream = TracingInstrument.getStream();
+        FutureTask<Object> future = new FutureTask<>(() -> {
+
+            String previous = TracingInstrument.setStream(stream);
+
+            call.started = true;
+
+            try {
+                return method.invoke(target, args);
+            } finally {
+                call.returned = true;
+                call.done.countDown();
+                TracingInstrument.setStream(previous);
+            }
+
+        });
+
+        executor.execute(future);
+
+        try {
+            return limit > 0 ? future.get(limit, TimeUnit.MILLISECONDS) : future.get();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof InvocationTargetException ? e.getCause().getCause() : e.getCause();
+        } catch (TimeoutException e) {
+
+            abandon(call, future);
+            timeouts.incrementAndGet();
+
+            throw new InstrumentTimeoutException(name, method.getName(), limit);
+
+        } catch (InterruptedException e) {
+            abandon(call, future);
+            throw interrupted();
+        }
+
+    }
+
+    /**
+     * Gives up waiting on a call. If it never started (ie was queued behind a hung call) it is never sent, otherwise it
+     * blocks all new calls until it returns.
+     */
+    private void abandon(Call call, FutureTask<Object> future) {
+
+        future.cancel(true);
+
+        if (call.started && !call.returned) {
+            hung = call;
+        }
+
+    }
+
+    private static void pause(long millis) throws InterruptedIOException {
+
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            throw interrupted();
+        }
+
+    }
+
+    /**
+     * Instrument methods can only throw IOExceptions (or DeviceExceptions), so an interruption (eg the measurement being
+     * stopped) is passed on as an InterruptedIOException, keeping the interrupted status of the thread.
+     */
+    private static InterruptedIOException interrupted() {
+        Thread.currentThread().interrupt();
+        return new InterruptedIOException("Interrupted while waiting for instrument.");
+    }
+
+    /**
+     * Returns the number of calls that have missed their deadline.
+     *
+     * @return Number of timed out calls
+     */
+    public long getTimeouts() {
+        return timeouts.get();
+    }
+
+    /**
+     * Returns the number of times a failed read has been retried.
+     *
+     * @return Number of retries
+     */
+    public long getRetries() {
+        return retried.get();
+    }
+
+    /**
+     * Returns the number of reads that failed on every attempt, and so were given as NaN.
+     *
+     * @return Number of invalid readings
+     */
+    public long getInvalid() {
+        return invalid.get();
+    }
+
+    /**
+     * A call made on the I/O thread, which is only known to have finished with the instrument once it has returned
+     * (cancelling it only interrupts the I/O thread, which may not notice).
+     */
+    private static class Call {
+
+        private final    String         method;
+        private final    CountDownLatch done     = new CountDownLatch(1);
+        private volatile boolean        started  = false;
+        private volatile boolean        returned = false;
+
+        private Call(String method) {
+            this.method = method;
+        }
+
+        /**
+         * Waits up to the given time for the call to return.
+         *
+         * @return Whether it has returned
+         */
+        private boolean await(long millis) {
+
+            try {
+                return done.await(millis, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return returned;
+            }
+
+        }
+
+    }
+
+    /**
+     * Thrown when a call to an instrument misses its deadline, or is not made because an earlier one still hasn't
+     * returned.
+     */
+    public static class InstrumentTimeoutException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        public InstrumentTimeoutException(String instrument, String method, long deadline) {
+            super(String.format("%s.%s() did not respond within %.1f s.", instrument, method, deadline / 1000.0));
+        }
+
+        public InstrumentTimeoutException(String instrument, String method, String hung) {
+            super(String.format("%s.%s() not sent, as %s.%s() has still not responded.", instrument, method, instrument, hung));
+        }
+
+    }
+
+}
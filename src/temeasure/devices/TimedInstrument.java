@@ -0,0 +1,76 @@
+package temeasure.devices;
+
+import temeasure.diagnostics.Diagnostics;
+import temeasure.diagnostics.InstrumentCallEvent;
+import temeasure.diagnostics.LatencyHistogram;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Transparent decorator that times every call made to an instrument, recording the latency of each method in its own
+ * histogram and counting get*() and is*() calls as queries and everything else as writes in the run breakdown. Each call
+ * is also emitted as a flight recorder event, when recording.
+ */
+public class TimedInstrument implements InvocationHandler {
+
+    private final Object                        target;
+    private final String                        name;
+    private final Map<Method, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+
+    private TimedInstrument(Object target, String name) {
+        this.target = target;
+        this.name   = name;
+    }
+
+    /**
+     * Wraps the given instrument so that all calls to it are timed.
+     *
+     * @param instrument Instrument to wrap
+     * @param name       Name to record timings under
+     * @param <T>        Instrument type
+     *
+     * @return Timed instrument, implementing all the same interfaces
+     */
+    public static <T> T wrap(T instrument, String name) {
+        return Decorators.proxy(instrument, new TimedInstrument(instrument, name));
+    }
+
+    static boolean isQuery(Method method) {
+        return method.getName().startsWith("get") || method.getName().startsWith("is");
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+
+        if (method.getDeclaringClass() == Object.class) {
+            return Decorators.invokeObject(proxy, target, method, args);
+        }
+
+        InstrumentCallEvent event  = InstrumentCallEvent.begin(name, method.getName());
+        boolean             failed = true;
+        long                start  = System.nanoTime();
+
+        try {
+            Object result = method.invoke(target, args);
+            failed = false;
+            return result;
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        } finally {
+
+            long duration = System.nanoTime() - start;
+
+            InstrumentCallEvent.end(event, failed);
+
+            histograms.computeIfAbsent(method, m -> Diagnostics.getHistogram(name, m.getName())).record(duration);
+            Diagnostics.record(isQuery(method) ? Diagnostics.Activity.QUERY : Diagnostics.Activity.WRITE, duration);
+
+        }
+
+    }
+
+}
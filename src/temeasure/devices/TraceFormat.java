@@ -0,0 +1,83 @@
+package temeasure.devices;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+
+/**
+ * Constants and primitive encodings shared by the trace recorder and replay. A trace is a header followed by records,
+ * each starting with a record type byte:
+ *
+ * <pre>
+ * STRING     id, UTF-8 text                         (defines a string, before its first use)
+ * INSTRUMENT name, number of interfaces, interfaces (all as string ids)
+ * CALL       instrument, method, stream (string ids), sequence in stream, start and duration (ns), arguments, outcome
+ * </pre>
+ * <p>
+ * The stream of a call is the label of the thread that made it (see TracingInstrument.setStream()), so that calls made
+ * by different parts of the program (eg the measurement and the temperature logger) can be told apart on replay.
+ * <p>
+ * Whole numbers are written as variable-length integers, and each value (argument or return value) as a tag byte
+ * followed by its data.
+ */
+final class TraceFormat {
+
+    static final int MAGIC   = 0x54454D54; // "TEMT"
+    static final int VERSION = 2;
+
+    static final byte STRING     = 1;
+    static final byte INSTRUMENT = 2;
+    static final byte CALL       = 3;
+
+    static final byte RETURNED = 0;
+    static final byte THREW    = 1;
+
+    static final byte NULL    = 0;
+    static final byte DOUBLE  = 1;
+    static final byte INT     = 2;
+    static final byte LONG    = 3;
+    static final byte BOOLEAN = 4;
+    static final byte TEXT    = 5;
+    static final byte ENUM    = 6;
+
+    private TraceFormat() {}
+
+    static void writeVarLong(DataOutputStream out, long value) throws IOException {
+
+        // Zig-zag encode so that small negative numbers are also short
+        long v = (value << 1) ^ (value >> 63);
+
+        while ((v & ~0x7FL) != 0) {
+            out.writeByte((int) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+
+        out.writeByte((int) v);
+
+    }
+
+    static long readVarLong(DataInputStream in) throws IOException {
+
+        long v     = 0;
+        int  shift = 0;
+        int  b;
+
+        do {
+
+            b = in.read();
+
+            if (b < 0) {
+                throw new EOFException("Trace ends part-way through a record.");
+            }
+
+            v |= (long) (b & 0x7F) << shift;
+            shift += 7;
+
+        } while ((b & 0x80) != 0);
+
+        return (v >>> 1) ^ -(v & 1);
+
+    }
+
+}
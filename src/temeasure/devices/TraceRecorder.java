@@ -0,0 +1,231 @@
+package temeasure.devices;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static temeasure.devices.TraceFormat.*;
+
+/**
+ * Writes every call made to the traced instruments, with its arguments, outcome and timing, to a compact binary trace
+ * file (see TraceFormat) that can later be fed back to a measurement by TraceReplay.
+ */
+public class TraceRecorder {
+
+    private final String               path;
+    private final DataOutputStream     out;
+    private final long                 origin  = System.nanoTime();
+    private final Map<String, Integer> strings = new HashMap<>();
+    private final Map<String, Long>    streams = new HashMap<>();
+    private final Set<String>          defined = new HashSet<>();
+
+    private long    calls  = 0;
+    private boolean closed = false;
+
+    /**
+     * Creates a new trace file, overwriting any existing file.
+     *
+     * @param path Path to the trace file
+     *
+     * @throws IOException If the file cannot be created
+     */
+    public TraceRecorder(String path) throws IOException {
+
+        this.path = path;
+        this.out  = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path), 1 << 16));
+
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+
+    }
+
+    /**
+     * Records a single call.
+     *
+     * @param instrument Name of the instrument
+     * @param interfaces Interfaces the instrument implements (so replay can stand in for it)
+     * @param stream     Stream the call was made from
+     * @param method     Name of the method called
+     * @param args       Arguments given, or null if none
+     * @param start      System.nanoTime() at which the call started
+     * @param duration   How long the call took, in nanoseconds
+     * @param result     Value returned, if it returned
+     * @param error      Exception thrown, or null if it returned
+     */
+    synchronized void record(String instrument, Class<?>[] interfaces, String stream, String method, Object[] args, long start, long duration, Object result, Throwable error) {
+
+        if (closed) {
+            return;
+        }
+
+        try {
+
+            if (defined.add(instrument)) {
+
+                int[] ids = new int[interfaces.length];
+
+                for (int i = 0; i < ids.length; i++) {
+                    ids[i] = string(interfaces[i].getName());
+                }
+
+                int name = string(instrument);
+
+                out.writeByte(INSTRUMENT);
+                writeVarLong(out, name);
+                writeVarLong(out, ids.length);
+
+                for (int id : ids) {
+                    writeVarLong(out, id);
+                }
+
+            }
+
+            int  instrumentID = string(instrument);
+            int  methodID     = string(method);
+            int  streamID     = string(stream);
+            long sequence     = streams.merge(stream, 1L, Long::sum);
+            int  errorType    = error == null ? -1 : string(error.getClass().getName());
+            int  errorMessage = error == null ? -1 : string(String.valueOf(error.getMessage()));
+
+            // Define any strings used by argument/return values before the record that uses them
+            if (args != null) {
+                for (Object arg : args) {
+                    define(arg);
+                }
+            }
+
+            define(result);
+
+            out.writeByte(CALL);
+            writeVarLong(out, instrumentID);
+            writeVarLong(out, methodID);
+            writeVarLong(out, streamID);
+            writeVarLong(out, sequence);
+            writeVarLong(out, start - origin);
+            writeVarLong(out, duration);
+            writeVarLong(out, args == null ? 0 : args.length);
+
+            if (args != null) {
+                for (Object arg : args) {
+                    writeValue(arg);
+                }
+            }
+
+            if (error == null) {
+                out.writeByte(RETURNED);
+                writeValue(result);
+            } else {
+                out.writeByte(THREW);
+                writeVarLong(out, errorType);
+                writeVarLong(out, errorMessage);
+            }
+
+            calls++;
+
+        } catch (IOException e) {
+            // Never let a failing trace disturb the measurement, just stop tracing
+            e.printStackTrace();
+            close();
+        }
+
+    }
+
+    /**
+     * Returns the id of the given string, writing its definition first if this is its first use.
+     */
+    private int string(String value) throws IOException {
+
+        Integer id = strings.get(value);
+
+        if (id == null) {
+            id = strings.size();
+            strings.put(value, id);
+            out.writeByte(STRING);
+            writeVarLong(out, id);
+            out.writeUTF(value);
+        }
+
+        return id;
+
+    }
+
+    private void define(Object value) throws IOException {
+
+        if (value instanceof String) {
+            string((String) value);
+        } else if (value instanceof Enum) {
+            string(((Enum<?>) value).getDeclaringClass().getName());
+            string(((Enum<?>) value).name());
+        }
+
+    }
+
+    private void writeValue(Object value) throws IOException {
+
+        if (value == null) {
+            out.writeByte(NULL);
+        } else if (value instanceof Double) {
+            out.writeByte(DOUBLE);
+            out.writeDouble((Double) value);
+        } else if (value instanceof Integer) {
+            out.writeByte(INT);
+            writeVarLong(out, (Integer) value);
+        } else if (value instanceof Long) {
+            out.writeByte(LONG);
+            writeVarLong(out, (Long) value);
+        } else if (value instanceof Boolean) {
+            out.writeByte(BOOLEAN);
+            out.writeBoolean((Boolean) value);
+        } else if (value instanceof Enum) {
+            out.writeByte(ENUM);
+            writeVarLong(out, strings.get(((Enum<?>) value).getDeclaringClass().getName()));
+            writeVarLong(out, strings.get(((Enum<?>) value).name()));
+        } else if (value instanceof Number) {
+            out.writeByte(DOUBLE);
+            out.writeDouble(((Number) value).doubleValue());
+        } else {
+            // Anything else is only kept as its text, which replay gives back for String return types
+            out.writeByte(TEXT);
+            writeVarLong(out, string(value.toString()));
+        }
+
+    }
+
+    /**
+     * Returns the number of calls recorded so far.
+     *
+     * @return Number of calls
+     */
+    public synchronized long getCalls() {
+        return calls;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * Finishes writing the trace and closes the file.
+     */
+    public synchronized void close() {
+
+        if (closed) {
+            return;
+        }
+
+        closed = true;
+
+        try {
+            out.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+    }
+
+}
@@ -0,0 +1,452 @@
+package temeasure.devices;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static temeasure.devices.TraceFormat.*;
+
+/**
+ * Stands in for the instruments of a recorded trace (see TraceRecorder), so that a measurement can be re-run against
+ * exactly the responses seen originally, with no hardware connected. Each call made to a replayed instrument is matched
+ * to the next recorded call of the same method on that instrument from the same stream (see
+ * TracingInstrument.setStream()), returning (or throwing) what it originally did. Other parts of the program calling the
+ * same instrument (eg the temperature logger) therefore never take answers meant for the measurement. Commands that were
+ * never recorded, that are given different arguments than recorded, or that come in a different order than recorded
+ * within their stream, are counted as divergences.
+ * <p>
+ * A query from a stream that never made it when recorded (eg the logger running during replay but not while recording)
+ * is answered with what the instrument gave at the same point of the trace: the recorded answer to that query that
+ * started closest before the latest call replayed so far.
+ * <p>
+ * Replay can either run as fast as possible, or in real time, where each call takes as long as it originally did so that
+ * the original latency profile (and run breakdown) is reproduced.
+ */
+public class TraceReplay {
+
+    private final String                              path;
+    private final boolean                             realTime;
+    private final Map<String, Class<?>[]>             interfaces = new LinkedHashMap<>();
+    private final Map<List<String>, ArrayDeque<Call>> calls      = new HashMap<>();
+    private final Map<List<String>, List<Call>>       timeline   = new HashMap<>();
+    private final Map<String, Long>                   sequences  = new HashMap<>();
+    private final Map<String, Object>                 proxies    = new HashMap<>();
+    private final AtomicLong                          replayed   = new AtomicLong(0);
+    private final AtomicLong                          diverged   = new AtomicLong(0);
+
+    private int  total    = 0;
+    private long position = 0;
+
+    /**
+     * Reads a trace file, ready to replay.
+     *
+     * @param path     Path to the trace file
+     * @param realTime Whether each call should take as long as it did when recorded
+     *
+     * @throws IOException If the file cannot be read or is not a trace
+     */
+    public TraceReplay(String path, boolean realTime) throws IOException {
+
+        this.path     = path;
+        this.realTime = realTime;
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(path), 1 << 16))) {
+
+            if (in.readInt() != MAGIC) {
+                throw new IOException(String.format("%s is not an instrument trace.", path));
+            }
+
+            int version = in.readInt();
+
+            if (version != VERSION) {
+                throw new IOException(String.format("%s is a version %d trace, only version %d is supported.", path, version, VERSION));
+            }
+
+            List<String> strings = new ArrayList<>();
+            int          type;
+
+            while ((type = in.read()) >= 0) {
+
+                switch (type) {
+
+                    case STRING:
+                        int id = (int) readVarLong(in);
+                        while (strings.size() <= id) strings.add(null);
+                        strings.set(id, in.readUTF());
+                        break;
+
+                    case INSTRUMENT:
+                        readInstrument(in, strings);
+                        break;
+
+                    case CALL:
+                        readCall(in, strings);
+                        break;
+
+                    default:
+                        throw new IOException(String.format("%s: unknown record type %d.", path, type));
+
+                }
+
+            }
+
+        }
+
+        // Calls are recorded as they finish, so may be slightly out of order of when they started
+        timeline.values().forEach(list -> list.sort(Comparator.comparingLong(c -> c.start)));
+
+    }
+
+    private void readInstrument(DataInputStream in, List<String> strings) throws IOException {
+
+        String     name  = strings.get((int) readVarLong(in));
+        Class<?>[] types = new Class<?>[(int) readVarLong(in)];
+
+        for (int i = 0; i < types.length; i++) {
+
+            String type = strings.get((int) readVarLong(in));
+
+            try {
+                types[i] = Class.forName(type);
+            } catch (ClassNotFoundException e) {
+                throw new IOException(String.format("%s: unknown instrument interface %s.", path, type));
+            }
+
+        }
+
+        interfaces.put(name, types);
+
+    }
+
+    private void readCall(DataInputStream in, List<String> strings) throws IOException {
+
+        String instrument = strings.get((int) readVarLong(in));
+        String method     = strings.get((int) readVarLong(in));
+        String stream     = strings.get((int) readVarLong(in));
+        Call   call       = new Call();
+
+        call.sequence = readVarLong(in);
+        call.start    = readVarLong(in);
+        call.duration = readVarLong(in);
+        call.args     = new Object[(int) readVarLong(in)];
+
+        for (int i = 0; i < call.args.length; i++) {
+            call.args[i] = readValue(in, strings);
+        }
+
+        if (in.readByte() == RETURNED) {
+            call.result = readValue(in, strings);
+        } else {
+            call.errorType    = strings.get((int) readVarLong(in));
+            call.errorMessage = strings.get((int) readVarLong(in));
+        }
+
+        calls.computeIfAbsent(List.of(stream, instrument, method), k -> new ArrayDeque<>()).add(call);
+        timeline.computeIfAbsent(List.of(instrument, method), k -> new ArrayList<>()).add(call);
+        total++;
+
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private Object readValue(DataInputStream in, List<String> strings) throws IOException {
+
+        byte tag = in.readByte();
+
+        switch (tag) {
+
+            case NULL:
+                return null;
+
+            case DOUBLE:
+                return in.readDouble();
+
+            case INT:
+                return (int) readVarLong(in);
+
+            case LONG:
+                return readVarLong(in);
+
+            case BOOLEAN:
+                return in.readBoolean();
+
+            case TEXT:
+                return strings.get((int) readVarLong(in));
+
+            case ENUM:
+
+                String type = strings.get((int) readVarLong(in));
+                String name = strings.get((int) readVarLong(in));
+
+                try {
+                    return Enum.valueOf((Class<? extends Enum>) Class.forName(type), name);
+                } catch (ClassNotFoundException | IllegalArgumentException e) {
+                    throw new IOException(String.format("%s: unknown value %s.%s.", path, type, name));
+                }
+
+            default:
+                throw new IOException(String.format("%s: unknown value tag %d.", path, tag));
+
+        }
+
+    }
+
+    /**
+     * Returns whether the trace contains calls to the named instrument.
+     *
+     * @param name Name of the instrument (ie its role)
+     *
+     * @return Whether it can be replayed
+     */
+    public boolean has(String name) {
+        return interfaces.containsKey(name);
+    }
+
+    /**
+     * Returns the stand-in for the named instrument, implementing the same interfaces as the instrument recorded.
+     *
+     * @param name Name of the instrument (ie its role)
+     *
+     * @return Replayed instrument, or null if it is not in the trace
+     */
+    public synchronized Object get(String name) {
+
+        if (!has(name)) {
+            return null;
+        }
+
+        return proxies.computeIfAbsent(name, n -> {
+
+            Class<?>[] types = interfaces.get(n);
+
+            return Proxy.newProxyInstance(
+                    types.length > 0 ? types[0].getClassLoader() : getClass().getClassLoader(),
+                    types,
+                    new Replayed(n)
+            );
+
+        });
+
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public boolean isRealTime() {
+        return realTime;
+    }
+
+    /**
+     * Returns the number of calls in the trace.
+     *
+     * @return Number of calls
+     */
+    public int getTotal() {
+        return total;
+    }
+
+    /**
+     * Returns the number of calls replayed so far.
+     *
+     * @return Number of calls
+     */
+    public long getReplayed() {
+        return replayed.get();
+    }
+
+    /**
+     * Returns the number of calls so far that did not match the trace.
+     *
+     * @return Number of divergences
+     */
+    public long getDivergences() {
+        return diverged.get();
+    }
+
+    /**
+     * Returns the recorded call to answer the given call with, or null if there is none.
+     */
+    private synchronized Call next(String stream, String instrument, String method, boolean query) {
+
+        ArrayDeque<Call> queue = calls.get(List.of(stream, instrument, method));
+
+        if (queue == null) {
+            // Never made by this stream when recorded, so only a query can be answered, from the same point of the trace
+            return query ? closest(instrument, method) : null;
+        }
+
+        Call call = queue.poll();
+
+        if (call == null) {
+            return null;
+        }
+
+        // Calls of the same method always come back in order, but calls of different methods may have been reordered
+        long last = sequences.getOrDefault(stream, 0L);
+
+        if (call.sequence < last) {
+            diverged.incrementAndGet();
+        }
+
+        sequences.put(stream, Math.max(last, call.sequence));
+        position = Math.max(position, call.start);
+
+        return call;
+
+    }
+
+    /**
+     * Returns the recorded call of the given method that started closest before the latest call replayed so far (or the
+     * first one, if none did), or null if the method was never called.
+     */
+    private Call closest(String instrument, String method) {
+
+        List<Call> recorded = timeline.get(List.of(instrument, method));
+
+        if (recorded == null || recorded.isEmpty()) {
+            return null;
+        }
+
+        int low  = 0;
+        int high = recorded.size() - 1;
+
+        // Last call with start <= position
+        while (low < high) {
+
+            int middle = (low + high + 1) >>> 1;
+
+            if (recorded.get(middle).start <= position) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+
+        }
+
+        return recorded.get(low);
+
+    }
+
+    private static Object convert(Object value, Class<?> type) {
+
+        if (value instanceof Number && type != Object.class) {
+
+            Number number = (Number) value;
+
+            if (type == double.class || type == Double.class) {
+                return number.doubleValue();
+            } else if (type == int.class || type == Integer.class) {
+                return number.intValue();
+            } else if (type == long.class || type == Long.class) {
+                return number.longValue();
+            }
+
+        }
+
+        return value;
+
+    }
+
+    private static Throwable rebuild(String type, String message) {
+
+        try {
+
+            Class<?> c = Class.forName(type);
+
+            if (Throwable.class.isAssignableFrom(c)) {
+                return (Throwable) c.getConstructor(String.class).newInstance(message);
+            }
+
+        } catch (Exception ignored) {}
+
+        return new IOException(String.format("%s: %s", type, message));
+
+    }
+
+    /**
+     * Replays the calls of one instrument.
+     */
+    private class Replayed implements InvocationHandler {
+
+        private final String name;
+
+        private Replayed(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+
+            if (method.getDeclaringClass() == Object.class) {
+
+                switch (method.getName()) {
+
+                    case "equals":
+                        return proxy == args[0];
+
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+
+                    default:
+                        return String.format("Replay of %s from %s", name, path);
+
+                }
+
+            }
+
+            Call call = next(TracingInstrument.getStream(), name, method.getName(), TimedInstrument.isQuery(method));
+
+            if (call == null) {
+
+                // Running out of recorded answers leaves nothing sensible to return, but a command can just be dropped
+                if (TimedInstrument.isQuery(method)) {
+                    throw new IllegalStateException(String.format(
+                            "Trace %s has no more calls to %s.%s() to replay for %s.",
+                            path, name, method.getName(), TracingInstrument.getStream()
+                    ));
+                }
+
+                diverged.incrementAndGet();
+                return null;
+
+            }
+
+            if (!Arrays.equals(call.args, args == null ? new Object[0] : args)) {
+                diverged.incrementAndGet();
+            }
+
+            if (realTime) {
+                Thread.sleep(call.duration / 1000000, (int) (call.duration % 1000000));
+            }
+
+            replayed.incrementAndGet();
+
+            if (call.errorType != null) {
+                throw rebuild(call.errorType, call.errorMessage);
+            }
+
+            return convert(call.result, method.getReturnType());
+
+        }
+
+    }
+
+    private static class Call {
+
+        private long     sequence;
+        private long     start;
+        private long     duration;
+        private Object[] args;
+        private Object   result;
+        private String   errorType;
+        private String   errorMessage;
+
+    }
+
+}
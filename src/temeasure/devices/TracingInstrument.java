@@ -0,0 +1,104 @@
+package temeasure.devices;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * Transparent decorator that writes every call made to an instrument to the active trace, if one is being recorded (see
+ * Decorators.startTrace()). It sits closest to the instrument, so that the timings recorded are those of the instrument
+ * itself and replaying a trace through the other decorators reproduces the original run.
+ * <p>
+ * Each call is recorded along with the stream it came from: a label given to the thread that made it with setStream()
+ * (eg "Measurement" or "Temperature Log"), or DEFAULT_STREAM if none was given. The label is carried over to any thread
+ * that makes the call on the caller's behalf (see ResilientInstrument).
+ */
+public class TracingInstrument implements InvocationHandler {
+
+    public static final String DEFAULT_STREAM = "Other";
+
+    private static final ThreadLocal<String> STREAM = ThreadLocal.withInitial(() -> DEFAULT_STREAM);
+
+    private final Object     target;
+    private final String     name;
+    private final Class<?>[] interfaces;
+
+    private TracingInstrument(Object target, String name) {
+        this.target     = target;
+        this.name       = name;
+        this.interfaces = Decorators.interfaces(target);
+    }
+
+    /**
+     * Wraps the given instrument so that all calls to it are traced while a trace is being recorded.
+     *
+     * @param instrument Instrument to wrap
+     * @param name       Name to record calls under
+     * @param <T>        Instrument type
+     *
+     * @return Traced instrument, implementing all the same interfaces
+     */
+    public static <T> T wrap(T instrument, String name) {
+        return Decorators.proxy(instrument, new TracingInstrument(instrument, name));
+    }
+
+    /**
+     * Labels all instrument calls made from the current thread, from now on, as coming from the given stream.
+     *
+     * @param stream Stream label, or null for DEFAULT_STREAM
+     *
+     * @return The label the thread had before, so that it can be put back
+     */
+    public static String setStream(String stream) {
+
+        String previous = STREAM.get();
+        STREAM.set(stream == null ? DEFAULT_STREAM : stream);
+        return previous;
+
+    }
+
+    /**
+     * Returns the stream label of the current thread.
+     *
+     * @return Stream label
+     */
+    public static String getStream() {
+        return STREAM.get();
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+
+        if (method.getDeclaringClass() == Object.class) {
+            return Decorators.invokeObject(proxy, target, method, args);
+        }
+
+        TraceRecorder recorder = Decorators.getTrace();
+
+        if (recorder == null) {
+
+            try {
+                return method.invoke(target, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+
+        }
+
+        Object    result = null;
+        Throwable error  = null;
+        long      start  = System.nanoTime();
+
+        try {
+            result = method.invoke(target, args);
+            return result;
+        } catch (InvocationTargetException e) {
+            error = e.getCause();
+            throw error;
+        } finally {
+            recorder.record(name, interfaces, getStream(), method.getName(), args, start, System.nanoTime() - start, result, error);
+        }
+
+    }
+
+}
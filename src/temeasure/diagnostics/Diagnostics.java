@@ -0,0 +1,223 @@
+package temeasure.diagnostics;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Central record of where time goes: a latency histogram for every method called on every timed instrument, and a
+ * breakdown of each measurement run into time spent settling, querying instruments, writing to instruments, storing
+ * results and everything else (idle). Only time spent on the thread running a measurement counts towards its breakdown,
+ * so the temperature logger etc do not distort it. Each run has its own breakdown, kept by whoever started it, while the
+ * most recently started is also kept here for display.
+ */
+public class Diagnostics {
+
+    /**
+     * Breakdown of a run that has not started, with nothing recorded.
+     */
+    public static final Breakdown NO_RUN = new Breakdown(null);
+
+    private static final Map<String, Map<String, LatencyHistogram>> histograms = new ConcurrentSkipListMap<>();
+    private static final ThreadLocal<Breakdown>                     current    = new ThreadLocal<>();
+
+    private static volatile Breakdown breakdown = NO_RUN;
+
+    /**
+     * Returns the histogram for the given method of the given instrument, creating it if needed.
+     *
+     * @param instrument Name of the instrument
+     * @param method     Name of the method
+     *
+     * @return Histogram
+     */
+    public static LatencyHistogram getHistogram(String instrument, String method) {
+        return histograms.computeIfAbsent(instrument, k -> new ConcurrentSkipListMap<>())
+                         .computeIfAbsent(method, k -> new LatencyHistogram());
+    }
+
+    /**
+     * Returns all histograms recorded so far, ordered by instrument then method.
+     *
+     * @return List of entries
+     */
+    public static List<Entry> getHistograms() {
+
+        List<Entry> entries = new ArrayList<>();
+
+        histograms.forEach((instrument, methods) -> methods.forEach((method, histogram) -> {
+            entries.add(new Entry(instrument, method, histogram));
+        }));
+
+        return entries;
+
+    }
+
+    public static void clearHistograms() {
+        histograms.values().forEach(m -> m.values().forEach(LatencyHistogram::clear));
+    }
+
+    /**
+     * Starts a new breakdown, attributing time spent on the calling thread to it until endRun() is called.
+     *
+     * @return The new breakdown
+     */
+    public static Breakdown startRun() {
+
+        Breakdown run = new Breakdown(Thread.currentThread());
+
+        current.set(run);
+        breakdown = run;
+
+        return run;
+
+    }
+
+    /**
+     * Ends the given breakdown, which must have been started on the calling thread.
+     *
+     * @param run Breakdown to end
+     */
+    public static void endRun(Breakdown run) {
+
+        run.end();
+
+        if (current.get() == run) {
+            current.remove();
+        }
+
+    }
+
+    /**
+     * Returns the breakdown of the most recently started run, whichever measurement it was.
+     *
+     * @return Breakdown of the current (or last) run
+     */
+    public static Breakdown getBreakdown() {
+        return breakdown;
+    }
+
+    /**
+     * Adds time spent on the calling thread to the breakdown of the run it is running, if any.
+     *
+     * @param activity What the time was spent on
+     * @param nanos    Duration, in nanoseconds
+     */
+    public static void record(Activity activity, long nanos) {
+
+        Breakdown run = current.get();
+
+        if (run != null) {
+            run.totals.get(activity).add(nanos);
+        }
+
+    }
+
+    public enum Activity {
+        SETTLE,
+        QUERY,
+        WRITE,
+        STORE
+    }
+
+    /**
+     * Time spent on each activity during a single run.
+     */
+    public static class Breakdown {
+
+        private final    Thread                   thread;
+        private final    long                     start  = System.nanoTime();
+        private final    Map<Activity, LongAdder> totals = new EnumMap<>(Activity.class);
+        private volatile long                     stop   = -1;
+
+        private Breakdown(Thread thread) {
+
+            this.thread = thread;
+
+            for (Activity activity : Activity.values()) {
+                totals.put(activity, new LongAdder());
+            }
+
+        }
+
+        private void end() {
+
+            if (stop < 0) {
+                stop = System.nanoTime();
+            }
+
+        }
+
+        public boolean isRunning() {
+            return thread != null && stop < 0;
+        }
+
+        /**
+         * Returns the time since the run started, or its total length if it has finished.
+         *
+         * @return Elapsed time, in seconds
+         */
+        public double getElapsed() {
+            return thread == null ? 0.0 : ((stop < 0 ? System.nanoTime() : stop) - start) / 1e9;
+        }
+
+        /**
+         * Returns the total time spent on the given activity.
+         *
+         * @param activity Activity
+         *
+         * @return Time, in seconds
+         */
+        public double get(Activity activity) {
+            return totals.get(activity).sum() / 1e9;
+        }
+
+        /**
+         * Returns the time not spent settling, querying, writing or storing (ie computation, waiting on locks etc).
+         *
+         * @return Idle time, in seconds
+         */
+        public double getIdle() {
+
+            double busy = 0.0;
+
+            for (Activity activity : Activity.values()) {
+                busy += get(activity);
+            }
+
+            return Math.max(0.0, getElapsed() - busy);
+
+        }
+
+    }
+
+    public static class Entry {
+
+        private final String           instrument;
+        private final String           method;
+        private final LatencyHistogram histogram;
+
+        private Entry(String instrument, String method, LatencyHistogram histogram) {
+            this.instrument = instrument;
+            this.method     = method;
+            this.histogram  = histogram;
+        }
+
+        public String getInstrument() {
+            return instrument;
+        }
+
+        public String getMethod() {
+            return method;
+        }
+
+        public LatencyHistogram getHistogram() {
+            return histogram;
+        }
+
+    }
+
+}
@@ -0,0 +1,62 @@
+package temeasure.diagnostics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight recorder event covering a single call made to an instrument through a timing decorator.
+ */
+@Name(InstrumentCallEvent.NAME)
+@Label("Instrument Call")
+@Category("TEMeasure")
+@Description("A single method call on an instrument")
+@StackTrace(false)
+public class InstrumentCallEvent extends Event {
+
+    public static final String NAME = "temeasure.InstrumentCall";
+
+    @Label("Instrument")
+    String instrument;
+
+    @Label("Method")
+    String method;
+
+    @Label("Failed")
+    boolean failed;
+
+    /**
+     * Begins timing a call, if recording.
+     *
+     * @param instrument Name of the instrument
+     * @param method     Name of the method being called
+     *
+     * @return Event to pass to end()
+     */
+    public static InstrumentCallEvent begin(String instrument, String method) {
+
+        InstrumentCallEvent event = new InstrumentCallEvent();
+
+        if (event.isEnabled()) {
+            event.instrument = instrument;
+            event.method     = method;
+            event.begin();
+        }
+
+        return event;
+
+    }
+
+    public static void end(InstrumentCallEvent event, boolean failed) {
+
+        if (event.isEnabled()) {
+            event.failed = failed;
+            event.commit();
+        }
+
+    }
+
+}
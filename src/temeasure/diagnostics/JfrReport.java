@@ -0,0 +1,214 @@
+package temeasure.diagnostics;
+
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Offline report on a flight recording of a run, started for example with:
+ *
+ * <pre>java -XX:StartFlightRecording=filename=run.jfr ... temeasure.Main</pre>
+ * <p>
+ * Writes a timeline of every phase and instrument call to a CSV file and prints a summary of where the time went, by
+ * phase and by instrument method.
+ * <p>
+ * Usage: JfrReport recording.jfr [timeline.csv]
+ */
+public class JfrReport {
+
+    public static void main(String[] args) throws IOException {
+
+        if (args.length < 1) {
+            System.err.println("Usage: JfrReport <recording.jfr> [timeline.csv]");
+            System.exit(1);
+        }
+
+        Path recording = Paths.get(args[0]);
+        Path timeline  = Paths.get(args.length > 1 ? args[1] : args[0].replaceAll("\\.jfr$", "") + ".timeline.csv");
+
+        List<RecordedEvent> events = new ArrayList<>();
+
+        try (RecordingFile file = new RecordingFile(recording)) {
+
+            while (file.hasMoreEvents()) {
+
+                RecordedEvent event = file.readEvent();
+                String        type  = event.getEventType().getName();
+
+                if (type.equals(PhaseEvent.NAME) || type.equals(InstrumentCallEvent.NAME)) {
+                    events.add(event);
+                }
+
+            }
+
+        }
+
+        if (events.isEmpty()) {
+            System.err.println("No TEMeasure events found in " + recording);
+            System.exit(1);
+        }
+
+        events.sort(Comparator.comparing(RecordedEvent::getStartTime));
+
+        writeTimeline(events, timeline);
+        printSummary(events, System.out);
+
+        System.out.println();
+        System.out.println("Timeline written to " + timeline);
+
+    }
+
+    /**
+     * Writes one line per event, in order of start time, relative to the first event.
+     */
+    private static void writeTimeline(List<RecordedEvent> events, Path path) throws IOException {
+
+        Instant origin = events.get(0).getStartTime();
+
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(path))) {
+
+            out.println("Start [s],Duration [s],Thread,Source,Phase,Instrument,Gate Set-Point [V],Heater Set-Point [V],Current Set-Point [A]");
+
+            for (RecordedEvent event : events) {
+
+                double start    = seconds(Duration.between(origin, event.getStartTime()));
+                double duration = seconds(event.getDuration());
+                String thread   = event.getThread() == null ? "" : event.getThread().getJavaName();
+
+                if (event.getEventType().getName().equals(PhaseEvent.NAME)) {
+
+                    out.printf(
+                            "%.6f,%.6f,%s,%s,%s,%s,%s,%s,%s%n",
+                            start,
+                            duration,
+                            quote(thread),
+                            quote(event.getString("measurement")),
+                            quote(event.getString("phase")),
+                            quote(event.getString("instrument")),
+                            value(event.getDouble("gateSetPoint")),
+                            value(event.getDouble("heaterSetPoint")),
+                            value(event.getDouble("currentSetPoint"))
+                    );
+
+                } else {
+
+                    out.printf(
+                            "%.6f,%.6f,%s,%s,%s,%s,,,%n",
+                            start,
+                            duration,
+                            quote(thread),
+                            "Instrument",
+                            quote(event.getString("method") + (event.getBoolean("failed") ? " (failed)" : "")),
+                            quote(event.getString("instrument"))
+                    );
+
+                }
+
+            }
+
+        }
+
+    }
+
+    /**
+     * Prints the number, total, mean and worst durations of each phase, and latency percentiles for each instrument
+     * method.
+     */
+    private static void printSummary(List<RecordedEvent> events, PrintStream out) {
+
+        Map<String, LatencyHistogram> phases   = new TreeMap<>();
+        Map<String, LatencyHistogram> calls    = new TreeMap<>();
+        Map<String, Integer>          failures = new TreeMap<>();
+
+        Instant first = events.get(0).getStartTime();
+        Instant last  = first;
+
+        for (RecordedEvent event : events) {
+
+            long nanos = event.getDuration().toNanos();
+
+            if (event.getEndTime().isAfter(last)) {
+                last = event.getEndTime();
+            }
+
+            if (event.getEventType().getName().equals(PhaseEvent.NAME)) {
+
+                String key = event.getString("measurement") + " / " + event.getString("phase");
+                phases.computeIfAbsent(key, k -> new LatencyHistogram()).record(nanos);
+
+            } else {
+
+                String key = event.getString("instrument") + " / " + event.getString("method");
+                calls.computeIfAbsent(key, k -> new LatencyHistogram()).record(nanos);
+
+                if (event.getBoolean("failed")) {
+                    failures.merge(key, 1, Integer::sum);
+                }
+
+            }
+
+        }
+
+        out.printf("Recording spans %.1f s with %d events%n%n", seconds(Duration.between(first, last)), events.size());
+
+        out.println("== PHASES ==");
+        out.printf("%-45s %8s %12s %12s %12s%n", "Measurement / Phase", "Count", "Total [s]", "Mean [s]", "Max [s]");
+
+        phases.forEach((key, h) -> out.printf(
+                "%-45s %8d %12.3f %12.6f %12.6f%n",
+                key,
+                h.getCount(),
+                h.getTotal(),
+                h.getTotal() / h.getCount(),
+                h.getMax()
+        ));
+
+        out.println();
+        out.println("== INSTRUMENT CALLS ==");
+        out.printf("%-45s %8s %8s %12s %12s %12s %12s%n", "Instrument / Method", "Count", "Failed", "Total [s]", "p50 [s]", "p99 [s]", "Max [s]");
+
+        calls.forEach((key, h) -> out.printf(
+                "%-45s %8d %8d %12.3f %12.6f %12.6f %12.6f%n",
+                key,
+                h.getCount(),
+                failures.getOrDefault(key, 0),
+                h.getTotal(),
+                h.getPercentile(50),
+                h.getPercentile(99),
+                h.getMax()
+        ));
+
+    }
+
+    private static double seconds(Duration duration) {
+        return duration.toNanos() / 1e9;
+    }
+
+    private static String value(double value) {
+        return Double.isNaN(value) ? "" : String.valueOf(value);
+    }
+
+    private static String quote(String value) {
+
+        if (value == null) {
+            return "";
+        }
+
+        return value.contains(",") || value.contains("\"") ? "\"" + value.replace("\"", "\"\"") + "\"" : value;
+
+    }
+
+}
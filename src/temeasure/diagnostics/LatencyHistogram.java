@@ -0,0 +1,156 @@
+package temeasure.diagnostics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of durations, with logarithmically spaced buckets. Each power of two is split into 8 linear
+ * sub-buckets, so any percentile is reported to within about 6% while the whole range of a long takes only 512 counters.
+ * Recording a value is a few bit operations and an atomic increment, so it can be done on every instrument call.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BITS    = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int NUM_BUCKETS = 64 * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(NUM_BUCKETS);
+    private final AtomicLong      count  = new AtomicLong(0);
+    private final AtomicLong      total  = new AtomicLong(0);
+    private final AtomicLong      max    = new AtomicLong(0);
+
+    /**
+     * Returns the bucket that the given duration falls in.
+     */
+    private static int bucket(long nanos) {
+
+        if (nanos < SUB_BUCKETS) {
+            return (int) Math.max(0, nanos);
+        }
+
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        int sub      = (int) (nanos >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+
+        return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+
+    }
+
+    /**
+     * Returns the smallest duration that falls in the given bucket.
+     */
+    private static long lower(int bucket) {
+
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+
+        int exponent = bucket / SUB_BUCKETS + SUB_BITS - 1;
+        int sub      = bucket % SUB_BUCKETS;
+
+        return (long) (SUB_BUCKETS + sub) << (exponent - SUB_BITS);
+
+    }
+
+    /**
+     * Records a single duration.
+     *
+     * @param nanos Duration, in nanoseconds
+     */
+    public void record(long nanos) {
+        counts.incrementAndGet(bucket(nanos));
+        count.incrementAndGet();
+        total.addAndGet(nanos);
+        max.accumulateAndGet(nanos, Math::max);
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * Returns the sum of all recorded durations.
+     *
+     * @return Total, in seconds
+     */
+    public double getTotal() {
+        return total.get() / 1e9;
+    }
+
+    /**
+     * Returns the longest recorded duration.
+     *
+     * @return Maximum, in seconds
+     */
+    public double getMax() {
+        return max.get() / 1e9;
+    }
+
+    /**
+     * Returns an estimate of the given percentile, taken as the middle of the bucket it falls in.
+     *
+     * @param percentile Percentile, 0 to 100
+     *
+     * @return Estimated duration, in seconds
+     */
+    public double getPercentile(double percentile) {
+
+        long n = count.get();
+
+        if (n == 0) {
+            return 0.0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(n * percentile / 100.0));
+        long seen = 0;
+
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+
+            seen += counts.get(i);
+
+            if (seen >= rank) {
+                double mid = (lower(i) + (i + 1 < NUM_BUCKETS ? lower(i + 1) : lower(i))) / 2.0;
+                return Math.min(mid, max.get()) / 1e9;
+            }
+
+        }
+
+        return getMax();
+
+    }
+
+    /**
+     * Passes each non-empty bucket, in order of increasing duration, to the given consumer.
+     *
+     * @param consumer Consumer of bucket bounds (in seconds) and counts
+     */
+    public void forEachBucket(BucketConsumer consumer) {
+
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+
+            long c = counts.get(i);
+
+            if (c > 0) {
+                consumer.accept(lower(i) / 1e9, (i + 1 < NUM_BUCKETS ? lower(i + 1) : Long.MAX_VALUE) / 1e9, c);
+            }
+
+        }
+
+    }
+
+    public void clear() {
+
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+
+        count.set(0);
+        total.set(0);
+        max.set(0);
+
+    }
+
+    public interface BucketConsumer {
+        void accept(double from, double to, long count);
+    }
+
+}
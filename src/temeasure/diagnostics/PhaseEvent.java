@@ -0,0 +1,41 @@
+package temeasure.diagnostics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight recorder event covering one phase of a measurement (gate step, heater step, settle, readout, write etc). Costs
+ * next to nothing unless a recording with this event enabled is running.
+ */
+@Name(PhaseEvent.NAME)
+@Label("Measurement Phase")
+@Category("TEMeasure")
+@Description("A single phase of a measurement or of the temperature logger")
+@StackTrace(false)
+public class PhaseEvent extends Event {
+
+    public static final String NAME = "temeasure.Phase";
+
+    @Label("Measurement")
+    String measurement;
+
+    @Label("Phase")
+    String phase;
+
+    @Label("Instrument")
+    String instrument;
+
+    @Label("Gate Set-Point [V]")
+    double gateSetPoint;
+
+    @Label("Heater Set-Point [V]")
+    double heaterSetPoint;
+
+    @Label("Current Set-Point [A]")
+    double currentSetPoint;
+
+}
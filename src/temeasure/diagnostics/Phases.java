@@ -0,0 +1,75 @@
+package temeasure.diagnostics;
+
+/**
+ * Emits flight recorder events for the phases of a measurement, tagging each with the set-points in effect when it
+ * began. When no recording is running, begin() and end() do nothing but check whether the event is enabled.
+ */
+public class Phases {
+
+    private final String measurement;
+
+    private volatile double gate    = Double.NaN;
+    private volatile double heater  = Double.NaN;
+    private volatile double current = Double.NaN;
+
+    /**
+     * Creates a source of phase events.
+     *
+     * @param measurement Name of the measurement (or logger) the phases belong to
+     */
+    public Phases(String measurement) {
+        this.measurement = measurement;
+    }
+
+    public void setGate(double setPoint) {
+        gate = setPoint;
+    }
+
+    public void setHeater(double setPoint) {
+        heater = setPoint;
+    }
+
+    public void setCurrent(double setPoint) {
+        current = setPoint;
+    }
+
+    /**
+     * Begins timing a phase.
+     *
+     * @param phase      Name of the phase (eg "Gate Step", "Settle")
+     * @param instrument Instrument the phase acts on, or null
+     *
+     * @return Event to pass to end() when the phase is over
+     */
+    public PhaseEvent begin(String phase, String instrument) {
+
+        PhaseEvent event = new PhaseEvent();
+
+        if (event.isEnabled()) {
+            event.measurement     = measurement;
+            event.phase           = phase;
+            event.instrument      = instrument;
+            event.gateSetPoint    = gate;
+            event.heaterSetPoint  = heater;
+            event.currentSetPoint = current;
+            event.begin();
+        }
+
+        return event;
+
+    }
+
+    /**
+     * Ends the given phase and commits its event, if recording.
+     *
+     * @param event Event returned by begin()
+     */
+    public void end(PhaseEvent event) {
+
+        if (event.isEnabled()) {
+            event.commit();
+        }
+
+    }
+
+}
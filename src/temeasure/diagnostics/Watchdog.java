@@ -0,0 +1,157 @@
+package temeasure.diagnostics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps watch over long-running tasks (measurements, the temperature logger etc), flagging any that stop making progress.
+ * Each task reports progress by calling beat() and, before any long wait it knows about (eg settling), expect() so that
+ * the wait is not mistaken for it being stuck. A task that goes longer than its limit without either is flagged as
+ * stalled, and the stack of the thread it last reported from is printed, once per stall, to show where it is stuck.
+ */
+public class Watchdog {
+
+    private static final long CHECK_INTERVAL = 1000;
+
+    private static final List<Task>               tasks   = new CopyOnWriteArrayList<>();
+    private static final ScheduledExecutorService checker = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "Watchdog");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    static {
+        checker.scheduleAtFixedRate(Watchdog::check, CHECK_INTERVAL, CHECK_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Starts watching a task, run from the calling thread.
+     *
+     * @param name  Name of the task
+     * @param limit Longest the task may go without reporting progress, in seconds
+     *
+     * @return Task, to report progress to
+     */
+    public static Task watch(String name, double limit) {
+
+        Task task = new Task(name, Math.round(limit * 1e9));
+        tasks.add(task);
+        return task;
+
+    }
+
+    /**
+     * Returns all tasks currently flagged as stalled.
+     *
+     * @return List of stalled tasks
+     */
+    public static List<Task> getStalled() {
+
+        List<Task> stalled = new ArrayList<>();
+
+        for (Task task : tasks) {
+            if (task.isStalled()) {
+                stalled.add(task);
+            }
+        }
+
+        return stalled;
+
+    }
+
+    private static void check() {
+
+        long now = System.nanoTime();
+
+        for (Task task : tasks) {
+
+            if (task.due - now < 0 && !task.stalled) {
+
+                task.stalled = true;
+
+                Thread thread = task.thread;
+
+                System.err.printf("Watchdog: %s has made no progress for %.0f s, last seen in thread \"%s\":%n", task.name, task.getStalledFor(), thread.getName());
+
+                for (StackTraceElement element : thread.getStackTrace()) {
+                    System.err.printf("    at %s%n", element);
+                }
+
+            }
+
+        }
+
+    }
+
+    /**
+     * A task being watched.
+     */
+    public static class Task implements AutoCloseable {
+
+        private final String name;
+        private final long   limit;
+
+        private volatile Thread  thread;
+        private volatile long    last;
+        private volatile long    due;
+        private volatile boolean stalled = false;
+
+        private Task(String name, long limit) {
+            this.name  = name;
+            this.limit = limit;
+            beat();
+        }
+
+        /**
+         * Reports that the task has made progress.
+         */
+        public void beat() {
+            thread  = Thread.currentThread();
+            last    = System.nanoTime();
+            due     = last + limit;
+            stalled = false;
+        }
+
+        /**
+         * Reports that the task has made progress and is about to go quiet (eg waiting to settle) for up to the given
+         * time, on top of its usual limit.
+         *
+         * @param millis Expected wait, in milliseconds
+         */
+        public void expect(long millis) {
+            beat();
+            due += millis * 1000000;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public boolean isStalled() {
+            return stalled;
+        }
+
+        /**
+         * Returns how long it has been since the task last reported progress.
+         *
+         * @return Time since progress, in seconds
+         */
+        public double getStalledFor() {
+            return (System.nanoTime() - last) / 1e9;
+        }
+
+        /**
+         * Stops watching the task.
+         */
+        @Override
+        public void close() {
+            tasks.remove(this);
+        }
+
+    }
+
+}
@@ -0,0 +1,36 @@
+package temeasure.gui;
+
+import jisa.gui.Series;
+import temeasure.data.ColumnStore;
+import temeasure.data.DecimatedSeries;
+
+/**
+ * Draws one column of a column store against another as a decimated series, fed with batches of new rows.
+ */
+class ColumnPlotter implements UpdateCoalescer.Sink {
+
+    // Number of min/max buckets (roughly pixel columns) to keep per series
+    private static final int BUCKETS = 800;
+
+    private final DecimatedSeries series;
+    private final ColumnStore     store;
+    private final int             xCol;
+    private final int             yCol;
+
+    ColumnPlotter(Series series, ColumnStore store, int xCol, int yCol) {
+        this.series = new DecimatedSeries(series, BUCKETS);
+        this.store  = store;
+        this.xCol   = xCol;
+        this.yCol   = yCol;
+    }
+
+    @Override
+    public void update(int from, int to) {
+
+        for (int i = from; i < to; i++) {
+            series.add(store.get(i, xCol), store.get(i, yCol));
+        }
+
+    }
+
+}
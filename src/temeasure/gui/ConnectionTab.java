@@ -1,10 +1,23 @@
 package temeasure.gui;
 
+import jisa.control.Field;
+import jisa.devices.Instrument;
 import jisa.devices.SMU;
 import jisa.devices.TC;
 import jisa.devices.VMeter;
 import jisa.gui.ConfigGrid;
+import jisa.gui.Fields;
+import jisa.gui.Grid;
 import jisa.gui.InstrumentConfig;
+import temeasure.devices.ResilientInstrument;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 public class ConnectionTab extends ConfigGrid {
 
@@ -18,6 +31,22 @@ public class ConnectionTab extends ConfigGrid {
     private InstrumentConfig<TC>     tc3;
     private InstrumentConfig<TC>     tc4;
 
+    private final Fields                     settings    = new Fields("Connection Settings");
+    private final Fields                     status      = new Fields("Connection Status");
+    private final Field<Double>              timeout;
+    private final Field<Double>              deadline;
+    private final Field<Integer>             retries;
+    private final List<InstrumentConfig<?>>  instruments = new ArrayList<>();
+    private final List<Field<String>>        states      = new ArrayList<>();
+    private final List<CompletableFuture<?>> attempts    = new ArrayList<>();
+    private final ExecutorService            connector   = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "Instrument Connector");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private CompletableFuture<Void> connected = CompletableFuture.completedFuture(null);
+
     @SuppressWarnings("unchecked")
     public ConnectionTab(MainWindow mainWindow) {
         super("Connections", mainWindow.configStore);
@@ -34,8 +63,141 @@ public class ConnectionTab extends ConfigGrid {
         tc3    = addInstrument("Temperature Controller 3", TC.class);
         tc4    = addInstrument("Temperature Controller 4", TC.class);
 
+        instruments.addAll(List.of(smu1, smu2, smu3, smu4, vMeter, tc1, tc2, tc3, tc4));
+
+        // Set-up settings panel, saved under its old key (from when it shared a panel with the status) to keep values
+        timeout  = settings.addDoubleField("Timeout [s]", 10.0);
+        deadline = settings.addDoubleField("Call Deadline [s]", 10.0);
+        retries  = settings.addIntegerField("Read Retries", 2);
+        settings.loadFromConfig("connection-status", mainWindow.configStore);
+
+        // Set-up status panel, showing how each connection is progressing, which is never saved as it is read-only
+        for (InstrumentConfig<?> instrument : instruments) {
+            Field<String> state = status.addTextField(instrument.getTitle(), "Not Connected");
+            state.setDisabled(true);
+            states.add(state);
+            attempts.add(CompletableFuture.completedFuture(null));
+        }
+
+        status.addSeparator();
+        status.addButton("Reconnect All", this::connectAll);
+
+        // Every call to an instrument must complete within the deadline, with failed reads retried before giving up
+        deadline.setOnChange(this::updateDeadlines);
+        retries.setOnChange(this::updateDeadlines);
+        updateDeadlines();
+
+        add(new Grid(1, settings, status));
+
+        // Connect in the background, so the window can be used while any slow instruments finish connecting
         connectAll();
 
     }
 
+    private void updateDeadlines() {
+        ResilientInstrument.configure(deadline.get(), retries.get());
+    }
+
+    /**
+     * Connects to all instruments at once, each in the background with its own timeout, so that one slow or missing
+     * instrument holds up none of the others. Any instrument whose previous attempt timed out but has not yet returned
+     * is left to finish that attempt, rather than being connected a second time at once.
+     */
+    @Override
+    public synchronized void connectAll() {
+
+        if (!connected.isDone()) {
+            return;
+        }
+
+        List<CompletableFuture<Void>> connections = new ArrayList<>();
+
+        for (int i = 0; i < instruments.size(); i++) {
+
+            if (!attempts.get(i).isDone()) {
+                states.get(i).set("Still Connecting...");
+                continue;
+            }
+
+            connections.add(connect(i));
+
+        }
+
+        connected = CompletableFuture.allOf(connections.toArray(new CompletableFuture<?>[0]));
+
+    }
+
+    /**
+     * Connects to a single instrument and queries its identity to check it is responding, updating its status as it
+     * goes. The returned future completes (normally) once the instrument has connected, failed or timed out, while the
+     * attempt itself (kept in attempts) only completes once connect() has really returned.
+     */
+    private CompletableFuture<Void> connect(int index) {
+
+        InstrumentConfig<?> instrument = instruments.get(index);
+        Field<String>       state      = states.get(index);
+        long                start      = System.nanoTime();
+
+        state.set("Connecting...");
+
+        CompletableFuture<Void> attempt = CompletableFuture.runAsync(() -> {
+
+            instrument.connect();
+
+            Object device = instrument.get();
+
+            if (device == null) {
+                throw new IllegalStateException("Not connected");
+            }
+
+            // Warm up the connection with a first query, so any problem shows now and not at the start of a measurement
+            if (device instanceof Instrument) {
+                try {
+                    ((Instrument) device).getIDN();
+                } catch (Exception e) {
+                    throw new IllegalStateException(e.getMessage(), e);
+                }
+            }
+
+        }, connector);
+
+        attempts.set(index, attempt);
+
+        return attempt.copy().orTimeout((long) (timeout.get() * 1000), TimeUnit.MILLISECONDS).handle((result, error) -> {
+
+            double time = (System.nanoTime() - start) / 1e9;
+
+            if (error == null) {
+
+                state.set(String.format("Connected (%.1f s)", time));
+
+            } else if (error instanceof TimeoutException) {
+
+                state.set(String.format("Timed Out (%.0f s)", time));
+
+                // Carries on trying in the background, so report if it does eventually connect
+                attempt.thenRun(() -> state.set(String.format("Connected Late (%.1f s)", (System.nanoTime() - start) / 1e9)));
+
+            } else {
+
+                Throwable cause = error.getCause() == null ? error : error.getCause();
+                state.set("Failed: " + cause.getMessage());
+
+            }
+
+            return null;
+
+        });
+
+    }
+
+    /**
+     * Runs the given task, in the background, once every connection started so far has connected, failed or timed out.
+     *
+     * @param task Task to run
+     */
+    public synchronized void whenConnected(Runnable task) {
+        connected.thenRunAsync(task, connector);
+    }
+
 }
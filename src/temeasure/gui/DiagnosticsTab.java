@@ -0,0 +1,249 @@
+package temeasure.gui;
+
+import jisa.control.Field;
+import jisa.control.RTask;
+import jisa.gui.*;
+import temeasure.devices.Decorators;
+import temeasure.devices.TraceRecorder;
+import temeasure.devices.TraceReplay;
+import temeasure.diagnostics.Diagnostics;
+import temeasure.diagnostics.LatencyHistogram;
+import temeasure.diagnostics.Watchdog;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Shows, live, where time is going: the latency distribution of each method called on each instrument, and how the
+ * time of the current (or last) measurement run splits between settling, querying, writing, storing and everything else,
+ * along with how many redundant commands the instrument caches have saved. Instrument traces can also be recorded and
+ * replayed from here.
+ */
+public class DiagnosticsTab extends Grid {
+
+    private static final int REFRESH_INTERVAL = 1000;
+
+    private final Fields breakdown = new Fields("Run Breakdown");
+    private final Fields tracing   = new Fields("Trace & Replay");
+    private final Grid   methods   = new Grid("Instrument Latencies", 3);
+    private final Plot   latencies = new Plot("Latency Distribution", "log10(Latency [s])", "Calls");
+    private final RTask  refresher;
+
+    private final Field<String>  elapsed;
+    private final Field<String>  settle;
+    private final Field<String>  query;
+    private final Field<String>  write;
+    private final Field<String>  store;
+    private final Field<String>  idle;
+    private final Field<String>  skipped;
+    private final Field<String>  timeouts;
+    private final Field<String>  invalid;
+    private final Field<String>  watchdog;
+    private final Field<String>  traceFile;
+    private final Field<String>  replayFile;
+    private final Field<Integer> replaySpeed;
+    private final Field<String>  traceStatus;
+
+    private final Map<String, Fields>        instruments = new HashMap<>();
+    private final Map<String, Field<String>> summaries   = new HashMap<>();
+    private final Map<String, Series>        series      = new HashMap<>();
+
+    public DiagnosticsTab() {
+
+        super("Diagnostics", 1);
+        setGrowth(true, false);
+
+        elapsed = breakdown.addTextField("Run Time [s]", "0");
+        breakdown.addSeparator();
+        settle  = breakdown.addTextField("Settling [s]", "0");
+        query   = breakdown.addTextField("Querying [s]", "0");
+        write   = breakdown.addTextField("Writing [s]", "0");
+        store   = breakdown.addTextField("Storing [s]", "0");
+        idle    = breakdown.addTextField("Idle [s]", "0");
+        breakdown.addSeparator();
+        skipped  = breakdown.addTextField("Redundant Commands Skipped", "0");
+        timeouts = breakdown.addTextField("Calls Timed Out", "0");
+        invalid  = breakdown.addTextField("Invalid Readings", "0");
+        watchdog = breakdown.addTextField("Watchdog", "OK");
+        breakdown.addSeparator();
+        breakdown.addButton("Clear Histograms", () -> {
+            Diagnostics.clearHistograms();
+            refresh();
+        });
+        breakdown.addButton("Clear Instrument Caches", Decorators::invalidateCaches);
+
+        elapsed.setDisabled(true);
+        settle.setDisabled(true);
+        query.setDisabled(true);
+        write.setDisabled(true);
+        store.setDisabled(true);
+        idle.setDisabled(true);
+        skipped.setDisabled(true);
+        timeouts.setDisabled(true);
+        invalid.setDisabled(true);
+        watchdog.setDisabled(true);
+
+        traceFile   = tracing.addFileSave("Trace File", "");
+        tracing.addButton("Record", this::startTrace);
+        tracing.addButton("Stop Recording", this::stopTrace);
+        tracing.addSeparator();
+        replayFile  = tracing.addFileOpen("Replay File", "");
+        replaySpeed = tracing.addChoice("Replay Speed", 0, "As Fast As Possible", "Real Time");
+        tracing.addButton("Load Replay", this::startReplay);
+        tracing.addButton("Unload Replay", this::stopReplay);
+        tracing.addSeparator();
+        traceStatus = tracing.addTextField("Status", "Idle");
+
+        traceStatus.setDisabled(true);
+
+        methods.setGrowth(true, false);
+
+        add(new Grid(3, breakdown, tracing, latencies));
+        add(methods);
+
+        refresher = new RTask(REFRESH_INTERVAL, this::refresh);
+        refresher.start();
+
+    }
+
+    private void startTrace() {
+
+        try {
+            Decorators.startTrace(traceFile.get());
+        } catch (IOException e) {
+            GUI.errorAlert("Error", "Cannot Record Trace", e.getMessage());
+        }
+
+        refresh();
+
+    }
+
+    private void stopTrace() {
+
+        TraceRecorder stopped = Decorators.stopTrace();
+
+        if (stopped != null) {
+            GUI.infoAlert("Trace", "Trace Recorded", String.format("%d calls written to %s.", stopped.getCalls(), stopped.getPath()));
+        }
+
+        refresh();
+
+    }
+
+    private void startReplay() {
+
+        try {
+            Decorators.startReplay(new TraceReplay(replayFile.get(), replaySpeed.get() == 1));
+        } catch (IOException e) {
+            GUI.errorAlert("Error", "Cannot Load Trace", e.getMessage());
+        }
+
+        refresh();
+
+    }
+
+    private void stopReplay() {
+        Decorators.stopReplay();
+        refresh();
+    }
+
+    private synchronized void refresh() {
+
+        // == RUN BREAKDOWN ============================================================================================
+        Diagnostics.Breakdown run   = Diagnostics.getBreakdown();
+        double                total = run.getElapsed();
+
+        elapsed.set(String.format("%.1f%s", total, run.isRunning() ? " (running)" : ""));
+        settle.set(share(run.get(Diagnostics.Activity.SETTLE), total));
+        query.set(share(run.get(Diagnostics.Activity.QUERY), total));
+        write.set(share(run.get(Diagnostics.Activity.WRITE), total));
+        store.set(share(run.get(Diagnostics.Activity.STORE), total));
+        idle.set(share(run.getIdle(), total));
+
+        // == COMMAND CACHE ============================================================================================
+        long saved = Decorators.getSavedCommands().values().stream().mapToLong(Long::longValue).sum();
+
+        skipped.set(String.valueOf(saved));
+
+        // == RESILIENCE ===============================================================================================
+        timeouts.set(String.valueOf(Decorators.getTimeouts().values().stream().mapToLong(Long::longValue).sum()));
+        invalid.set(String.valueOf(Decorators.getInvalidReadings().values().stream().mapToLong(Long::longValue).sum()));
+
+        List<Watchdog.Task> stalled = Watchdog.getStalled();
+
+        if (stalled.isEmpty()) {
+            watchdog.set("OK");
+        } else {
+            watchdog.set(stalled.stream().map(t -> String.format("%s stuck for %.0f s", t.getName(), t.getStalledFor())).collect(Collectors.joining(", ")));
+        }
+
+        // == TRACE & REPLAY ===========================================================================================
+        TraceReplay   replay = Decorators.getReplay();
+        TraceRecorder trace  = Decorators.getTrace();
+
+        if (replay != null) {
+            traceStatus.set(String.format("Replaying %d/%d calls, %d divergences", replay.getReplayed(), replay.getTotal(), replay.getDivergences()));
+        } else if (trace != null) {
+            traceStatus.set(String.format("Recording, %d calls written", trace.getCalls()));
+        } else {
+            traceStatus.set("Idle");
+        }
+
+        // == PER-METHOD LATENCIES =====================================================================================
+        for (Diagnostics.Entry entry : Diagnostics.getHistograms()) {
+
+            String           key       = entry.getInstrument() + "." + entry.getMethod();
+            LatencyHistogram histogram = entry.getHistogram();
+
+            Field<String> summary = summaries.computeIfAbsent(key, k -> {
+
+                Fields panel = instruments.computeIfAbsent(entry.getInstrument(), name -> {
+                    Fields created = new Fields(name);
+                    methods.add(created);
+                    return created;
+                });
+
+                Field<String> created = panel.addTextField(entry.getMethod(), "");
+                created.setDisabled(true);
+                return created;
+
+            });
+
+            summary.set(String.format(
+                    "%d calls, p50 %s, p99 %s, max %s",
+                    histogram.getCount(),
+                    time(histogram.getPercentile(50)),
+                    time(histogram.getPercentile(99)),
+                    time(histogram.getMax())
+            ));
+
+            // One series per method, showing how many calls fell in each latency bucket
+            Series s = series.computeIfAbsent(key, k -> latencies.createSeries().setName(k));
+
+            s.clear();
+            histogram.forEachBucket((from, to, count) -> s.addPoint(Math.log10((from + to) / 2), count));
+
+        }
+
+    }
+
+    private static String share(double time, double total) {
+        return String.format("%.1f (%.0f%%)", time, total > 0 ? 100.0 * time / total : 0.0);
+    }
+
+    private static String time(double seconds) {
+
+        if (seconds < 1e-3) {
+            return String.format("%.0f us", seconds * 1e6);
+        } else if (seconds < 1.0) {
+            return String.format("%.1f ms", seconds * 1e3);
+        } else {
+            return String.format("%.2f s", seconds);
+        }
+
+    }
+
+}
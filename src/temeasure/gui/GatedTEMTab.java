@@ -4,8 +4,9 @@ import jisa.control.Field;
 import jisa.devices.SMU;
 import jisa.devices.TC;
 import jisa.devices.VMeter;
-import jisa.experiment.ResultTable;
 import jisa.gui.*;
+import temeasure.data.ColumnStore;
+import temeasure.data.PartitionIndex;
 import temeasure.measurement.GatedTEM;
 
 import java.util.LinkedList;
@@ -17,6 +18,9 @@ public class GatedTEMTab extends Grid {
     private final Fields     gateParams   = new Fields("Gate");
     private final Fields     heaterParams = new Fields("Heater");
     private final Fields     otherParams  = new Fields("Other");
+    private final Fields     guardParams  = new Fields("Leakage Guard");
+    private final Fields     display      = new Fields("Display");
+    private final Fields     status       = new Fields("Status");
 
     private final Field<Double>  gateStart;
     private final Field<Double>  gateStop;
@@ -31,13 +35,33 @@ public class GatedTEMTab extends Grid {
     private final Field<Double> intTime;
     private final Field<String> outputFile;
 
-    private final Plot  heaterPlot  = new Plot("Heater Power", "Measurement No.", "Heater Power [W]");
-    private final Plot  gatePlot    = new Plot("Gate Voltage", "Measurement No.", "Gate Voltage [V]");
-    private final Plot  thermalPlot = new Plot("Thermo-Voltage", "Measurement No.", "Thermo-Voltage [V]");
-    private final Plot  tpPlot      = new Plot("TV vs Power", "Heater Power [W]", "Thermo-Voltage [V]");
-    private final Table table       = new Table("Table of Results");
-
-    private GatedTEM measurement = null;
+    private final Field<Double>  gateLimit;
+    private final Field<Integer> trendPoints;
+    private final Field<Double>  trendFactor;
+    private final Field<Double>  heaterLimit;
+    private final Field<Integer> maxSkips;
+
+    private final Field<Double> refreshRate;
+    private final Field<String> framesDrawn;
+    private final Field<String> framesDropped;
+    private final Field<String> batchSize;
+
+    private final ProgressFields progress;
+
+    private final Plot       heaterPlot  = new Plot("Heater Power", "Measurement No.", "Heater Power [W]");
+    private final Plot       gatePlot    = new Plot("Gate Voltage", "Measurement No.", "Gate Voltage [V]");
+    private final Plot       thermalPlot = new Plot("Thermo-Voltage", "Measurement No.", "Thermo-Voltage [V]");
+    private final Plot       tpPlot      = new Plot("TV vs Power", "Heater Power [W]", "Thermo-Voltage [V]");
+    private final PagedTable table       = new PagedTable(
+            "Table of Results",
+            GatedTEM.COLUMNS,
+            "Gate Config",
+            "Hot-Gate",
+            "Cold-Gate"
+    );
+
+    private GatedTEM        measurement = null;
+    private UpdateCoalescer coalescer   = null;
 
     public GatedTEMTab(MainWindow mainWindow) {
 
@@ -64,11 +88,40 @@ public class GatedTEMTab extends Grid {
         intTime    = otherParams.addDoubleField("Integration Time [s]", 200e-3);
         outputFile = otherParams.addFileSave("Output File", "");
 
+        // Set-up leakage guard panel (0 to disable a limit)
+        gateLimit   = guardParams.addDoubleField("Max Gate Leakage [A]", 100e-9);
+        trendPoints = guardParams.addIntegerField("Rising Trend [points]", 3);
+        trendFactor = guardParams.addDoubleField("Rising Trend [factor]", 10.0);
+        guardParams.addSeparator();
+        heaterLimit = guardParams.addDoubleField("Heater Compliance [A]", 0.0);
+        guardParams.addSeparator();
+        maxSkips    = guardParams.addIntegerField("Abort After Skipped Steps", 2);
+
+        // Set-up display panel, along with a status panel showing how live updates are being batched and how far the run
+        // has got, which is kept apart so that none of its read-only values are saved and shown again next time
+        refreshRate   = display.addDoubleField("Max Refresh Rate [Hz]", 10.0);
+        framesDrawn   = status.addTextField("Frames Drawn", "0");
+        framesDropped = status.addTextField("Frames Dropped", "0");
+        batchSize     = status.addTextField("Mean/Max Batch Size", "0 / 0");
+        framesDrawn.setDisabled(true);
+        framesDropped.setDisabled(true);
+        batchSize.setDisabled(true);
+        status.addSeparator();
+        progress = new ProgressFields(status);
+
+        refreshRate.setOnChange(() -> {
+            if (coalescer != null && refreshRate.get() > 0) {
+                coalescer.setMaxRate(refreshRate.get());
+            }
+        });
+
         gateParams.loadFromConfig("tem-gate-params", mainWindow.configStore);
         heaterParams.loadFromConfig("tem-heater-params", mainWindow.configStore);
         otherParams.loadFromConfig("tem-other-params", mainWindow.configStore);
+        guardParams.loadFromConfig("tem-guard-params", mainWindow.configStore);
+        display.loadFromConfig("tem-display", mainWindow.configStore);
 
-        Grid topGrid    = new Grid(3, gateParams, heaterParams, otherParams);
+        Grid topGrid    = new Grid(5, gateParams, heaterParams, otherParams, guardParams, new Grid(1, display, status));
         Grid bottomGrid = new Grid(2, heaterPlot, gatePlot, thermalPlot, tpPlot);
 
         add(topGrid);
@@ -81,6 +134,7 @@ public class GatedTEMTab extends Grid {
 
         addToolbarButton("Start", this::run);
         addToolbarButton("Stop", this::stop);
+        addToolbarButton("Apply Changes", this::retune);
 
     }
 
@@ -89,6 +143,31 @@ public class GatedTEMTab extends Grid {
         gateParams.setFieldsDisabled(disable);
         heaterParams.setFieldsDisabled(disable);
         otherParams.setFieldsDisabled(disable);
+        guardParams.setFieldsDisabled(disable);
+
+        // Hold times and integration time can still be changed mid-run, taking effect when "Apply Changes" is pressed
+        gateTime.setDisabled(false);
+        heaterTime.setDisabled(false);
+        intTime.setDisabled(false);
+
+    }
+
+    /**
+     * Passes the hold times and integration time currently entered to the running measurement, which applies them from
+     * its next step and records each change in its run log.
+     */
+    private void retune() {
+
+        GatedTEM running = measurement;
+
+        if (running == null || !running.isRunning()) {
+            GUI.errorAlert("Error", "Not Running", "There is no running measurement to apply changes to.");
+            return;
+        }
+
+        running.retuneGateHold(gateTime.get());
+        running.retuneHeaterHold(heaterTime.get());
+        running.retuneIntegrationTime(intTime.get());
 
     }
 
@@ -103,19 +182,17 @@ public class GatedTEMTab extends Grid {
             return;
         }
 
-        ResultTable results = null;
-
         try {
 
             // Disabled all the text-boxes etc
             disableInputs(true);
 
             // Get the instruments that have been configured on the config tabs
-            VMeter             thermoVoltage   = mainWindow.smuConfigTab.tvSMU.get();
-            SMU                hotGateVoltage  = mainWindow.smuConfigTab.hotGateSMU.get();
-            SMU                coldGateVoltage = mainWindow.smuConfigTab.coldGateSMU.get();
-            SMU                heaterVoltage   = mainWindow.smuConfigTab.heaterSMU.get();
-            TC                 stageTemp       = mainWindow.tcConfigTab.stage.get();
+            VMeter             thermoVoltage   = mainWindow.smuConfigTab.get().getTVMeter();
+            SMU                hotGateVoltage  = mainWindow.smuConfigTab.get().getHotGateSMU();
+            SMU                coldGateVoltage = mainWindow.smuConfigTab.get().getColdGateSMU();
+            SMU                heaterVoltage   = mainWindow.smuConfigTab.get().getHeaterSMU();
+            TC                 stageTemp       = mainWindow.tcConfigTab.get().getStageTC();
             LinkedList<String> errors          = new LinkedList<>();
 
             // Check that everything is present and configured
@@ -156,17 +233,26 @@ public class GatedTEMTab extends Grid {
                        .configureHeater(heaterStart.get(), heaterStop.get(), heaterSteps.get())
                        .configureTiming(gateTime.get(), heaterTime.get(), intTime.get());
 
-            // Stream results directly to file
-            results = measurement.newResults(outputFile.get());
+            measurement.getGuard()
+                       .configureGate(gateLimit.get(), trendPoints.get(), trendFactor.get())
+                       .configureHeater(heaterLimit.get())
+                       .configureAbort(maxSkips.get());
+
+            // Stream results directly to file (opened and closed by the measurement itself)
+            measurement.writeTo(outputFile.get());
 
-            configurePlots(results);
+            configurePlots(measurement.getStore());
 
             // Do the actual measurement now that everything's ready
+            coalescer.start();
+            progress.start(measurement);
             measurement.performMeasurement();
 
             // Check whether it finished because "stop" was pressed or it completing fully
             if (measurement.wasStopped()) {
                 GUI.warningAlert("Stopped", "Measurement Stopped", "The measurement was stopped before completion.");
+            } else if (measurement.getGuard().isAborted()) {
+                GUI.warningAlert("Aborted", "Measurement Aborted", measurement.getGuard().getAbortReason());
             } else {
                 GUI.infoAlert("Complete", "Measurement Completed", "The measurement completed without error.");
             }
@@ -179,11 +265,13 @@ public class GatedTEMTab extends Grid {
 
         } finally {
 
-            // If we actually got some results, then finalise the table (closes the file)
-            if (results != null) {
-                results.finalise();
+            // Draw anything still waiting for the next frame
+            if (coalescer != null) {
+                coalescer.stop();
             }
 
+            progress.stop();
+
             // Re-enable all the text boxes
             disableInputs(false);
         }
@@ -191,62 +279,77 @@ public class GatedTEMTab extends Grid {
     }
 
     /**
-     * Configures the plots on the tab to display the live results of a new measurement
+     * Configures the plots on the tab to display the live results of a new measurement. All plots and the table are
+     * updated in batches of new rows, at no more than the maximum refresh rate.
      *
-     * @param results The results object of the new measurement
+     * @param store The column store of the new measurement
      */
-    private void configurePlots(ResultTable results) {
+    private void configurePlots(ColumnStore store) {
+
+        coalescer = new UpdateCoalescer(store, refreshRate.get());
+
+        // Index rows by gate config, and by gate config and set-point, so filtered/split series read only their rows
+        PartitionIndex byConfig  = store.addIndex(GatedTEM.COL_GATE_CONFIG);
+        PartitionIndex bySetGate = store.addIndex(GatedTEM.COL_GATE_CONFIG, GatedTEM.COL_GATE_SET_VOLTAGE);
 
         // == HEATER POWER PLOT ========================================================================================
         heaterPlot.clear();
 
-        heaterPlot.createSeries()
-                  .watch(results, GatedTEM.COL_NUMBER, GatedTEM.COL_HEATER_POWER)
-                  .setName("Heater")
-                  .setColour(Colour.TEAL);
+        coalescer.addSink(new ColumnPlotter(
+                heaterPlot.createSeries().setName("Heater").setColour(Colour.TEAL),
+                store,
+                GatedTEM.COL_NUMBER,
+                GatedTEM.COL_HEATER_POWER
+        ));
 
         // == GATE VOLTAGE PLOT ========================================================================================
         gatePlot.clear();
 
-        // For gate-config 0 (hot-gate)
-        gatePlot.createSeries()
-                .watch(results, GatedTEM.COL_NUMBER, GatedTEM.COL_GATE_VOLTAGE)
-                .filter(r -> r.get(GatedTEM.COL_GATE_CONFIG) == 0.0)
-                .setName("Hot-Gate")
-                .setColour(Colour.ORANGERED);
-
-        // For gate-config 1 (cold-gate)
-        gatePlot.createSeries()
-                .watch(results, GatedTEM.COL_NUMBER, GatedTEM.COL_GATE_VOLTAGE)
-                .filter(r -> r.get(GatedTEM.COL_GATE_CONFIG) == 1.0)
-                .setName("Cold-Gate")
-                .setColour(Colour.CORNFLOWERBLUE);
+        // One series for each gate config (0 = hot-gate, 1 = cold-gate)
+        coalescer.addSink(new PartitionPlotter(
+                gatePlot,
+                store,
+                byConfig,
+                GatedTEM.COL_NUMBER,
+                GatedTEM.COL_GATE_VOLTAGE,
+                p -> p.getKey(0) == 0.0 ? "Hot-Gate" : "Cold-Gate",
+                p -> p.getKey(0) == 0.0 ? Colour.ORANGERED : Colour.CORNFLOWERBLUE
+        ));
 
         // == THERMO-VOLTAGE PLOT ======================================================================================
         thermalPlot.clear();
 
-        thermalPlot.createSeries()
-                   .watch(results, GatedTEM.COL_NUMBER, GatedTEM.COL_THERMO_VOLTAGE)
-                   .setName("Thermo-Voltage")
-                   .setColour(Colour.PURPLE);
+        coalescer.addSink(new ColumnPlotter(
+                thermalPlot.createSeries().setName("Thermo-Voltage").setColour(Colour.PURPLE),
+                store,
+                GatedTEM.COL_NUMBER,
+                GatedTEM.COL_THERMO_VOLTAGE
+        ));
 
         // == THERMO VS HEATER PLOT ====================================================================================
         tpPlot.clear();
 
-        // For gate-config 0 (hot-gate)
-        tpPlot.createSeries()
-              .watch(results, GatedTEM.COL_HEATER_POWER, GatedTEM.COL_THERMO_VOLTAGE)  // Plot HP on x, TV on y
-              .filter(r -> r.get(GatedTEM.COL_GATE_CONFIG) == 0.0)                     // Only want gate config 0
-              .split(GatedTEM.COL_GATE_SET_VOLTAGE);                                   // Split by set gate voltage
-
-        // For gate-config 1 (cold-gate)
-        tpPlot.createSeries()
-              .watch(results, GatedTEM.COL_HEATER_POWER, GatedTEM.COL_THERMO_VOLTAGE)  // Plot HP on x, TV on y
-              .filter(r -> r.get(GatedTEM.COL_GATE_CONFIG) == 1.0)                     // Only want gate config 1
-              .split(GatedTEM.COL_GATE_SET_VOLTAGE);                                   // Split by set gate voltage
-
-        table.clear();
-        table.watchList(results);
+        // Plot HP on x, TV on y, with one series for each gate config and gate set-point
+        coalescer.addSink(new PartitionPlotter(
+                tpPlot,
+                store,
+                bySetGate,
+                GatedTEM.COL_HEATER_POWER,
+                GatedTEM.COL_THERMO_VOLTAGE,
+                p -> String.format("%s %s V", p.getKey(0) == 0.0 ? "HG" : "CG", p.getKey(1)),
+                null
+        ));
+
+        // == TABLE ====================================================================================================
+        table.watch(store, byConfig);
+        coalescer.addSink(table);
+
+        // == DISPLAY STATISTICS =======================================================================================
+        coalescer.addSink((from, to) -> {
+            framesDrawn.set(String.valueOf(coalescer.getFrames()));
+            framesDropped.set(String.valueOf(coalescer.getDroppedFrames()));
+            batchSize.set(String.format("%.1f / %d", coalescer.getMeanBatchSize(), coalescer.getMaxBatchSize()));
+        });
 
     }
 
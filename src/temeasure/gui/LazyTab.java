@@ -0,0 +1,92 @@
+package temeasure.gui;
+
+import jisa.gui.Element;
+import jisa.gui.Grid;
+
+import java.util.function.Supplier;
+
+/**
+ * Placeholder for a tab whose contents (plots, fields, config loading etc) are only built when first needed, either
+ * because the user first selects the tab or because something else asks for it through get() (eg a measurement reading
+ * the config tabs). Once built, the contents take the place of the placeholder in the main window, so they are shown as
+ * the tab itself rather than nested inside it.
+ *
+ * @param <T> Type of the tab's contents
+ */
+class LazyTab<T extends Element> extends Grid {
+
+    private final MainWindow  window;
+    private final String      title;
+    private final Supplier<T> factory;
+    private volatile T        contents = null;
+
+    /**
+     * Creates a placeholder tab.
+     *
+     * @param window  Window the tab is in
+     * @param title   Title of the tab
+     * @param factory Builds the contents of the tab
+     */
+    LazyTab(MainWindow window, String title, Supplier<T> factory) {
+        super(title, 1);
+        setGrowth(true, true);
+        this.window  = window;
+        this.title   = title;
+        this.factory = factory;
+    }
+
+    /**
+     * Returns the contents of the tab, building them first (and putting them in place of the placeholder) if this is
+     * the first time they are needed.
+     *
+     * @return Tab contents
+     */
+    T get() {
+
+        T built = contents;
+
+        if (built == null) {
+
+            synchronized (this) {
+
+                if (contents == null) {
+                    contents = factory.get();
+                    window.replace(this, contents);
+                }
+
+                built = contents;
+
+            }
+
+        }
+
+        return built;
+
+    }
+
+    /**
+     * Builds the contents of the tab in the background, if not already built, for when the tab has been selected. This
+     * is never done on the JavaFX thread itself, as building the contents needs it.
+     */
+    void buildLater() {
+
+        if (contents != null) {
+            return;
+        }
+
+        Thread thread = new Thread(this::get, "Build Tab: " + title);
+        thread.setDaemon(true);
+        thread.start();
+
+    }
+
+    /**
+     * Returns whether the contents of this tab have been built yet.
+     *
+     * @return Built?
+     */
+    boolean isBuilt() {
+        return contents != null;
+    }
+
+}
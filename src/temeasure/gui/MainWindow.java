@@ -1,19 +1,28 @@
 package temeasure.gui;
 
+import javafx.application.Platform;
+import javafx.scene.control.TabPane;
 import jisa.control.ConfigStore;
+import jisa.gui.Element;
 import jisa.gui.Tabs;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 public class MainWindow extends Tabs {
 
-    final ConfigStore      configStore      = new ConfigStore("TEMeasure");
-    final ConnectionTab    connectionTab    = new ConnectionTab(this);
-    final SMUConfigTab     smuConfigTab     = new SMUConfigTab(this);
-    final TCConfigTab      tcConfigTab      = new TCConfigTab(this);
-    final GatedTEMTab      gatedTEMTab      = new GatedTEMTab(this);
-    final RTCalibrationTab rtCalibrationTab = new RTCalibrationTab(this);
-    final TempTab          tempTab          = new TempTab(this);
+    final ConfigStore               configStore      = new ConfigStore("TEMeasure");
+    final ConnectionTab             connectionTab    = new ConnectionTab(this);
+    final LazyTab<SMUConfigTab>     smuConfigTab     = new LazyTab<>(this, "SMU Config", () -> new SMUConfigTab(this));
+    final LazyTab<TCConfigTab>      tcConfigTab      = new LazyTab<>(this, "T-Controller Config", () -> new TCConfigTab(this));
+    final LazyTab<GatedTEMTab>      gatedTEMTab      = new LazyTab<>(this, "Gated TE Measurement", () -> new GatedTEMTab(this));
+    final LazyTab<RTCalibrationTab> rtCalibrationTab = new LazyTab<>(this, "RT Calibration", () -> new RTCalibrationTab(this));
+    final LazyTab<TempTab>          tempTab          = new LazyTab<>(this, "Temperature Control", () -> new TempTab(this));
+    final LazyTab<DiagnosticsTab>   diagnosticsTab   = new LazyTab<>(this, "Diagnostics", DiagnosticsTab::new);
+
+    // The tabs as currently shown, in order, with each placeholder replaced by its contents once built (JavaFX thread only)
+    private final List<Element> shown = new ArrayList<>();
 
     public MainWindow() throws IOException {
 
@@ -21,17 +30,55 @@ public class MainWindow extends Tabs {
 
         setMaximised(true);
         setExitOnClose(true);
-        add(connectionTab);
-        add(smuConfigTab);
-        add(tcConfigTab);
-        add(tempTab);
-        add(gatedTEMTab);
-        add(rtCalibrationTab);
 
+        shown.addAll(List.of(connectionTab, smuConfigTab, tcConfigTab, tempTab, gatedTEMTab, rtCalibrationTab, diagnosticsTab));
+        shown.forEach(this::add);
+
+        // Each placeholder is built the first time its tab is selected
+        getTabPane().getSelectionModel().selectedIndexProperty().addListener((observable, previous, index) -> {
+
+            Element tab = index.intValue() >= 0 && index.intValue() < shown.size() ? shown.get(index.intValue()) : null;
+
+            if (tab instanceof LazyTab) {
+                ((LazyTab<?>) tab).buildLater();
+            }
+
+        });
+
+    }
+
+    /**
+     * Shows the given contents in place of the given placeholder tab. Only the contents of that one tab are swapped, on
+     * the JavaFX thread, so every other tab (eg one running a measurement) is left as it is. Can be called from any
+     * thread.
+     *
+     * @param placeholder Placeholder tab
+     * @param contents    Contents to show instead
+     */
+    void replace(Element placeholder, Element contents) {
+
+        Platform.runLater(() -> {
+
+            int index = shown.indexOf(placeholder);
+
+            if (index < 0) {
+                return;
+            }
+
+            shown.set(index, contents);
+            getTabPane().getTabs().get(index).setContent(contents.getNode());
+
+        });
+
+    }
+
+    private TabPane getTabPane() {
+        return (TabPane) getNode().lookup(".tab-pane");
     }
 
     public boolean isRunning() {
-        return gatedTEMTab.isRunning() || rtCalibrationTab.isRunning();
+        return (gatedTEMTab.isBuilt() && gatedTEMTab.get().isRunning())
+                || (rtCalibrationTab.isBuilt() && rtCalibrationTab.get().isRunning());
     }
 
 }
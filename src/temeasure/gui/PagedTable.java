@@ -0,0 +1,387 @@
+package temeasure.gui;
+
+import javafx.application.Platform;
+import jisa.control.Field;
+import jisa.experiment.Col;
+import jisa.experiment.ResultList;
+import jisa.gui.Fields;
+import jisa.gui.Grid;
+import jisa.gui.Table;
+import temeasure.data.ColumnStore;
+import temeasure.data.PartitionIndex;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Table of results that only ever materialises the rows on the page currently being shown, reading them straight from
+ * a column store. Rows can optionally be filtered by the value of a key column, using a partition index so that no rows
+ * are copied, and sorted by any column, using a permutation built in the background.
+ * <p>
+ * Pages are built under the table's lock, which is then released before the page is handed to the JavaFX thread to be
+ * shown, so the lock is never held while waiting on the GUI.
+ */
+public class PagedTable extends Grid implements UpdateCoalescer.Sink {
+
+    private static final int PAGE_SIZE = 100;
+
+    private final Col[]           columns;
+    private final Table           table    = new Table("Results");
+    private final Fields          controls = new Fields("Navigation");
+    private final Field<Integer>  goTo;
+    private final Field<Integer>  sortBy;
+    private final Field<Integer>  filter;
+    private final Field<String>   status;
+    private final ExecutorService sorter   = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "Table Sorter");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private ColumnStore    store   = null;
+    private PartitionIndex index   = null;
+    private int            page    = 0;
+    private boolean        follow  = true;
+    private Future<?>      sorting = null;
+
+    // Sorted order of rows, as positions in the (filtered) view, covering the rows present when it was built
+    private volatile int[] order = null;
+
+    /**
+     * Creates a paged table.
+     *
+     * @param title         Title of the table
+     * @param columns       Columns of the results to show
+     * @param filterName    Name of the key column that rows can be filtered by, or null for no filtering
+     * @param filterOptions Names of the key values that can be filtered on, with option i selecting key value i
+     */
+    public PagedTable(String title, Col[] columns, String filterName, String... filterOptions) {
+
+        super(title, 2);
+        setGrowth(true, false);
+
+        this.columns = columns;
+
+        String[] sortOptions = new String[columns.length + 1];
+        sortOptions[0] = "None";
+
+        for (int i = 0; i < columns.length; i++) {
+            sortOptions[i + 1] = columns[i].getName();
+        }
+
+        String[] filters = new String[filterOptions.length + 1];
+        filters[0] = "All";
+        System.arraycopy(filterOptions, 0, filters, 1, filterOptions.length);
+
+        status = controls.addTextField("Showing", "");
+        status.setDisabled(true);
+        controls.addSeparator();
+        goTo   = controls.addIntegerField("Go To Row", 1);
+        sortBy = controls.addChoice("Sort By", sortOptions);
+        filter = filterName == null ? null : controls.addChoice(filterName, filters);
+        controls.addSeparator();
+
+        controls.addButton("Go", () -> {
+            int row = goTo.get();
+            navigate(() -> {
+                follow = false;
+                page   = Math.max(0, row - 1) / PAGE_SIZE;
+            });
+        });
+
+        controls.addButton("Previous Page", () -> navigate(() -> {
+            follow = false;
+            page   = Math.max(0, page - 1);
+        }));
+
+        controls.addButton("Next Page", () -> navigate(() -> {
+            page   = Math.min(page + 1, lastPage());
+            follow = page == lastPage();
+        }));
+
+        controls.addButton("Latest", () -> navigate(() -> follow = true));
+
+        sortBy.setOnChange(this::resort);
+
+        if (filter != null) {
+            filter.setOnChange(this::resort);
+        }
+
+        add(table);
+        add(controls);
+
+    }
+
+    /**
+     * Shows the rows of the given store, starting on the latest page.
+     *
+     * @param store Store holding the rows to show
+     * @param index Index on the filter column, or null if not filtering
+     */
+    public void watch(ColumnStore store, PartitionIndex index) {
+
+        synchronized (this) {
+            this.store  = store;
+            this.index  = index;
+            this.page   = 0;
+            this.follow = true;
+            this.order  = null;
+        }
+
+        resort();
+
+    }
+
+    /**
+     * Called with each batch of new rows. Only re-materialises the page if the new rows could be on it.
+     */
+    @Override
+    public void update(int from, int to) {
+
+        boolean visible;
+
+        synchronized (this) {
+            visible = follow || page >= lastPage() - 1;
+        }
+
+        if (visible) {
+            render();
+        }
+
+    }
+
+    /**
+     * Moves to another page, then shows it.
+     */
+    private void navigate(Runnable move) {
+
+        synchronized (this) {
+            move.run();
+        }
+
+        render();
+
+    }
+
+    /**
+     * Returns the partition selected by the filter, or null if all rows are being shown.
+     */
+    private PartitionIndex.Partition selected() {
+
+        if (filter == null || index == null || filter.get() == 0) {
+            return null;
+        }
+
+        return index.get((double) (filter.get() - 1));
+
+    }
+
+    /**
+     * Returns the number of rows in the current (filtered) view.
+     */
+    private int count() {
+
+        if (store == null) {
+            return 0;
+        }
+
+        if (filter != null && index != null && filter.get() != 0) {
+            PartitionIndex.Partition partition = selected();
+            return partition == null ? 0 : partition.size();
+        }
+
+        return store.size();
+
+    }
+
+    /**
+     * Maps a position in the (filtered) view to a row in the store.
+     */
+    private int base(PartitionIndex.Partition partition, int position) {
+        return partition == null ? position : partition.get(position);
+    }
+
+    /**
+     * Maps a position in the sorted, filtered view to a row in the store. Rows added after the sort order was built
+     * follow on in the order they arrived.
+     */
+    private int row(PartitionIndex.Partition partition, int position) {
+
+        int[] sorted = order;
+
+        if (sorted != null && position < sorted.length) {
+            return base(partition, sorted[position]);
+        }
+
+        return base(partition, position);
+
+    }
+
+    private int lastPage() {
+        return Math.max(0, (count() - 1) / PAGE_SIZE);
+    }
+
+    /**
+     * Materialises the rows of the current page into a new, page-sized list under the lock, then shows it on the JavaFX
+     * thread without holding the lock.
+     */
+    private void render() {
+
+        ResultList shown;
+        String     text;
+
+        synchronized (this) {
+
+            if (store == null) {
+                return;
+            }
+
+            PartitionIndex.Partition partition = selected();
+
+            int total = count();
+
+            if (follow) {
+                page = lastPage();
+            }
+
+            int from = Math.min(page * PAGE_SIZE, total);
+            int to   = Math.min(from + PAGE_SIZE, total);
+
+            shown = new ResultList(columns);
+
+            for (int i = from; i < to; i++) {
+
+                int      r      = row(partition, i);
+                double[] values = new double[columns.length];
+
+                for (int c = 0; c < values.length; c++) {
+                    values[c] = store.get(r, c);
+                }
+
+                shown.addData(values);
+
+            }
+
+            text = total == 0 ? "No rows" : String.format("Rows %d-%d of %d", from + 1, to, total);
+
+        }
+
+        Runnable show = () -> {
+            status.set(text);
+            table.clear();
+            table.watchList(shown);
+        };
+
+        if (Platform.isFxApplicationThread()) {
+            show.run();
+        } else {
+            Platform.runLater(show);
+        }
+
+    }
+
+    /**
+     * Discards the current sort order and, if sorting, starts building a new one in the background. The page is shown
+     * unsorted until the new order is ready.
+     */
+    private void resort() {
+
+        synchronized (this) {
+
+            order = null;
+
+            if (sorting != null) {
+                sorting.cancel(true);
+                sorting = null;
+            }
+
+        }
+
+        render();
+
+        synchronized (this) {
+
+            if (store == null || sortBy.get() == 0) {
+                return;
+            }
+
+            sorting = startSort(store, selected(), sortBy.get() - 1, count());
+
+        }
+
+    }
+
+    /**
+     * Builds the sort order on the sorter thread. Once it is ready, the page is re-shown from the JavaFX thread, never
+     * from the sorter itself.
+     */
+    private Future<?> startSort(ColumnStore source, PartitionIndex.Partition partition, int column, int n) {
+
+        return sorter.submit(() -> {
+
+            int[]    positions = new int[n];
+            double[] keys      = new double[n];
+
+            for (int i = 0; i < n; i++) {
+                positions[i] = i;
+                keys[i]      = source.get(base(partition, i), column);
+            }
+
+            sort(keys, positions, new double[n], new int[n], 0, n);
+
+            // Cancelling happens under the lock, so checking under it too means a cancelled sort can never be applied
+            synchronized (this) {
+
+                if (Thread.currentThread().isInterrupted()) {
+                    return;
+                }
+
+                order = positions;
+
+            }
+
+            Platform.runLater(this::render);
+
+        });
+
+    }
+
+    /**
+     * Stable merge sort of positions by their keys, using the given scratch arrays.
+     */
+    private static void sort(double[] keys, int[] positions, double[] tmpKeys, int[] tmpPositions, int from, int to) {
+
+        if (to - from < 2) {
+            return;
+        }
+
+        int mid = (from + to) >>> 1;
+
+        sort(keys, positions, tmpKeys, tmpPositions, from, mid);
+        sort(keys, positions, tmpKeys, tmpPositions, mid, to);
+
+        int i = from;
+        int j = mid;
+        int k = from;
+
+        while (i < mid || j < to) {
+
+            if (j >= to || (i < mid && Double.compare(keys[i], keys[j]) <= 0)) {
+                tmpKeys[k]      = keys[i];
+                tmpPositions[k] = positions[i++];
+            } else {
+                tmpKeys[k]      = keys[j];
+                tmpPositions[k] = positions[j++];
+            }
+
+            k++;
+
+        }
+
+        System.arraycopy(tmpKeys, from, keys, from, to - from);
+        System.arraycopy(tmpPositions, from, positions, from, to - from);
+
+    }
+
+}
@@ -0,0 +1,89 @@
+package temeasure.gui;
+
+import javafx.scene.paint.Color;
+import jisa.gui.Plot;
+import jisa.gui.Series;
+import temeasure.data.ColumnStore;
+import temeasure.data.PartitionIndex;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Draws one series on a plot for each partition of a partition index, creating new series as new partitions appear.
+ * Each update only reads the rows added to each partition since the last, so the cost of drawing does not grow with the
+ * size of the results.
+ */
+class PartitionPlotter implements UpdateCoalescer.Sink {
+
+    private final Plot                                       plot;
+    private final ColumnStore                                store;
+    private final PartitionIndex                             index;
+    private final int                                        xCol;
+    private final int                                        yCol;
+    private final Function<PartitionIndex.Partition, String> name;
+    private final Function<PartitionIndex.Partition, Color>  colour;
+    private final Map<PartitionIndex.Partition, Series>      series = new HashMap<>();
+    private final Map<PartitionIndex.Partition, Integer>     drawn  = new HashMap<>();
+
+    /**
+     * Creates a plotter for the given partitions.
+     *
+     * @param plot   Plot to draw on
+     * @param store  Store holding the data
+     * @param index  Index whose partitions should each be drawn as a series
+     * @param xCol   Column to plot on the x-axis
+     * @param yCol   Column to plot on the y-axis
+     * @param name   Returns the name to give the series of a given partition
+     * @param colour Returns the colour to give the series of a given partition, or null to use default colours
+     */
+    PartitionPlotter(Plot plot, ColumnStore store, PartitionIndex index, int xCol, int yCol, Function<PartitionIndex.Partition, String> name, Function<PartitionIndex.Partition, Color> colour) {
+        this.plot   = plot;
+        this.store  = store;
+        this.index  = index;
+        this.xCol   = xCol;
+        this.yCol   = yCol;
+        this.name   = name;
+        this.colour = colour;
+    }
+
+    /**
+     * Draws all rows that have been added to any partition since the last update.
+     */
+    synchronized void update() {
+
+        for (PartitionIndex.Partition partition : index.getPartitions()) {
+
+            Series s = series.computeIfAbsent(partition, p -> {
+
+                Series created = plot.createSeries().setName(name.apply(p));
+
+                if (colour != null) {
+                    created.setColour(colour.apply(p));
+                }
+
+                return created;
+
+            });
+
+            int from = drawn.getOrDefault(partition, 0);
+            int to   = partition.size();
+
+            for (int i = from; i < to; i++) {
+                int row = partition.get(i);
+                s.addPoint(store.get(row, xCol), store.get(row, yCol));
+            }
+
+            drawn.put(partition, to);
+
+        }
+
+    }
+
+    @Override
+    public void update(int from, int to) {
+        update();
+    }
+
+}
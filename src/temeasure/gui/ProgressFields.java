@@ -0,0 +1,126 @@
+package temeasure.gui;
+
+import jisa.control.Field;
+import jisa.control.RTask;
+import jisa.gui.Fields;
+import temeasure.measurement.Progress;
+import temeasure.measurement.StoredMeasurement;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Set of read-only fields, added to a measurement tab, showing how far the running measurement has got, when it is
+ * expected to finish, and how much of the time so far has been spent waiting versus acquiring. Refreshed once a second
+ * from its own timer while a run is going, so the measurement thread is never involved.
+ */
+class ProgressFields {
+
+    private static final int               REFRESH_INTERVAL = 1000;
+    private static final DateTimeFormatter FINISH_FORMAT    = DateTimeFormatter.ofPattern("EEE HH:mm:ss").withZone(ZoneId.systemDefault());
+
+    private final Field<String> points;
+    private final Field<String> elapsed;
+    private final Field<String> remaining;
+    private final Field<String> finish;
+    private final Field<String> waiting;
+    private final Field<String> acquiring;
+
+    private StoredMeasurement measurement = null;
+    private RTask             refresher   = null;
+
+    /**
+     * Adds the progress fields to the end of the given set of fields.
+     *
+     * @param fields Fields to add to
+     */
+    ProgressFields(Fields fields) {
+
+        points    = fields.addTextField("Points Taken", "0 / 0");
+        elapsed   = fields.addTextField("Elapsed", "-");
+        remaining = fields.addTextField("Remaining", "-");
+        finish    = fields.addTextField("Finish At", "-");
+        waiting   = fields.addTextField("Waiting [s]", "0");
+        acquiring = fields.addTextField("Acquiring [s]", "0");
+
+        points.setDisabled(true);
+        elapsed.setDisabled(true);
+        remaining.setDisabled(true);
+        finish.setDisabled(true);
+        waiting.setDisabled(true);
+        acquiring.setDisabled(true);
+
+    }
+
+    /**
+     * Starts showing the progress of the given measurement, which should be about to start.
+     *
+     * @param measurement Measurement to follow
+     */
+    synchronized void start(StoredMeasurement measurement) {
+
+        stop();
+
+        this.measurement = measurement;
+        this.refresher   = new RTask(REFRESH_INTERVAL, this::refresh);
+
+        refresh();
+        refresher.start();
+
+    }
+
+    /**
+     * Stops refreshing, leaving the final figures of the last run showing.
+     */
+    synchronized void stop() {
+
+        if (refresher != null) {
+            refresher.stop();
+            refresher = null;
+            refresh();
+        }
+
+    }
+
+    private synchronized void refresh() {
+
+        if (measurement == null) {
+            return;
+        }
+
+        Progress progress = measurement.getProgress();
+        double   total    = progress.getElapsed();
+
+        points.set(String.format("%d / %d (%.0f%%)", progress.getDone(), progress.getTotal(), 100.0 * progress.getFraction()));
+        elapsed.set(duration(total));
+        waiting.set(share(progress.getWaiting(), total));
+        acquiring.set(share(progress.getAcquiring(), total));
+
+        // The estimate is only worth showing once there is a point to base the time per point on
+        if (!measurement.isRunning()) {
+            remaining.set("-");
+            finish.set("-");
+        } else if (progress.getDone() == 0) {
+            remaining.set("Estimating...");
+            finish.set("Estimating...");
+        } else {
+            remaining.set(duration(progress.getRemaining()));
+            finish.set(FINISH_FORMAT.format(Instant.ofEpochMilli(progress.getFinishTime())));
+        }
+
+    }
+
+    private static String duration(double seconds) {
+
+        long total = Math.round(seconds);
+
+        return String.format("%d:%02d:%02d", total / 3600, (total / 60) % 60, total % 60);
+
+    }
+
+    private static String share(double time, double total) {
+        return String.format("%.1f (%.0f%%)", time, total > 0 ? 100.0 * time / total : 0.0);
+    }
+
+}
@@ -3,21 +3,20 @@ package temeasure.gui;
 import jisa.control.Field;
 import jisa.devices.SMU;
 import jisa.devices.TC;
-import jisa.experiment.ResultTable;
 import jisa.gui.*;
+import temeasure.data.ColumnStore;
 import temeasure.measurement.RTCalibration;
 
 import java.util.LinkedList;
 
 public class RTCalibrationTab extends Grid {
 
-    private final SMUConfig  heaterSMU;
-    private final SMUConfig  rtSMU;
-    private final TCConfig   stageTC;
     private final MainWindow mainWindow;
     private final Fields     heaterParams = new Fields("Heater");
     private final Fields     rtParams     = new Fields("RT");
     private final Fields     otherParams  = new Fields("Other");
+    private final Fields     display      = new Fields("Display");
+    private final Fields     status       = new Fields("Status");
 
     private final Field<Double>  rtStart;
     private final Field<Double>  rtStop;
@@ -30,23 +29,32 @@ public class RTCalibrationTab extends Grid {
     private final Field<Double>  heaterTime;
 
     private final Field<Integer> nSweeps;
+    private final Field<Boolean> deltaMode;
+    private final Field<Double>  precision;
     private final Field<Double>  intTime;
     private final Field<String>  outputFile;
 
+    private final Field<Double> refreshRate;
+    private final Field<String> framesDrawn;
+    private final Field<String> framesDropped;
+    private final Field<String> batchSize;
+
+    private final ProgressFields progress;
+
     private final Plot          heaterVPlot = new Plot("Heater Voltage", "Measurement No.", "Heater Voltage [V]");
     private final Plot          heaterPPlot = new Plot("Heater Power", "Measurement No.", "Heater Power [W]");
     private final Plot          rtPlot      = new Plot("RT Resistance", "Measurement No.", "Resistance [Ohms]");
-    private final Table         table       = new Table("Table of Results");
+    private final PagedTable    table       = new PagedTable("Table of Results", RTCalibration.COLUMNS, null);
     private final Field<Double> restTime;
+    private final Field<Double> restRTolerance;
+    private final Field<Double> restTTolerance;
 
-    private RTCalibration measurement = null;
+    private RTCalibration   measurement = null;
+    private UpdateCoalescer coalescer   = null;
 
     public RTCalibrationTab(MainWindow mainWindow) {
 
         super("RT Calibration");
-        heaterSMU = mainWindow.smuConfigTab.heaterSMU;
-        rtSMU     = mainWindow.smuConfigTab.rtSMU;
-        stageTC   = mainWindow.tcConfigTab.stage;
 
         this.mainWindow = mainWindow;
 
@@ -61,6 +69,10 @@ public class RTCalibrationTab extends Grid {
         heaterTime = heaterParams.addDoubleField("Hold Time [s]", 30.0);
         restTime   = heaterParams.addDoubleField("Resting Time [s]", 300);
 
+        // Rests end early once resistance and temperature are back within these of where they started
+        restRTolerance = heaterParams.addDoubleField("Rest Tolerance [%]", 0.2);
+        restTTolerance = heaterParams.addDoubleField("Rest Tolerance [K]", 0.05);
+
         // Set-up heater parameters panel
         rtStart = rtParams.addDoubleField("Start Current [A]", 100e-6);
         rtStop  = rtParams.addDoubleField("Stop Current [A]", 100e-6);
@@ -72,16 +84,40 @@ public class RTCalibrationTab extends Grid {
         nSweeps    = otherParams.addIntegerField("No. Sweeps", 2);
         intTime    = otherParams.addDoubleField("Integration Time [s]", 200e-3);
         outputFile = otherParams.addFileSave("Output File", "");
+        otherParams.addSeparator();
+
+        // In delta mode, sweeps stop early once the resistances reach the target precision (0 for all sweeps)
+        deltaMode = otherParams.addCheckBox("Delta Mode (Current Reversal)", false);
+        precision = otherParams.addDoubleField("Target Precision [%]", 0.01);
+
+        // Set-up display panel, along with a status panel showing how live updates are being batched and how far the run
+        // has got, which is kept apart so that none of its read-only values are saved and shown again next time
+        refreshRate   = display.addDoubleField("Max Refresh Rate [Hz]", 10.0);
+        framesDrawn   = status.addTextField("Frames Drawn", "0");
+        framesDropped = status.addTextField("Frames Dropped", "0");
+        batchSize     = status.addTextField("Mean/Max Batch Size", "0 / 0");
+        framesDrawn.setDisabled(true);
+        framesDropped.setDisabled(true);
+        batchSize.setDisabled(true);
+        status.addSeparator();
+        progress = new ProgressFields(status);
+
+        refreshRate.setOnChange(() -> {
+            if (coalescer != null && refreshRate.get() > 0) {
+                coalescer.setMaxRate(refreshRate.get());
+            }
+        });
 
         // Link to config file - loads last used values (and will save values on exit)
         heaterParams.loadFromConfig("rt-heater-params", mainWindow.configStore);
         heaterParams.loadFromConfig("rt-rt-params", mainWindow.configStore);
         heaterParams.loadFromConfig("rt-other-params", mainWindow.configStore);
+        display.loadFromConfig("rt-display", mainWindow.configStore);
 
         Grid topGrid = new Grid(heaterParams, rtParams, otherParams, heaterVPlot, heaterPPlot, rtPlot);
 
         add(topGrid);
-        add(new Grid(table));
+        add(new Grid(2, table, new Grid(1, display, status)));
 
         heaterVPlot.showLegend(false);
         heaterPPlot.showLegend(false);
@@ -89,13 +125,47 @@ public class RTCalibrationTab extends Grid {
 
         addToolbarButton("Start", this::run);
         addToolbarButton("Stop", this::stop);
+        addToolbarButton("Apply Changes", this::retune);
 
     }
 
     private void disableInputs(boolean disable) {
+
         heaterParams.setFieldsDisabled(disable);
         rtParams.setFieldsDisabled(disable);
         otherParams.setFieldsDisabled(disable);
+
+        // Hold times, integration time and averaging targets can still be changed mid-run, taking effect when "Apply
+        // Changes" is pressed
+        heaterTime.setDisabled(false);
+        rtTime.setDisabled(false);
+        restTime.setDisabled(false);
+        intTime.setDisabled(false);
+        nSweeps.setDisabled(false);
+        precision.setDisabled(false);
+
+    }
+
+    /**
+     * Passes the hold times, integration time and averaging targets currently entered to the running measurement, which
+     * applies them from its next step and records each change in its run log.
+     */
+    private void retune() {
+
+        RTCalibration running = measurement;
+
+        if (running == null || !running.isRunning()) {
+            GUI.errorAlert("Error", "Not Running", "There is no running measurement to apply changes to.");
+            return;
+        }
+
+        running.retuneHeaterHold(heaterTime.get());
+        running.retuneCurrentHold(rtTime.get());
+        running.retuneRestTime(restTime.get());
+        running.retuneIntegrationTime(intTime.get());
+        running.retuneSweeps(nSweeps.get());
+        running.retunePrecision(precision.get() / 100.0);
+
     }
 
     private void run() {
@@ -109,9 +179,9 @@ public class RTCalibrationTab extends Grid {
 
             disableInputs(true);
 
-            SMU                heaterVoltage = heaterSMU.get();
-            SMU                rtMeasure     = rtSMU.get();
-            TC                 stageTemp     = stageTC.get();
+            SMU                heaterVoltage = mainWindow.smuConfigTab.get().getHeaterSMU();
+            SMU                rtMeasure     = mainWindow.smuConfigTab.get().getRTSMU();
+            TC                 stageTemp     = mainWindow.tcConfigTab.get().getStageTC();
             LinkedList<String> errors        = new LinkedList<>();
 
             if (heaterVoltage == null) {
@@ -140,12 +210,16 @@ public class RTCalibrationTab extends Grid {
             measurement.configureRT(rtStart.get(), rtStop.get(), rtSteps.get())
                        .configureHeater(heaterStart.get(), heaterStop.get(), heaterSteps.get())
                        .configureTiming(heaterTime.get(), rtTime.get(), restTime.get(), intTime.get())
+                       .configureRest(restRTolerance.get() / 100.0, restTTolerance.get())
+                       .configureDelta(deltaMode.get(), precision.get() / 100.0)
                        .configureSweeps(nSweeps.get());
 
-            ResultTable results = measurement.newResults(outputFile.get());
+            measurement.writeTo(outputFile.get());
 
-            configurePlots(results);
+            configurePlots(measurement.getStore());
 
+            coalescer.start();
+            progress.start(measurement);
             measurement.performMeasurement();
 
             if (measurement.wasStopped()) {
@@ -158,36 +232,64 @@ public class RTCalibrationTab extends Grid {
             e.printStackTrace();
             GUI.errorAlert("Error", "Exception Encountered", e.getMessage(), 600);
         } finally {
+
+            if (coalescer != null) {
+                coalescer.stop();
+            }
+
+            progress.stop();
+
             disableInputs(false);
+
         }
 
     }
 
-    private void configurePlots(ResultTable results) {
+    /**
+     * Configures the plots on the tab to display the live results of a new measurement. All plots and the table are
+     * updated in batches of new rows, at no more than the maximum refresh rate.
+     *
+     * @param store The column store of the new measurement
+     */
+    private void configurePlots(ColumnStore store) {
+
+        coalescer = new UpdateCoalescer(store, refreshRate.get());
 
         heaterVPlot.clear();
 
-        heaterVPlot.createSeries()
-                   .watch(results, RTCalibration.COL_NUMBER, RTCalibration.COL_HEATER_VOLTAGE)
-                   .setName("Voltage")
-                   .setColour(Colour.TEAL);
+        coalescer.addSink(new ColumnPlotter(
+                heaterVPlot.createSeries().setName("Voltage").setColour(Colour.TEAL),
+                store,
+                RTCalibration.COL_NUMBER,
+                RTCalibration.COL_HEATER_VOLTAGE
+        ));
 
         heaterPPlot.clear();
 
-        heaterPPlot.createSeries()
-                   .watch(results, RTCalibration.COL_NUMBER, RTCalibration.COL_HEATER_POWER)
-                   .setName("Power")
-                   .setColour(Colour.ORANGE);
+        coalescer.addSink(new ColumnPlotter(
+                heaterPPlot.createSeries().setName("Power").setColour(Colour.ORANGE),
+                store,
+                RTCalibration.COL_NUMBER,
+                RTCalibration.COL_HEATER_POWER
+        ));
 
         rtPlot.clear();
 
-        rtPlot.createSeries()
-              .watch(results, RTCalibration.COL_NUMBER, RTCalibration.COL_RT_RESISTANCE)
-              .setName("Resistance")
-              .setColour(Colour.CORNFLOWERBLUE);
-
-        table.clear();
-        table.watchList(results);
+        coalescer.addSink(new ColumnPlotter(
+                rtPlot.createSeries().setName("Resistance").setColour(Colour.CORNFLOWERBLUE),
+                store,
+                RTCalibration.COL_NUMBER,
+                RTCalibration.COL_RT_RESISTANCE
+        ));
+
+        table.watch(store, null);
+        coalescer.addSink(table);
+
+        coalescer.addSink((from, to) -> {
+            framesDrawn.set(String.valueOf(coalescer.getFrames()));
+            framesDropped.set(String.valueOf(coalescer.getDroppedFrames()));
+            batchSize.set(String.format("%.1f / %d", coalescer.getMeanBatchSize(), coalescer.getMaxBatchSize()));
+        });
 
     }
 
@@ -1,6 +1,9 @@
 package temeasure.gui;
 
+import jisa.devices.SMU;
+import jisa.devices.VMeter;
 import jisa.gui.*;
+import temeasure.devices.Decorators;
 
 public class SMUConfigTab extends Grid {
 
@@ -29,4 +32,26 @@ public class SMUConfigTab extends Grid {
 
     }
 
+    // The instruments configured for each role, decorated so that their use can be monitored
+
+    SMU getHeaterSMU() {
+        return Decorators.decorate("Heater SMU", heaterSMU.get());
+    }
+
+    SMU getRTSMU() {
+        return Decorators.decorate("RT SMU", rtSMU.get());
+    }
+
+    VMeter getTVMeter() {
+        return Decorators.decorate("Thermo-Voltage Meter", tvSMU.get());
+    }
+
+    SMU getHotGateSMU() {
+        return Decorators.decorate("Hot-Gate SMU", hotGateSMU.get());
+    }
+
+    SMU getColdGateSMU() {
+        return Decorators.decorate("Cold-Gate SMU", coldGateSMU.get());
+    }
+
 }
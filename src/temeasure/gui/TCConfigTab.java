@@ -1,7 +1,9 @@
 package temeasure.gui;
 
+import jisa.devices.TC;
 import jisa.gui.Grid;
 import jisa.gui.TCConfig;
+import temeasure.devices.Decorators;
 
 public class TCConfigTab extends Grid {
 
@@ -27,4 +29,23 @@ public class TCConfigTab extends Grid {
         add(sStage);
 
     }
+
+    // The instruments configured for each role, decorated so that their use can be monitored
+
+    TC getStageTC() {
+        return Decorators.decorate("Sample TC", stage.get());
+    }
+
+    TC getShieldTC() {
+        return Decorators.decorate("Radiation Shield TC", shield.get());
+    }
+
+    TC getFirstStageTC() {
+        return Decorators.decorate("First Stage TC", fStage.get());
+    }
+
+    TC getSecondStageTC() {
+        return Decorators.decorate("Second Stage TC", sStage.get());
+    }
+
 }
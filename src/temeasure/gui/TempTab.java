@@ -3,17 +3,155 @@ package temeasure.gui;
 import jisa.control.Field;
 import jisa.control.RTask;
 import jisa.devices.TC;
-import jisa.experiment.ResultStream;
-import jisa.experiment.ResultTable;
 import jisa.gui.*;
 import javafx.scene.paint.Color;
+import temeasure.control.PIDTable;
+import temeasure.control.RelayAutotune;
+import temeasure.data.DecimatedSeries;
+import temeasure.data.RingBuffer;
+import temeasure.devices.TracingInstrument;
+import temeasure.diagnostics.PhaseEvent;
+import temeasure.diagnostics.Phases;
+import temeasure.diagnostics.Watchdog;
+import temeasure.logging.DeadbandWriter;
+import temeasure.logging.LogSink;
+import temeasure.logging.RollingLog;
+import temeasure.logging.RollupArchive;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class TempTab extends Grid {
 
-    private RTask       logger;
-    private ResultTable log;
+    // Column names of the temperature log
+    private static final String[] LOG_COLUMNS = {
+            "Time",
+            "Sample",
+            "Radiation",
+            "First",
+            "Second",
+            "Heater 1",
+            "Heater 2",
+            "Heater 3",
+            "Heater 4",
+            "P1",
+            "P2",
+            "P3",
+            "P4",
+            "I1",
+            "I2",
+            "I3",
+            "I4",
+            "D1",
+            "D2",
+            "D3",
+            "D4",
+            "SP1",
+            "SP2",
+            "SP3",
+            "SP4"
+    };
+
+    // Log columns shown on the temperature plot, with the names and colours to use for them
+    private static final int[]    T_COLUMNS = {1, 21, 2, 22, 3, 23, 4, 24};
+    private static final String[] T_NAMES   = {
+            "Sample", "Sample SP", "Radiation", "Radiation SP", "First Stage", "First Stage SP", "Second Stage",
+            "Second Stage SP"
+    };
+    private static final Color[]  T_COLOURS = {
+            Colour.RED, Colour.ORANGE, Colour.GOLD, Colour.YELLOW, Colour.GREEN, Colour.LIME, Colour.BLUE,
+            Colour.CORNFLOWERBLUE
+    };
+
+    // Log columns shown on the heater plot, with the names and colours to use for them
+    private static final int[]    H_COLUMNS = {5, 6, 7, 8};
+    private static final String[] H_NAMES   = {"Sample", "Radiation", "First Stage", "Second Stage"};
+    private static final Color[]  H_COLOURS = {Color.RED, Color.GOLD, Color.GREEN, Color.BLUE};
+
+    // Time-spans (in minutes) that can be viewed and the number of points to aim for when zoomed out
+    private static final String[] VIEW_NAMES  = {
+            "Live", "Last Hour", "Last 12 Hours", "Last 24 Hours", "Last 7 Days", "Everything"
+    };
+    private static final double[] VIEW_SPANS  = {
+            0.0, 60.0, 12 * 60.0, 24 * 60.0, 7 * 24 * 60.0, Double.POSITIVE_INFINITY
+    };
+    private static final int      PLOT_POINTS = 500;
+
+    // Time between logged rows, in milliseconds
+    private static final int LOG_INTERVAL = 2500;
+
+    // File holding the PID values tuned so far, used whenever a new set-point is applied
+    private static final String PID_TABLE = "PIDTable.csv";
+
+    // Heater range of each choice on the control panel, in %
+    private static final double[] HEATER_RANGES = {0.0, 1.0, 10.0, 100.0};
+
+    // Longest the logger may go without logging a row before it is flagged as stuck, in seconds
+    private static final double WATCHDOG_LIMIT = 60.0;
+
+    // Number of min/max buckets (roughly pixel columns) to use when plotting full-resolution data
+    private static final int PLOT_BUCKETS = 800;
+
+    private final MainWindow mainWindow;
+
+    private RTask          logger;
+    private RingBuffer     buffer;
+    private RollupArchive  archive;
+    private RollingLog     disk = null;
+    private Field<Integer> view;
+
+    // Held by the logger while writing a row and by Stop while closing, so a row is never written to a closed sink
+    private final Object  sinks   = new Object();
+    private       boolean writing = false;
+
+    // Reads older rows back from disk for the plots, so that neither the GUI nor the logger waits on it
+    private final ExecutorService loader     = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "Temperature Plot Loader");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private       long            generation = 0;
+
+    // Grid on which to read back rows from disk, so that rows left out by deadband compression are filled back in
+    private double diskStep = 0;
+
+    // Watches the logger for stalls, while it is running
+    private volatile Watchdog.Task watch = null;
+
+    // Full-resolution series currently being plotted, and the log column each one shows
+    private final List<DecimatedSeries> liveSeries  = new LinkedList<>();
+    private final List<Integer>         liveColumns = new LinkedList<>();
+
+    private final Phases phases = new Phases("Temperature Log");
+
+    private final Fields         logging   = new Fields("Logging");
+    private final Field<Integer> format    = logging.addChoice("Format", "Full", "Deadband Compressed");
+    private final Field<Double>  tDeadband = logging.addDoubleField("Temperature Deadband [K]", 0.01);
+    private final Field<Double>  hDeadband = logging.addDoubleField("Heater Deadband [%]", 0.1);
+    private final Field<Double>  heartbeat = logging.addDoubleField("Heartbeat [s]", 600.0);
+    private final Field<Double>  memory    = logging.addDoubleField("Memory Buffer [h]", 24.0);
+    private final Field<Double>  segSize   = logging.addDoubleField("Segment Size [MB]", 10.0);
+    private final Field<Double>  segLength = logging.addDoubleField("Segment Length [h]", 24.0);
+    private final Field<Integer> segKeep   = logging.addIntegerField("Segments to Keep", 60);
+
+    private final Fields         autotune   = new Fields("PID Autotune");
+    private final Field<Double>  relay      = autotune.addDoubleField("Relay Amplitude [%]", 10.0);
+    private final Field<Double>  hysteresis = autotune.addDoubleField("Hysteresis [K]", 0.05);
+    private final Field<Integer> cycles     = autotune.addIntegerField("Cycles", 4);
+    private final Field<Double>  maxTime    = autotune.addDoubleField("Time Limit [min]", 60.0);
+    private final Field<Boolean> useTuned   = autotune.addCheckBox("Use Tuned PID on Apply", true);
+
+    // Kept apart from the autotune settings, so that the (read-only) status is never saved and shown again next time
+    private final Fields        tuning     = new Fields("Autotune Status");
+    private final Field<String> tuneStatus = tuning.addTextField("Status", "Idle");
+
+    private PIDTable pidTable = null;
+    private Thread   tuner    = null;
 
     private TC   sample      = null;
     private TC   radiation   = null;
@@ -25,6 +163,7 @@ public class TempTab extends Grid {
     public TempTab(MainWindow mainWindow) {
 
         super("Temperature Control");
+        this.mainWindow = mainWindow;
         setNumColumns(1);
 
         tPlot = new Plot("Temperatures", "Time [min]", "Temperature [K]");
@@ -47,7 +186,7 @@ public class TempTab extends Grid {
 
         ClickHandler refresh = () -> {
 
-            TC t = mainWindow.tcConfigTab.stage.get();
+            TC t = mainWindow.tcConfigTab.get().getStageTC();
 
             if (t != null) {
 
@@ -73,11 +212,14 @@ public class TempTab extends Grid {
             }
         };
 
+        view = control.addChoice("View", VIEW_NAMES);
+        view.setOnChange(this::updatePlots);
+
         control.addButton("Refresh", refresh);
 
         control.addButton("Apply", () -> {
 
-            TC tc = mainWindow.tcConfigTab.stage.get();
+            TC tc = mainWindow.tcConfigTab.get().getStageTC();
 
             if (tc == null) {
                 GUI.errorAlert(
@@ -89,80 +231,224 @@ public class TempTab extends Grid {
             }
 
             tc.setTargetTemperature(setPoint.get());
+            tc.setHeaterRange(HEATER_RANGES[range.get()]);
 
-            switch (range.get()) {
-
-                case 0:
-                    tc.setHeaterRange(0.0);
-                    break;
-
-                case 1:
-                    tc.setHeaterRange(1.0);
-                    break;
-
-                case 2:
-                    tc.setHeaterRange(10.0);
-                    break;
-
-                case 3:
-                    tc.setHeaterRange(100.0);
-                    break;
+            // Use the PID values tuned around the new set-point, if any have been
+            PIDTable.Entry tuned = useTuned.get() && pidTable != null ? pidTable.lookup(setPoint.get(), tc.getHeaterRange()) : null;
 
+            if (tuned != null) {
+                tc.setPValue(tuned.getP());
+                tc.setIValue(tuned.getI());
+                tc.setDValue(tuned.getD());
             }
 
             tc.useAutoHeater();
 
         });
 
-        add(control);
+        // Set-up autotune panel, tuning at the set-point and heater range given on the control panel
+        autotune.addSeparator();
+        autotune.addButton("Start Autotune", () -> startAutotune(mainWindow.tcConfigTab.get().getStageTC(), setPoint.get(), HEATER_RANGES[range.get()]));
+        autotune.addButton("Stop Autotune", this::stopAutotune);
+        tuneStatus.setDisabled(true);
+
+        try {
+            pidTable = new PIDTable(PID_TABLE);
+        } catch (IOException e) {
+            e.printStackTrace();
+            tuneStatus.set("Cannot read " + PID_TABLE);
+        }
+
+        logging.loadFromConfig("temp-logging", mainWindow.configStore);
+        autotune.loadFromConfig("temp-autotune", mainWindow.configStore);
+
+        add(new Grid(3, control, new Grid(1, autotune, tuning), logging));
         add(tPlot);
         add(hPlot);
 
-        logger = new RTask(2500, () -> log.addData(
-                logger.getSecFromStart() / 60.0,
-                sample.getTemperature(),
-                radiation.getTemperature(),
-                firstStage.getTemperature(),
-                secondStage.getTemperature(),
-                sample.getHeaterPower(),
-                radiation.getHeaterPower(),
-                firstStage.getHeaterPower(),
-                secondStage.getHeaterPower(),
-                sample.getPValue(),
-                radiation.getPValue(),
-                firstStage.getPValue(),
-                secondStage.getPValue(),
-                sample.getIValue(),
-                radiation.getIValue(),
-                firstStage.getIValue(),
-                secondStage.getIValue(),
-                sample.getDValue(),
-                radiation.getDValue(),
-                firstStage.getDValue(),
-                secondStage.getDValue(),
-                sample.getTargetTemperature(),
-                radiation.getTargetTemperature(),
-                firstStage.getTargetTemperature(),
-                secondStage.getTargetTemperature()
-        ));
+        logger = new RTask(LOG_INTERVAL, () -> {
+
+            // Keeps the logger's calls apart from the measurement's, should the same controllers be traced or replayed
+            TracingInstrument.setStream("Temperature Log");
+
+            PhaseEvent readout = phases.begin("Readout", "T-Controllers");
+
+            double[] row = {
+                    logger.getSecFromStart() / 60.0,
+                    sample.getTemperature(),
+                    radiation.getTemperature(),
+                    firstStage.getTemperature(),
+                    secondStage.getTemperature(),
+                    sample.getHeaterPower(),
+                    radiation.getHeaterPower(),
+                    firstStage.getHeaterPower(),
+                    secondStage.getHeaterPower(),
+                    sample.getPValue(),
+                    radiation.getPValue(),
+                    firstStage.getPValue(),
+                    secondStage.getPValue(),
+                    sample.getIValue(),
+                    radiation.getIValue(),
+                    firstStage.getIValue(),
+                    secondStage.getIValue(),
+                    sample.getDValue(),
+                    radiation.getDValue(),
+                    firstStage.getDValue(),
+                    secondStage.getDValue(),
+                    sample.getTargetTemperature(),
+                    radiation.getTargetTemperature(),
+                    firstStage.getTargetTemperature(),
+                    secondStage.getTargetTemperature()
+            };
+
+            phases.end(readout);
+
+            PhaseEvent write = phases.begin("Write", null);
+            boolean    completed;
+
+            synchronized (sinks) {
+
+                // Stopped while reading out, so the sinks may already be closed
+                if (!writing) {
+                    phases.end(write);
+                    return;
+                }
+
+                buffer.add(row);
+                disk.write(row);
+                completed = archive.add(row);
+
+            }
+
+            phases.end(write);
+
+            Watchdog.Task watching = watch;
+
+            if (watching != null) {
+                watching.beat();
+            }
+
+            // Zoomed-out views are drawn from the rollups, so only need redrawing when a new bucket is completed
+            if (completed && view.get() != 0) {
+                updatePlots();
+            } else {
+                addLivePoints(row);
+            }
+
+        });
 
 
         addToolbarButton("Start", () -> {
             connect(
-                    mainWindow.tcConfigTab.stage,
-                    mainWindow.tcConfigTab.shield,
-                    mainWindow.tcConfigTab.fStage,
-                    mainWindow.tcConfigTab.sStage
+                    mainWindow.tcConfigTab.get().getStageTC(),
+                    mainWindow.tcConfigTab.get().getShieldTC(),
+                    mainWindow.tcConfigTab.get().getFirstStageTC(),
+                    mainWindow.tcConfigTab.get().getSecondStageTC()
             );
             start();
         });
 
-        addToolbarButton("Stop", () -> logger.stop());
+        addToolbarButton("Stop", () -> {
+            logger.stop();
+            logging.setFieldsDisabled(false);
 
-        try {
-            refresh.click();
-        } catch (Exception e) {
-            e.printStackTrace();
+            if (watch != null) {
+                watch.close();
+                watch = null;
+            }
+
+            // Waits for any row being written to finish, and the log stays open for reading back (eg by the plots)
+            synchronized (sinks) {
+
+                if (writing) {
+                    writing = false;
+                    archive.close();
+                    disk.close();
+                }
+
+            }
+        });
+
+        // Fill in the current set-point once the instruments have connected, without holding up start-up
+        mainWindow.connectionTab.whenConnected(() -> {
+            try {
+                refresh.click();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        });
+
+    }
+
+    /**
+     * Starts tuning the PID values of the given controller around the given set-point and at the given heater range, in
+     * the background, adding the values found to the table. Refuses while a measurement is running, as the tune drives
+     * the heater by hand.
+     */
+    private synchronized void startAutotune(TC tc, double target, double range) {
+
+        if (tc == null) {
+            GUI.errorAlert("Error", "T-Controller Not Configured", "The temperature controller is not properly configured.");
+            return;
+        }
+
+        if (mainWindow.isRunning()) {
+            GUI.errorAlert("Error", "Measurement Running", "The PID values cannot be tuned while a measurement is running.");
+            return;
+        }
+
+        if (range <= 0) {
+            GUI.errorAlert("Error", "Heater Off", "Select a heater range on the control panel to tune at.");
+            return;
+        }
+
+        if (tuner != null && tuner.isAlive()) {
+            return;
+        }
+
+        RelayAutotune routine = new RelayAutotune(
+                tc,
+                target,
+                range,
+                relay.get(),
+                hysteresis.get(),
+                cycles.get(),
+                maxTime.get() * 60.0,
+                tuneStatus::set
+        );
+
+        tuner = new Thread(() -> {
+
+            TracingInstrument.setStream("PID Autotune");
+
+            try {
+
+                tuneStatus.set("Waiting for first cycle...");
+
+                PIDTable.Entry entry = routine.run();
+
+                if (pidTable != null) {
+                    pidTable.put(entry);
+                }
+
+            } catch (InterruptedException | InterruptedIOException e) {
+                tuneStatus.set("Stopped");
+            } catch (Exception e) {
+                e.printStackTrace();
+                tuneStatus.set("Failed: " + e.getMessage());
+            }
+
+        }, "PID Autotune");
+
+        tuner.setDaemon(true);
+        tuner.start();
+
+    }
+
+    private synchronized void stopAutotune() {
+
+        if (tuner != null) {
+            tuner.interrupt();
         }
 
     }
@@ -181,130 +467,259 @@ public class TempTab extends Grid {
         }
 
 
-        String fileName = String.format("TLog-%d.csv", System.currentTimeMillis());
+        String          stem = String.format("TLog-%d", System.currentTimeMillis());
+        LogSink.Factory segments;
+        String          extension;
+        double          step;
+
+        if (format.get() == 1) {
+            extension = ".dbl.csv";
+            segments  = path -> new DeadbandWriter(path, LOG_COLUMNS, 0, getDeadbands(), heartbeat.get() / 60.0);
+            step      = LOG_INTERVAL / 60e3;
+        } else {
+            extension = ".csv";
+            segments  = RollingLog.csv(LOG_COLUMNS);
+            step      = 0;
+        }
+
+        RingBuffer    newBuffer;
+        RollingLog    newDisk;
+        RollupArchive newArchive;
 
         try {
 
-            log = new ResultStream(
-                    fileName,
-                    "Time",
-                    "Sample",
-                    "Radiation",
-                    "First",
-                    "Second",
-                    "Heater 1",
-                    "Heater 2",
-                    "Heater 3",
-                    "Heater 4",
-                    "P1",
-                    "P2",
-                    "P3",
-                    "P4",
-                    "I1",
-                    "I2",
-                    "I3",
-                    "I4",
-                    "D1",
-                    "D2",
-                    "D3",
-                    "D4",
-                    "SP1",
-                    "SP2",
-                    "SP3",
-                    "SP4"
+            // The most recent rows are kept in memory for the plots, and all are written to disk in rotating segments
+            newBuffer  = new RingBuffer(LOG_COLUMNS.length, (int) Math.ceil(memory.get() * 3600e3 / LOG_INTERVAL));
+            newDisk    = new RollingLog(
+                    stem,
+                    extension,
+                    0,
+                    segments,
+                    (long) (segSize.get() * 1e6),
+                    segLength.get() * 60.0,
+                    segKeep.get()
             );
+            newArchive = new RollupArchive(LOG_COLUMNS.length, 0, RollupArchive.DEFAULT_INTERVALS);
+            newArchive.writeTo(stem + ".csv", LOG_COLUMNS);
 
-        } catch (IOException e) {
+        } catch (IOException | IllegalArgumentException e) {
 
             e.printStackTrace();
+            GUI.errorAlert("Error", "Cannot start logger", e.getMessage());
             return;
 
         }
 
+        // Swapped in together, so neither the plots nor a late row from the last run can see a mix of old and new
+        synchronized (this) {
+
+            synchronized (sinks) {
+                buffer   = newBuffer;
+                disk     = newDisk;
+                archive  = newArchive;
+                diskStep = step;
+                writing  = true;
+            }
+
+        }
+
+        updatePlots();
+
+        logging.setFieldsDisabled(true);
+        watch = Watchdog.watch("Temperature Log", WATCHDOG_LIMIT);
+        logger.start();
+
+    }
+
+    /**
+     * Returns the deadband to use for each column of the log when compressing. Temperatures and heater powers use the
+     * values entered on the logging panel, while P/I/D values and set-points are stored whenever they change at all.
+     *
+     * @return Deadband for each log column
+     */
+    private double[] getDeadbands() {
+
+        double[] deadbands = new double[LOG_COLUMNS.length];
+
+        for (int c = 1; c <= 4; c++) {
+            deadbands[c]     = tDeadband.get();
+            deadbands[c + 4] = hDeadband.get();
+        }
+
+        return deadbands;
+
+    }
+
+    /**
+     * Redraws the temperature and heater plots for the selected view. The live view shows everything held in memory,
+     * decimated to a bounded number of points. Other views are drawn from the coarsest rollup tier that still gives
+     * enough points across the plot or, if no tier is fine enough, from the full-resolution data, with anything older
+     * than the in-memory buffer read back from the segments on disk. That read is made in the background, from a
+     * snapshot of the buffer taken now, so that neither the GUI nor the logger waits on it, and is only drawn if no other
+     * view has been asked for in the meantime.
+     */
+    private void updatePlots() {
+
+        View       request;
+        RollingLog log;
+        double     step;
+
+        synchronized (this) {
+
+            if (buffer == null) {
+                return;
+            }
+
+            // The logger keeps adding rows, so work from a copy that cannot shift underneath us, along with how many rows
+            // had been added when it was taken so that those added since can be picked up later
+            double[][] recent;
+            long       total;
+
+            synchronized (buffer) {
+                recent = buffer.snapshot();
+                total  = buffer.getTotal();
+            }
+
+            double span   = VIEW_SPANS[view.get()];
+            double now    = logger.getSecFromStart() / 60.0;
+            double oldest = recent[0].length > 0 ? recent[0][0] : now;
+            double from   = span == 0 ? oldest : Double.isInfinite(span) ? 0.0 : Math.max(0.0, now - span);
+
+            request = new View(
+                    ++generation,
+                    recent,
+                    total,
+                    from,
+                    oldest,
+                    span > 0 ? archive.query(from, now, (now - from) / PLOT_POINTS) : null
+            );
+
+            if (request.rollup != null || from >= oldest) {
+                draw(request, List.of(), new double[recent.length][0]);
+                return;
+            }
+
+            log  = disk;
+            step = diskStep;
+
+        }
+
+        loader.submit(() -> {
+
+            List<double[]> older = new ArrayList<>();
+
+            try {
+                log.query(request.from, request.oldest, step, r -> {
+                    if (r[0] < request.oldest) {
+                        older.add(r);
+                    }
+                });
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+
+            synchronized (TempTab.this) {
+
+                // Rows logged while reading are picked up from the buffer, after those in the snapshot
+                if (request.generation == generation) {
+                    draw(request, older, buffer.snapshotSince(request.total));
+                }
+
+            }
+
+        });
+
+    }
+
+    /**
+     * Draws the given view, from the given rows read from disk, then the buffer snapshot of the view, then the given rows
+     * logged since.
+     */
+    private void draw(View request, List<double[]> older, double[][] newer) {
+
         tPlot.clear();
         hPlot.clear();
+        liveSeries.clear();
+        liveColumns.clear();
 
-        tPlot.createSeries()
-             .watch(log, 0, 1)
-             .setName("Sample")
-             .setColour(Colour.RED)
-             .showMarkers(false);
-
-        tPlot.createSeries()
-             .watch(log, 0, 21)
-             .setName("Sample SP")
-             .setColour(Colour.ORANGE)
-             .showMarkers(false);
-
-        tPlot.createSeries()
-             .watch(log, 0, 2)
-             .setName("Radiation")
-             .setColour(Colour.GOLD)
-             .showMarkers(false);
-
-        tPlot.createSeries()
-             .watch(log, 0, 22)
-             .setName("Radiation SP")
-             .setColour(Colour.YELLOW)
-             .showMarkers(false);
-
-        tPlot.createSeries()
-             .watch(log, 0, 3)
-             .setName("First Stage")
-             .setColour(Colour.GREEN)
-             .showMarkers(false);
-
-        tPlot.createSeries()
-             .watch(log, 0, 23)
-             .setName("First Stage SP")
-             .setColour(Colour.LIME)
-             .showMarkers(false);
-
-        tPlot.createSeries()
-             .watch(log, 0, 4)
-             .setName("Second Stage")
-             .setColour(Colour.BLUE)
-             .showMarkers(false);
-
-        tPlot.createSeries()
-             .watch(log, 0, 24)
-             .setName("Second Stage SP")
-             .setColour(Colour.CORNFLOWERBLUE)
-             .showMarkers(false);
-
-        hPlot.createSeries()
-             .watch(log, 0, 5)
-             .setName("Sample")
-             .setColour(Color.RED)
-             .showMarkers(false);
-
-        hPlot.createSeries()
-             .watch(log, 0, 6)
-             .setName("Radiation")
-             .setColour(Color.GOLD)
-             .showMarkers(false);
-
-        hPlot.createSeries()
-             .watch(log, 0, 7)
-             .setName("First Stage")
-             .setColour(Color.GREEN)
-             .showMarkers(false);
-
-        hPlot.createSeries()
-             .watch(log, 0, 8)
-             .setName("Second Stage")
-             .setColour(Color.BLUE)
-             .showMarkers(false);
+        for (int i = 0; i < T_COLUMNS.length; i++) {
+            drawSeries(tPlot, request, older, newer, T_COLUMNS[i], T_NAMES[i], T_COLOURS[i]);
+        }
 
-        logger.start();
+        for (int i = 0; i < H_COLUMNS.length; i++) {
+            drawSeries(hPlot, request, older, newer, H_COLUMNS[i], H_NAMES[i], H_COLOURS[i]);
+        }
 
     }
 
-    private void connect(TCConfig s, TCConfig r, TCConfig fs, TCConfig ss) {
-        sample      = s.get();
-        radiation   = r.get();
-        firstStage  = fs.get();
-        secondStage = ss.get();
+    private void drawSeries(Plot plot, View request, List<double[]> older, double[][] newer, int column, String name, Color colour) {
+
+        Series series = plot.createSeries().setName(name).setColour(colour).showMarkers(false);
+
+        // No tier is coarse enough to help (or we're in live view), so use decimated full-resolution data
+        if (request.rollup == null) {
+
+            DecimatedSeries decimated = new DecimatedSeries(series, PLOT_BUCKETS);
+            double[][]      recent    = request.recent;
+            int             numOlder  = older.size();
+            int             numRecent = numOlder + recent[0].length;
+
+            decimated.rebin(
+                    numRecent + newer[0].length,
+                    i -> i < numOlder ? older.get(i)[0] : i < numRecent ? recent[0][i - numOlder] : newer[0][i - numRecent],
+                    i -> i < numOlder ? older.get(i)[column] : i < numRecent ? recent[column][i - numOlder] : newer[column][i - numRecent],
+                    request.from,
+                    Double.POSITIVE_INFINITY
+            );
+
+            liveSeries.add(decimated);
+            liveColumns.add(column);
+            return;
+
+        }
+
+        for (int i = 0; i < request.rollup.size(); i++) {
+            series.addPoint(request.rollup.getTime(i), request.rollup.getMean(i, column));
+        }
+
+    }
+
+    private synchronized void addLivePoints(double[] row) {
+
+        for (int i = 0; i < liveSeries.size(); i++) {
+            liveSeries.get(i).add(row[0], row[liveColumns.get(i)]);
+        }
+
+    }
+
+    private void connect(TC s, TC r, TC fs, TC ss) {
+        sample      = s;
+        radiation   = r;
+        firstStage  = fs;
+        secondStage = ss;
+    }
+
+    /**
+     * A view of the plots as asked for, along with the snapshot of the buffer to draw it from.
+     */
+    private static class View {
+
+        private final long                 generation;
+        private final double[][]           recent;
+        private final long                 total;
+        private final double               from;
+        private final double               oldest;
+        private final RollupArchive.Rollup rollup;
+
+        private View(long generation, double[][] recent, long total, double from, double oldest, RollupArchive.Rollup rollup) {
+            this.generation = generation;
+            this.recent     = recent;
+            this.total      = total;
+            this.from       = from;
+            this.oldest     = oldest;
+            this.rollup     = rollup;
+        }
+
     }
 
 }
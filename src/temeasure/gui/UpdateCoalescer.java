@@ -0,0 +1,194 @@
+package temeasure.gui;
+
+import javafx.application.Platform;
+import temeasure.data.ColumnStore;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Gathers the rows committed to a column store between frames and hands them to plots, tables etc as a single batch on
+ * the JavaFX thread, at no more than a set maximum rate. The measurement thread is never involved: it only commits rows
+ * to the store, while a timer thread checks for new rows each frame. If the previous batch has not yet been drawn when
+ * the next frame is due, that frame is dropped and its rows are included in the following batch instead.
+ */
+public class UpdateCoalescer {
+
+    private final ColumnStore              store;
+    private final List<Sink>               sinks   = new CopyOnWriteArrayList<>();
+    private final AtomicBoolean            pending = new AtomicBoolean(false);
+    private final ScheduledExecutorService timer   = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "GUI Update Coalescer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private          ScheduledFuture<?> task  = null;
+    private          double             rate;
+    private volatile int                drawn = 0;
+
+    // Statistics, only written on the JavaFX thread (or the timer thread for dropped frames)
+    private volatile long frames   = 0;
+    private volatile long dropped  = 0;
+    private volatile long rows     = 0;
+    private volatile int  maxBatch = 0;
+
+    /**
+     * Creates a coalescer for the given store.
+     *
+     * @param store   Store to watch for new rows
+     * @param maxRate Maximum number of batches per second
+     */
+    public UpdateCoalescer(ColumnStore store, double maxRate) {
+        this.store = store;
+        this.rate  = maxRate;
+    }
+
+    /**
+     * Adds something to be given each batch of new rows.
+     *
+     * @param sink Sink to add
+     */
+    public void addSink(Sink sink) {
+        sinks.add(sink);
+    }
+
+    /**
+     * Starts checking for new rows at the maximum rate.
+     */
+    public synchronized void start() {
+
+        if (task != null) {
+            task.cancel(false);
+        }
+
+        task = timer.scheduleAtFixedRate(this::tick, 0, (long) (1e6 / rate), TimeUnit.MICROSECONDS);
+
+    }
+
+    /**
+     * Changes the maximum number of batches per second, taking effect immediately if running.
+     *
+     * @param maxRate Maximum rate, in Hz
+     */
+    public synchronized void setMaxRate(double maxRate) {
+
+        rate = maxRate;
+
+        if (task != null) {
+            start();
+        }
+
+    }
+
+    /**
+     * Stops checking for new rows, after pushing a final batch containing any rows not yet drawn.
+     */
+    public synchronized void stop() {
+
+        if (task != null) {
+            task.cancel(false);
+            task = null;
+        }
+
+        timer.shutdown();
+
+        // Queued behind any batch still waiting to be drawn, so picks up exactly the rows that batch did not include
+        Platform.runLater(() -> draw(store.size()));
+
+    }
+
+    private void tick() {
+
+        int target = store.size();
+
+        if (target == drawn) {
+            return;
+        }
+
+        // Still waiting for the JavaFX thread to draw the last batch, so drop this frame
+        if (!pending.compareAndSet(false, true)) {
+            dropped = dropped + 1;
+            return;
+        }
+
+        Platform.runLater(() -> {
+            draw(target);
+            pending.set(false);
+        });
+
+    }
+
+    /**
+     * Hands all rows up to the given index that have not yet been drawn to each sink. Only called on the JavaFX thread.
+     *
+     * @param target Index after the last row to draw
+     */
+    private void draw(int target) {
+
+        int from = drawn;
+
+        if (target <= from) {
+            return;
+        }
+
+        int batch = target - from;
+
+        drawn    = target;
+        frames   = frames + 1;
+        rows     = rows + batch;
+        maxBatch = Math.max(maxBatch, batch);
+
+        for (Sink sink : sinks) {
+            sink.update(from, target);
+        }
+
+    }
+
+    /**
+     * Returns the number of batches drawn so far.
+     *
+     * @return Number of frames
+     */
+    public long getFrames() {
+        return frames;
+    }
+
+    /**
+     * Returns the number of frames skipped because the previous batch had not yet been drawn.
+     *
+     * @return Number of dropped frames
+     */
+    public long getDroppedFrames() {
+        return dropped;
+    }
+
+    public double getMeanBatchSize() {
+        return frames == 0 ? 0.0 : (double) rows / frames;
+    }
+
+    public int getMaxBatchSize() {
+        return maxBatch;
+    }
+
+    /**
+     * Receives batches of new rows, on the JavaFX thread.
+     */
+    public interface Sink {
+
+        /**
+         * Called with the range of rows committed since the last batch.
+         *
+         * @param from Index of first new row
+         * @param to   Index after the last new row
+         */
+        void update(int from, int to);
+
+    }
+
+}
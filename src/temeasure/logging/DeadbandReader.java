@@ -0,0 +1,258 @@
+package temeasure.logging;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.Arrays;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Streaming reader of a log segment written by DeadbandWriter (or by RollingLog.csv()), gzip-compressed or not (going by
+ * a ".gz" extension). Channels left blank by the writer are reconstructed by holding their last stored value, so every
+ * reconstructed value at a logged time is within that channel's deadband of the true value. Rows can be read back as
+ * they were stored (see next()) or reconstructed on a uniform time grid (see resample()).
+ * <p>
+ * A plain CSV log, with no deadband header, reads as one with every value stored and no deadband. A row cut short (eg
+ * by the program dying mid-write) is skipped.
+ */
+public class DeadbandReader implements AutoCloseable {
+
+    private final String         path;
+    private final BufferedReader reader;
+    private final String[]       names;
+    private final double[]       deadbands;
+    private final double         heartbeat;
+    private final int            timeCol;
+    private final double[]       held;
+
+    private long line   = 0;
+    private int  stored = 0;
+
+    /**
+     * Opens the given log segment and reads its header.
+     *
+     * @param path    Path to the file
+     * @param timeCol Index of the time column, unless recorded in the file (ie for a plain CSV log)
+     *
+     * @throws IOException If the file cannot be read or has no header
+     */
+    public DeadbandReader(String path, int timeCol) throws IOException {
+
+        this.path = path;
+
+        InputStream file = new FileInputStream(path);
+
+        try {
+            this.reader = new BufferedReader(new InputStreamReader(path.endsWith(".gz") ? new GZIPInputStream(file) : file));
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+
+        String[] deadbandLine = null;
+        double   beat         = Double.POSITIVE_INFINITY;
+        int      time         = timeCol;
+        String   header;
+
+        try {
+
+            // Metadata lines, as written by DeadbandWriter, come before the column names
+            while ((header = readLine()) != null && header.startsWith("#")) {
+
+                String[] cells = header.split(",");
+
+                switch (cells[0].substring(1).trim()) {
+
+                    case "Deadband":
+                        deadbandLine = cells;
+                        break;
+
+                    case "Heartbeat":
+                        beat = Double.parseDouble(cells[1]);
+                        break;
+
+                    case "Time Column":
+                        time = Integer.parseInt(cells[1].trim());
+                        break;
+
+                }
+
+            }
+
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            reader.close();
+            throw new IOException(String.format("%s:%d: invalid header line.", path, line));
+        }
+
+        if (header == null) {
+            reader.close();
+            throw new IOException(String.format("%s: no header line.", path));
+        }
+
+        this.names     = header.split(",", -1);
+        this.deadbands = new double[names.length];
+        this.heartbeat = beat;
+        this.timeCol   = time;
+        this.held      = new double[names.length];
+
+        Arrays.fill(held, Double.NaN);
+
+        try {
+
+            for (int c = 0; deadbandLine != null && c < names.length && c + 1 < deadbandLine.length; c++) {
+                deadbands[c] = Double.parseDouble(deadbandLine[c + 1]);
+            }
+
+        } catch (NumberFormatException e) {
+            reader.close();
+            throw new IOException(String.format("%s: invalid deadband line.", path));
+        }
+
+    }
+
+    public String[] getNames() {
+        return names.clone();
+    }
+
+    /**
+     * Returns the maximum error of each reconstructed channel, as recorded when the log was written.
+     *
+     * @return Deadband of each column (all 0 for a plain CSV log)
+     */
+    public double[] getDeadbands() {
+        return deadbands.clone();
+    }
+
+    /**
+     * Returns the longest time between stored values of any channel, as recorded when the log was written.
+     *
+     * @return Heartbeat, in units of the time column (infinite for a plain CSV log)
+     */
+    public double getHeartbeat() {
+        return heartbeat;
+    }
+
+    public int getTimeColumn() {
+        return timeCol;
+    }
+
+    /**
+     * Returns the number of rows read from the file so far.
+     *
+     * @return Number of stored rows read
+     */
+    public int getStoredRows() {
+        return stored;
+    }
+
+    /**
+     * Reads the next row stored in the file, with any channel not stored in it holding its last stored value.
+     *
+     * @return Reconstructed row (a new array each time), or null at the end of the file
+     *
+     * @throws IOException If reading fails or the row contains something that is not a number
+     */
+    public double[] next() throws IOException {
+
+        String text;
+
+        while ((text = readLine()) != null) {
+
+            String[] cells = text.split(",", -1);
+
+            if (text.isBlank() || cells.length != names.length) {
+                continue;
+            }
+
+            try {
+
+                for (int c = 0; c < cells.length; c++) {
+
+                    if (!cells[c].isEmpty()) {
+                        held[c] = Double.parseDouble(cells[c]);
+                    }
+
+                }
+
+            } catch (NumberFormatException e) {
+                throw new IOException(String.format("%s:%d: \"%s\" is not a row of numbers.", path, line, text));
+            }
+
+            stored++;
+
+            return held.clone();
+
+        }
+
+        return null;
+
+    }
+
+    /**
+     * Reconstructs the rest of the file on a uniform grid of times, starting at the first stored time and ending at the
+     * last, with each channel holding its last stored value at each grid time. Only grid times within the given range
+     * are passed on.
+     *
+     * @param step   Spacing of the grid, in units of the time column
+     * @param from   Start of range
+     * @param to     End of range
+     * @param action Called with each reconstructed row in the range (a new array each time), in order, with the grid
+     *               time in the time column
+     *
+     * @throws IOException If reading fails or a row contains something that is not a number
+     */
+    public void resample(double step, double from, double to, Consumer<double[]> action) throws IOException {
+
+        double[] current = next();
+
+        if (current == null) {
+            return;
+        }
+
+        double   start = current[timeCol];
+        double[] ahead = next();
+
+        for (long i = Math.max(0, (long) Math.ceil((from - start) / step)); ; i++) {
+
+            double time = start + i * step;
+
+            // Apply all stored rows up to and including this grid time
+            while (ahead != null && ahead[timeCol] <= time) {
+                current = ahead;
+                ahead   = next();
+            }
+
+            if (time > to || (ahead == null && time > current[timeCol])) {
+                return;
+            }
+
+            double[] row = current.clone();
+            row[timeCol] = time;
+
+            action.accept(row);
+
+        }
+
+    }
+
+    private String readLine() throws IOException {
+
+        String text = reader.readLine();
+
+        if (text != null) {
+            line++;
+        }
+
+        return text;
+
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+}
@@ -0,0 +1,192 @@
+package temeasure.logging;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+/**
+ * Writes a compressed CSV log in which a channel's value is only written when it moves further than its deadband from
+ * the last written value, or when it has not been written for longer than the heartbeat interval. Unchanged channels
+ * are left blank and rows in which nothing changed are skipped entirely. Holding the last written value of each channel
+ * (see DeadbandReader) therefore reconstructs every logged sample to within that channel's deadband.
+ */
+public class DeadbandWriter implements LogSink {
+
+    private final PrintWriter output;
+    private final int         timeCol;
+    private final double[]    deadbands;
+    private final double      heartbeat;
+    private final double[]    lastValue;
+    private final double[]    lastTime;
+    private final boolean[]   changed;
+
+    private long    rowsIn    = 0;
+    private long    rowsOut   = 0;
+    private long    valuesOut = 0;
+    private double  endTime   = Double.NaN;
+    private boolean endStored = true;
+
+    /**
+     * Opens a new compressed log file.
+     *
+     * @param path      Path of the file to write
+     * @param names     Names of the columns
+     * @param timeCol   Index of the time column, which is written with every stored row
+     * @param deadbands Absolute deadband for each column (0 to store every change), the time column's is ignored
+     * @param heartbeat Maximum time between stored values of any channel, in units of the time column
+     *
+     * @throws IOException Upon error opening the file
+     */
+    public DeadbandWriter(String path, String[] names, int timeCol, double[] deadbands, double heartbeat) throws IOException {
+
+        this.output    = new PrintWriter(new FileWriter(path));
+        this.timeCol   = timeCol;
+        this.deadbands = deadbands.clone();
+        this.heartbeat = heartbeat;
+        this.lastValue = new double[names.length];
+        this.lastTime  = new double[names.length];
+        this.changed   = new boolean[names.length];
+
+        // Record the error bound in the file itself so it can be checked when reading back
+        StringBuilder deadbandLine = new StringBuilder("# Deadband");
+
+        for (double d : deadbands) {
+            deadbandLine.append(',').append(d);
+        }
+
+        output.println(deadbandLine);
+        output.printf("# Heartbeat,%s%n", heartbeat);
+        output.printf("# Time Column,%d%n", timeCol);
+        output.println(String.join(",", names));
+        output.flush();
+
+    }
+
+    /**
+     * Logs a row, storing only those channels that have left their deadband or reached their heartbeat.
+     *
+     * @param row Full row of values, including the time column
+     */
+    @Override
+    public synchronized void write(double[] row) {
+
+        double  time = row[timeCol];
+        boolean any  = false;
+
+        for (int c = 0; c < row.length; c++) {
+
+            if (c == timeCol) {
+                continue;
+            }
+
+            changed[c] = rowsIn == 0
+                    || outsideDeadband(lastValue[c], row[c], deadbands[c])
+                    || (time - lastTime[c]) >= heartbeat;
+
+            any |= changed[c];
+
+        }
+
+        rowsIn++;
+        endTime   = time;
+        endStored = any;
+
+        if (!any) {
+            return;
+        }
+
+        StringBuilder line = new StringBuilder();
+
+        for (int c = 0; c < row.length; c++) {
+
+            if (c > 0) {
+                line.append(',');
+            }
+
+            if (c == timeCol || changed[c]) {
+
+                line.append(row[c]);
+
+                if (c != timeCol) {
+                    lastValue[c] = row[c];
+                    lastTime[c]  = time;
+                    valuesOut++;
+                }
+
+            }
+
+        }
+
+        output.println(line);
+        output.flush();
+        rowsOut++;
+
+    }
+
+    private static boolean outsideDeadband(double last, double value, double deadband) {
+
+        // Any transition to or from NaN counts as a change
+        if (Double.isNaN(last) || Double.isNaN(value)) {
+            return Double.isNaN(last) != Double.isNaN(value);
+        }
+
+        return Math.abs(value - last) > deadband;
+
+    }
+
+    /**
+     * Returns the number of rows passed to write(...) so far.
+     *
+     * @return Number of rows logged
+     */
+    public long getRowsIn() {
+        return rowsIn;
+    }
+
+    /**
+     * Returns the number of rows actually written to the file so far.
+     *
+     * @return Number of rows stored
+     */
+    public long getRowsOut() {
+        return rowsOut;
+    }
+
+    /**
+     * Returns the fraction of (non-time) values that have been stored so far, as a measure of compression.
+     *
+     * @return Stored fraction of values
+     */
+    public double getStoredFraction() {
+        return rowsIn == 0 ? 1.0 : (double) valuesOut / (rowsIn * (lastValue.length - 1));
+    }
+
+    @Override
+    public synchronized void close() {
+
+        // Mark the time of the final logged row so that the reconstructed grid covers the whole log
+        if (!endStored) {
+
+            StringBuilder line = new StringBuilder();
+
+            for (int c = 0; c < lastValue.length; c++) {
+
+                if (c > 0) {
+                    line.append(',');
+                }
+
+                if (c == timeCol) {
+                    line.append(endTime);
+                }
+
+            }
+
+            output.println(line);
+
+        }
+
+        output.close();
+
+    }
+
+}
@@ -0,0 +1,29 @@
+package temeasure.logging;
+
+import java.io.IOException;
+
+/**
+ * Destination for rows of a log, such as a single file segment.
+ */
+public interface LogSink extends AutoCloseable {
+
+    /**
+     * Writes a row to the log.
+     *
+     * @param row Row of values
+     */
+    void write(double[] row);
+
+    @Override
+    void close();
+
+    /**
+     * Opens a new sink at the given path, used when starting each new segment of a rolling log.
+     */
+    interface Factory {
+
+        LogSink open(String path) throws IOException;
+
+    }
+
+}
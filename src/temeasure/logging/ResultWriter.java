@@ -0,0 +1,122 @@
+package temeasure.logging;
+
+import jisa.experiment.Col;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+
+/**
+ * Streams the rows of a measurement to a CSV results file as they are committed, in the same layout as a ResultTable
+ * would write (a quoted "Name [Unit]" header, then one line of values per row). Each row is formatted from the given
+ * array into a reusable buffer, so nothing is allocated or kept per row, and is flushed straight away so that the file
+ * is complete up to the last row if the program dies.
+ */
+public class ResultWriter implements LogSink {
+
+    private final Writer        output;
+    private final StringBuilder line  = new StringBuilder();
+    private       char[]        chars = new char[256];
+    private       long          rows  = 0;
+
+    /**
+     * Creates (or replaces) the given results file and writes its header.
+     *
+     * @param path    Path of the file to write
+     * @param columns Columns of the results
+     *
+     * @throws IOException Upon error creating the file
+     */
+    public ResultWriter(String path, Col... columns) throws IOException {
+
+        output = new BufferedWriter(new FileWriter(path));
+
+        for (int c = 0; c < columns.length; c++) {
+
+            if (c > 0) {
+                line.append(',');
+            }
+
+            line.append('"').append(columns[c].getName());
+
+            if (columns[c].getUnit() != null) {
+                line.append(" [").append(columns[c].getUnit()).append(']');
+            }
+
+            line.append('"');
+
+        }
+
+        writeLine();
+
+    }
+
+    /**
+     * Writes a row to the file, without keeping it.
+     *
+     * @param row Row of values, one per column
+     */
+    @Override
+    public synchronized void write(double[] row) {
+
+        for (int c = 0; c < row.length; c++) {
+
+            if (c > 0) {
+                line.append(',');
+            }
+
+            line.append(row[c]);
+
+        }
+
+        try {
+            writeLine();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        rows++;
+
+    }
+
+    /**
+     * Returns the number of rows written so far.
+     *
+     * @return Number of rows
+     */
+    public synchronized long getRows() {
+        return rows;
+    }
+
+    private void writeLine() throws IOException {
+
+        line.append(System.lineSeparator());
+
+        int length = line.length();
+
+        if (length > chars.length) {
+            chars = new char[Math.max(length, 2 * chars.length)];
+        }
+
+        line.getChars(0, length, chars, 0);
+        line.setLength(0);
+
+        output.write(chars, 0, length);
+        output.flush();
+
+    }
+
+    @Override
+    public synchronized void close() {
+
+        try {
+            output.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+    }
+
+}
@@ -0,0 +1,358 @@
+package temeasure.logging;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Log that is split into segment files, starting a new segment once the current one reaches a maximum size or spans a
+ * maximum length of time. Closed segments are gzip-compressed on a background thread, the oldest are deleted once there
+ * are more than a set number, and an index file records the time range covered by each so that range queries only need
+ * to open the segments that overlap the range. The index is also written to disk, so the segments of a previous run
+ * can be found once the log that wrote them is gone. The segment still being written has its end recorded as Infinity,
+ * so that if the program dies, that segment is still covered by any range from its start onwards.
+ */
+public class RollingLog implements LogSink {
+
+    private final String          stem;
+    private final String          extension;
+    private final int             timeCol;
+    private final LogSink.Factory factory;
+    private final long            maxBytes;
+    private final double          maxSpan;
+    private final int             maxSegments;
+    private final List<Segment>   segments   = new LinkedList<>();
+    private final ExecutorService background = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "Log Compression");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private LogSink current     = null;
+    private Segment currentInfo = null;
+    private int     number      = 0;
+
+    /**
+     * Creates a rolling log whose segments are named by appending a segment number to the given stem.
+     *
+     * @param stem        Path and name of the log, without extension (ie "TLog-123" gives "TLog-123-0001.csv.gz")
+     * @param extension   Extension of each segment, including the dot
+     * @param timeCol     Index of the time column in each row
+     * @param factory     Opens a sink for each new segment
+     * @param maxBytes    Size at which to start a new segment, in bytes
+     * @param maxSpan     Time span at which to start a new segment, in units of the time column
+     * @param maxSegments Maximum number of segments to keep, after which the oldest are deleted (at least 1)
+     */
+    public RollingLog(String stem, String extension, int timeCol, LogSink.Factory factory, long maxBytes, double maxSpan, int maxSegments) {
+
+        // With no segments allowed, the one being written would be deleted
+        if (maxSegments < 1) {
+            throw new IllegalArgumentException("A rolling log must keep at least 1 segment.");
+        }
+
+        this.stem        = stem;
+        this.extension   = extension;
+        this.timeCol     = timeCol;
+        this.factory     = factory;
+        this.maxBytes    = maxBytes;
+        this.maxSpan     = maxSpan;
+        this.maxSegments = maxSegments;
+
+    }
+
+    /**
+     * Returns a factory for segments that are plain CSV files, with a full row written for every row logged.
+     *
+     * @param names Names of the columns
+     *
+     * @return Segment factory
+     */
+    public static LogSink.Factory csv(String... names) {
+
+        return path -> {
+
+            PrintWriter output = new PrintWriter(new FileWriter(path));
+            output.println(String.join(",", names));
+            output.flush();
+
+            return new LogSink() {
+
+                @Override
+                public void write(double[] row) {
+
+                    StringBuilder line = new StringBuilder();
+
+                    for (int c = 0; c < row.length; c++) {
+
+                        if (c > 0) {
+                            line.append(',');
+                        }
+
+                        line.append(row[c]);
+
+                    }
+
+                    output.println(line);
+                    output.flush();
+
+                }
+
+                @Override
+                public void close() {
+                    output.close();
+                }
+
+            };
+
+        };
+
+    }
+
+    @Override
+    public synchronized void write(double[] row) {
+
+        double time = row[timeCol];
+
+        try {
+
+            if (current != null && (new File(currentInfo.path).length() >= maxBytes || time - currentInfo.start >= maxSpan)) {
+                rotate();
+            }
+
+            if (current == null) {
+                number++;
+                currentInfo = new Segment(String.format("%s-%04d%s", stem, number, extension), time);
+                current     = factory.open(currentInfo.path);
+
+                synchronized (segments) {
+                    segments.add(currentInfo);
+                }
+
+                background.submit(this::writeIndex);
+            }
+
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        current.write(row);
+        currentInfo.end = time;
+
+    }
+
+    /**
+     * Closes the current segment and hands it to the background thread for compression.
+     */
+    private void rotate() {
+
+        Segment closed = currentInfo;
+
+        current.close();
+        closed.open = false;
+        current     = null;
+        currentInfo = null;
+
+        background.submit(() -> compress(closed));
+
+    }
+
+    private void compress(Segment segment) {
+
+        String compressed = segment.path + ".gz";
+
+        // Already dropped by the retention cap while waiting its turn
+        synchronized (segments) {
+
+            if (!segments.contains(segment)) {
+                return;
+            }
+
+        }
+
+        try (InputStream in = new FileInputStream(segment.path); OutputStream out = new GZIPOutputStream(new FileOutputStream(compressed))) {
+            in.transferTo(out);
+        } catch (IOException e) {
+            e.printStackTrace();
+            writeIndex();
+            return;
+        }
+
+        synchronized (segments) {
+            new File(segment.path).delete();
+            segment.path = compressed;
+        }
+
+        // Enforce retention cap, dropping the oldest segments first
+        synchronized (segments) {
+
+            while (segments.size() > maxSegments) {
+                new File(segments.remove(0).path).delete();
+            }
+
+        }
+
+        writeIndex();
+
+    }
+
+    /**
+     * Writes the index of segments, replacing the old index atomically so that readers never see it half-written.
+     */
+    private void writeIndex() {
+
+        Path index = Paths.get(stem + ".index.csv");
+        Path temp  = Paths.get(stem + ".index.tmp");
+
+        try (PrintWriter output = new PrintWriter(Files.newBufferedWriter(temp))) {
+
+            output.println("Segment,Start,End");
+
+            synchronized (segments) {
+
+                for (Segment segment : segments) {
+                    output.printf("%s,%s,%s%n", Paths.get(segment.path).getFileName(), segment.start, segment.open ? Double.POSITIVE_INFINITY : segment.end);
+                }
+
+            }
+
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+
+        try {
+            Files.move(temp, index, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+    }
+
+    /**
+     * Reads all rows stored between the given times, opening only the segments whose time range overlaps. Blank cells
+     * (ie unchanged values in deadband-compressed segments) are filled with the last value stored in that segment.
+     *
+     * @param from   Start of range
+     * @param to     End of range
+     * @param action Called with each row in the range, in order
+     *
+     * @throws IOException Upon error reading a segment
+     */
+    public void query(double from, double to, Consumer<double[]> action) throws IOException {
+        query(from, to, 0, action);
+    }
+
+    /**
+     * Reads all rows logged between the given times, opening only the segments whose time range overlaps, reconstructed
+     * on a uniform grid of times through each segment (see DeadbandReader.resample()). For deadband-compressed segments,
+     * this gives back a row for every time the log was written to, rather than only those that were stored.
+     *
+     * @param from   Start of range
+     * @param to     End of range
+     * @param step   Spacing of the grid, in units of the time column (0 for the rows as stored)
+     * @param action Called with each row in the range, in order
+     *
+     * @throws IOException Upon error reading a segment
+     */
+    public void query(double from, double to, double step, Consumer<double[]> action) throws IOException {
+
+        List<String> paths = new LinkedList<>();
+
+        synchronized (segments) {
+
+            for (Segment segment : segments) {
+
+                if (segment.end >= from && segment.start <= to) {
+                    paths.add(segment.path);
+                }
+
+            }
+
+        }
+
+        read(paths, timeCol, from, to, step, action);
+
+    }
+
+    private static void read(List<String> paths, int timeCol, double from, double to, double step, Consumer<double[]> action) throws IOException {
+
+        for (String path : paths) {
+
+            // The segment may have been compressed since we looked it up
+            if (!new File(path).exists()) {
+                path += ".gz";
+            }
+
+            // Deleted by the retention cap since the index was written
+            if (!new File(path).exists()) {
+                continue;
+            }
+
+            try (DeadbandReader reader = new DeadbandReader(path, timeCol)) {
+
+                if (step > 0) {
+                    reader.resample(step, from, to, action);
+                    continue;
+                }
+
+                double[] row;
+
+                while ((row = reader.next()) != null) {
+
+                    if (row[timeCol] >= from && row[timeCol] <= to) {
+                        action.accept(row);
+                    }
+
+                }
+
+            }
+
+        }
+
+    }
+
+    /**
+     * Closes the current segment and waits for any outstanding compression to finish.
+     */
+    @Override
+    public synchronized void close() {
+
+        if (current != null) {
+            rotate();
+        }
+
+        background.shutdown();
+
+        try {
+            background.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+    }
+
+    private static class Segment {
+
+        private final    double  start;
+        private volatile String  path;
+        private volatile double  end;
+        private volatile boolean open = true;
+
+        private Segment(String path, double start) {
+            this.path  = path;
+            this.start = start;
+            this.end   = start;
+        }
+
+    }
+
+}
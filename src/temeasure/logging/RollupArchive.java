@@ -0,0 +1,345 @@
+package temeasure.logging;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Arrays;
+
+/**
+ * Maintains coarse min/mean/max aggregates (rollups) of a logged table incrementally as rows are added, so that long
+ * time-ranges can be viewed without re-reading every row. Each tier aggregates every column over a fixed interval of
+ * the time column and can optionally be written to its own CSV file as buckets are completed.
+ */
+public class RollupArchive {
+
+    // Default tiers, in the units of the time column (minutes for the temperature log)
+    public static final double[] DEFAULT_INTERVALS = {1.0, 60.0};
+
+    private final int    numCols;
+    private final int    timeCol;
+    private final Tier[] tiers;
+
+    /**
+     * Creates an archive of rows with the given number of columns.
+     *
+     * @param numCols   Number of columns in each row
+     * @param timeCol   Index of the column holding the time of each row
+     * @param intervals Bucket widths of each tier, in the units of the time column, finest first
+     */
+    public RollupArchive(int numCols, int timeCol, double... intervals) {
+
+        this.numCols = numCols;
+        this.timeCol = timeCol;
+
+        double[] sorted = intervals.clone();
+        Arrays.sort(sorted);
+
+        tiers = new Tier[sorted.length];
+
+        for (int i = 0; i < sorted.length; i++) {
+            tiers[i] = new Tier(sorted[i]);
+        }
+
+    }
+
+    /**
+     * Writes each completed bucket of each tier to its own CSV file, named by inserting the tier interval before the
+     * extension of the given base file name (ie "TLog-123.csv" becomes "TLog-123.1.0.csv" for a 1.0 interval tier).
+     *
+     * @param baseFile File name of the full-resolution log
+     * @param names    Names of the columns
+     *
+     * @throws IOException Upon error opening the files
+     */
+    public synchronized void writeTo(String baseFile, String... names) throws IOException {
+
+        int    dot  = baseFile.lastIndexOf('.');
+        String stem = dot > 0 ? baseFile.substring(0, dot) : baseFile;
+        String ext  = dot > 0 ? baseFile.substring(dot) : ".csv";
+
+        for (Tier tier : tiers) {
+
+            tier.output = new PrintWriter(new FileWriter(String.format("%s.%s%s", stem, tier.interval, ext)));
+
+            StringBuilder header = new StringBuilder("Start,Count");
+
+            for (int c = 0; c < numCols; c++) {
+
+                if (c == timeCol) {
+                    continue;
+                }
+
+                header.append(',').append(names[c]).append(" Min");
+                header.append(',').append(names[c]).append(" Mean");
+                header.append(',').append(names[c]).append(" Max");
+
+            }
+
+            tier.output.println(header);
+            tier.output.flush();
+
+        }
+
+    }
+
+    /**
+     * Adds a row to all tiers, completing any buckets that it falls after.
+     *
+     * @param row Row of data, including the time column
+     *
+     * @return Whether any bucket in any tier was completed by this row
+     */
+    public synchronized boolean add(double[] row) {
+
+        boolean closed = false;
+
+        for (Tier tier : tiers) {
+            closed |= tier.add(row);
+        }
+
+        return closed;
+
+    }
+
+    /**
+     * Returns the aggregates covering the given time range from the coarsest tier that still has at least the requested
+     * resolution. If no tier is fine enough, null is returned and the full-resolution data should be used instead.
+     *
+     * @param from       Start of the range
+     * @param to         End of the range
+     * @param resolution Largest acceptable spacing between points, in units of the time column
+     *
+     * @return Aggregates for the range, or null if no tier is fine enough
+     */
+    public synchronized Rollup query(double from, double to, double resolution) {
+
+        for (int i = tiers.length - 1; i >= 0; i--) {
+
+            if (tiers[i].interval <= resolution) {
+                return tiers[i].slice(from, to);
+            }
+
+        }
+
+        return null;
+
+    }
+
+    /**
+     * Completes all open buckets and closes any tier files.
+     */
+    public synchronized void close() {
+
+        for (Tier tier : tiers) {
+            tier.closeBucket();
+
+            if (tier.output != null) {
+                tier.output.close();
+                tier.output = null;
+            }
+
+        }
+
+    }
+
+    /**
+     * Snapshot of the aggregates from one tier over a range of time.
+     */
+    public static class Rollup {
+
+        private final double   interval;
+        private final double[] start;
+        private final double[] min;
+        private final double[] mean;
+        private final double[] max;
+        private final int      numCols;
+
+        private Rollup(double interval, int numCols, double[] start, double[] min, double[] mean, double[] max) {
+            this.interval = interval;
+            this.numCols  = numCols;
+            this.start    = start;
+            this.min      = min;
+            this.mean     = mean;
+            this.max      = max;
+        }
+
+        public double getInterval() {
+            return interval;
+        }
+
+        public int size() {
+            return start.length;
+        }
+
+        /**
+         * Returns the mid-point in time of the given bucket.
+         *
+         * @param i Bucket index
+         *
+         * @return Time at centre of bucket
+         */
+        public double getTime(int i) {
+            return start[i] + interval / 2.0;
+        }
+
+        public double getMin(int i, int col) {
+            return min[i * numCols + col];
+        }
+
+        public double getMean(int i, int col) {
+            return mean[i * numCols + col];
+        }
+
+        public double getMax(int i, int col) {
+            return max[i * numCols + col];
+        }
+
+    }
+
+    private class Tier {
+
+        private final double interval;
+
+        // Completed buckets, stored row-major (bucket * numCols + column) and grown as needed
+        private double[] start = new double[64];
+        private double[] min   = new double[64 * numCols];
+        private double[] mean  = new double[64 * numCols];
+        private double[] max   = new double[64 * numCols];
+        private int      count = 0;
+
+        // Currently open bucket
+        private final double[] bMin   = new double[numCols];
+        private final double[] bSum   = new double[numCols];
+        private final double[] bMax   = new double[numCols];
+        private       double   bStart = Double.NaN;
+        private       int      bCount = 0;
+
+        private PrintWriter output = null;
+
+        private Tier(double interval) {
+            this.interval = interval;
+        }
+
+        private boolean add(double[] row) {
+
+            double  time   = row[timeCol];
+            double  bucket = Math.floor(time / interval) * interval;
+            boolean closed = false;
+
+            if (bCount > 0 && bucket != bStart) {
+                closeBucket();
+                closed = true;
+            }
+
+            if (bCount == 0) {
+                bStart = bucket;
+                Arrays.fill(bMin, Double.POSITIVE_INFINITY);
+                Arrays.fill(bMax, Double.NEGATIVE_INFINITY);
+                Arrays.fill(bSum, 0.0);
+            }
+
+            for (int c = 0; c < numCols; c++) {
+                bMin[c] = Math.min(bMin[c], row[c]);
+                bMax[c] = Math.max(bMax[c], row[c]);
+                bSum[c] += row[c];
+            }
+
+            bCount++;
+
+            return closed;
+
+        }
+
+        private void closeBucket() {
+
+            if (bCount == 0) {
+                return;
+            }
+
+            if (count == start.length) {
+                start = Arrays.copyOf(start, count * 2);
+                min   = Arrays.copyOf(min, count * 2 * numCols);
+                mean  = Arrays.copyOf(mean, count * 2 * numCols);
+                max   = Arrays.copyOf(max, count * 2 * numCols);
+            }
+
+            start[count] = bStart;
+
+            for (int c = 0; c < numCols; c++) {
+                min[count * numCols + c]  = bMin[c];
+                mean[count * numCols + c] = bSum[c] / bCount;
+                max[count * numCols + c]  = bMax[c];
+            }
+
+            count++;
+
+            if (output != null) {
+
+                StringBuilder line = new StringBuilder();
+                line.append(bStart).append(',').append(bCount);
+
+                for (int c = 0; c < numCols; c++) {
+
+                    if (c == timeCol) {
+                        continue;
+                    }
+
+                    line.append(',').append(bMin[c]).append(',').append(bSum[c] / bCount).append(',').append(bMax[c]);
+
+                }
+
+                output.println(line);
+                output.flush();
+
+            }
+
+            bCount = 0;
+
+        }
+
+        private Rollup slice(double from, double to) {
+
+            // First completed bucket that ends after the start of the range
+            int first = Arrays.binarySearch(start, 0, count, from - interval);
+            first = first < 0 ? -first - 1 : first;
+
+            // Number of completed buckets that start before the end of the range
+            int last = Arrays.binarySearch(start, 0, count, to);
+            last = last < 0 ? -last - 1 : last + 1;
+
+            boolean open = bCount > 0 && bStart <= to && bStart + interval >= from;
+            int     n    = Math.max(0, last - first) + (open ? 1 : 0);
+
+            double[] sStart = new double[n];
+            double[] sMin   = new double[n * numCols];
+            double[] sMean  = new double[n * numCols];
+            double[] sMax   = new double[n * numCols];
+            int      closed = n - (open ? 1 : 0);
+
+            if (closed > 0) {
+                System.arraycopy(start, first, sStart, 0, closed);
+                System.arraycopy(min, first * numCols, sMin, 0, closed * numCols);
+                System.arraycopy(mean, first * numCols, sMean, 0, closed * numCols);
+                System.arraycopy(max, first * numCols, sMax, 0, closed * numCols);
+            }
+
+            // Include the partially filled bucket so that the view reaches the most recent data
+            if (open) {
+
+                sStart[closed] = bStart;
+
+                for (int c = 0; c < numCols; c++) {
+                    sMin[closed * numCols + c]  = bMin[c];
+                    sMean[closed * numCols + c] = bSum[c] / bCount;
+                    sMax[closed * numCols + c]  = bMax[c];
+                }
+
+            }
+
+            return new Rollup(interval, numCols, sStart, sMin, sMean, sMax);
+
+        }
+
+    }
+
+}
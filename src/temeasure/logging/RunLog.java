@@ -0,0 +1,66 @@
+package temeasure.logging;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Metadata log kept alongside the results of a measurement run, recording (with timestamps) anything notable that
+ * happened during the run but that does not belong in the table of results, such as why part of a sweep was skipped.
+ * Each note is written to disk straight away, so the log survives the run being killed.
+ */
+public class RunLog implements AutoCloseable {
+
+    private final String       path;
+    private final PrintWriter  output;
+    private final List<String> notes = new ArrayList<>();
+
+    /**
+     * Creates a run log for the results file at the given path, written to the same path with ".meta.txt" appended.
+     *
+     * @param results Path to the results file
+     *
+     * @throws IOException If the log file cannot be created
+     */
+    public RunLog(String results) throws IOException {
+        this.path   = results + ".meta.txt";
+        this.output = new PrintWriter(new FileWriter(path));
+    }
+
+    /**
+     * Adds a note to the log.
+     *
+     * @param format Format string, as used by String.format()
+     * @param args   Arguments for the format string
+     */
+    public synchronized void note(String format, Object... args) {
+
+        String note = String.format(format, args);
+
+        notes.add(note);
+        output.printf("[%tF %<tT] %s%n", System.currentTimeMillis(), note);
+        output.flush();
+
+    }
+
+    /**
+     * Returns all notes made so far, in order.
+     *
+     * @return List of notes
+     */
+    public synchronized List<String> getNotes() {
+        return new ArrayList<>(notes);
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    @Override
+    public synchronized void close() {
+        output.close();
+    }
+
+}
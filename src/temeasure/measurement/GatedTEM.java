@@ -2,11 +2,11 @@ package temeasure.measurement;
 
 import jisa.devices.*;
 import jisa.experiment.Col;
-import jisa.experiment.Measurement;
-import jisa.experiment.ResultTable;
 import jisa.Util;
+import temeasure.diagnostics.PhaseEvent;
+import temeasure.diagnostics.Phases;
 
-public class GatedTEM extends Measurement {
+public class GatedTEM extends StoredMeasurement {
 
     // Names and units for columns in our results
     public static final Col[] COLUMNS = {
@@ -41,6 +41,9 @@ public class GatedTEM extends Measurement {
     private             SMU    heater;
     private             TC     stage;
 
+    // Checks each data-point for gate leakage and heater compliance, on its own thread
+    private final LeakageGuard guard = new LeakageGuard(reason -> note("%s", reason));
+
     // Parameters, with default values
     private double gateStart   = -40;         // -40 Volts
     private double gateStop    = 0;           //   0 Volts
@@ -85,7 +88,9 @@ public class GatedTEM extends Measurement {
     @Override
     public void run() throws Exception {
 
-        ResultTable results = getResults();
+        Phases phases = getPhases();
+
+        getPublisher().subscribeLossless(guard);
 
         configureInstruments();
 
@@ -107,9 +112,18 @@ public class GatedTEM extends Measurement {
             // Loop over each gate value we want to use
             for (double G : gates) {
 
+                if (guard.isAborted()) {
+                    break;
+                }
+
+                applyRetunes();
+
+                phases.setGate(G);
+                PhaseEvent gateStep = phases.begin("Gate Step", config == 0 ? "Hot-Gate" : "Cold-Gate");
+
                 // Set the gate voltage and wait our gate hold time
                 gate.setVoltage(G);
-                sleep(gateDelay);
+                settle(gateDelay);
 
                 // Initial values
                 heater.setVoltage(heaterStart);
@@ -117,9 +131,27 @@ public class GatedTEM extends Measurement {
 
                 for (double H : heaters) {
 
+                    // Leave the rest of this gate step if the guard has found a problem with the last point
+                    if (guard.isAborted() || guard.isSkipped(G)) {
+                        break;
+                    }
+
+                    applyRetunes();
+
+                    phases.setHeater(H);
+                    PhaseEvent heaterStep = phases.begin("Heater Step", "Heater");
+
                     // Set the heater and wait our heater hold time
                     heater.setVoltage(H);
-                    sleep(heaterDelay);
+                    settle(heaterDelay);
+
+                    // The guard has had all of the hold time to check the last point, so check again before reading out
+                    if (guard.isAborted() || guard.isSkipped(G)) {
+                        phases.end(heaterStep);
+                        break;
+                    }
+
+                    PhaseEvent readout = phases.begin("Readout", null);
 
                     // Get the heater current and voltage to calculate power
                     double heaterVoltage = heater.getVoltage();
@@ -127,27 +159,33 @@ public class GatedTEM extends Measurement {
                     double heaterPower   = heaterVoltage * heaterCurrent;
 
                     // Add data-point to our results
-                    results.addData(
-                            currentStep,                 // Measurement number
-                            stage.getTemperature(),      // Sample temperature
-                            gate.getVoltage(),           // Gate voltage
-                            gate.getCurrent(),           // Gate leakage current
-                            heaterVoltage,               // Heater voltage
-                            heaterCurrent,               // Heater current
-                            heaterPower,                 // Heater power
-                            thermoVoltage.getVoltage(),  // Thermo-voltage
-                            G,                           // Gate set-point
-                            config,                      // Hot-Gate (0) or Cold-Gate (1) ?
-                            thermoVoltage instanceof IMeter ? ((IMeter) thermoVoltage).getCurrent() : 0.0 // If TV voltmeter can measure current, then do so
-                    );
+                    double[] row = newRow();
+                    row[COL_NUMBER]             = currentStep;                // Measurement number
+                    row[COL_SAMPLE_TEMPERATURE] = stage.getTemperature();     // Sample temperature
+                    row[COL_GATE_VOLTAGE]       = gate.getVoltage();          // Gate voltage
+                    row[COL_GATE_CURRENT]       = gate.getCurrent();          // Gate leakage current
+                    row[COL_HEATER_VOLTAGE]     = heaterVoltage;              // Heater voltage
+                    row[COL_HEATER_CURRENT]     = heaterCurrent;              // Heater current
+                    row[COL_HEATER_POWER]       = heaterPower;                // Heater power
+                    row[COL_THERMO_VOLTAGE]     = thermoVoltage.getVoltage(); // Thermo-voltage
+                    row[COL_GATE_SET_VOLTAGE]   = G;                          // Gate set-point
+                    row[COL_GATE_CONFIG]        = config;                     // Hot-Gate (0) or Cold-Gate (1) ?
+                    row[COL_THERMO_CURRENT]     = thermoVoltage instanceof IMeter ? ((IMeter) thermoVoltage).getCurrent() : 0.0; // If TV voltmeter can measure current, then do so
+                    phases.end(readout);
+                    commitRow();
 
                     currentStep++;
 
+                    phases.end(heaterStep);
+
                 }
 
                 // Turn the heater off and wait our heater hold time
                 heater.turnOff();
-                sleep(heaterDelay);
+                phases.setHeater(Double.NaN);
+                settle(heaterDelay);
+
+                phases.end(gateStep);
 
             }
 
@@ -159,6 +197,11 @@ public class GatedTEM extends Measurement {
 
             // Turn off this gate before using the next
             gate.turnOff();
+
+            if (guard.isAborted()) {
+                break;
+            }
+
         }
     }
 
@@ -169,10 +212,7 @@ public class GatedTEM extends Measurement {
 
     @Override
     public void onFinish() throws Exception {
-        heater.turnOff();
-        hotGate.turnOff();
-        coldGate.turnOff();
-        thermoVoltage.turnOff();
+        turnOff(heater, hotGate, coldGate, thermoVoltage);
     }
 
     @Override
@@ -180,6 +220,33 @@ public class GatedTEM extends Measurement {
         return COLUMNS;
     }
 
+    /**
+     * Returns the guard that checks each data-point for gate leakage and heater compliance, to configure its limits or
+     * see why it aborted the run.
+     *
+     * @return Leakage guard
+     */
+    public LeakageGuard getGuard() {
+        return guard;
+    }
+
+    @Override
+    public String getAbortReason() {
+        return guard.getAbortReason();
+    }
+
+    @Override
+    public int getTotalPoints() {
+        // Only the hot-gate configuration is currently measured
+        return gateSteps * heaterSteps;
+    }
+
+    @Override
+    public double getTotalSettleTime() {
+        // Each gate step holds once for the gate, once per heater step, then once more with the heater off
+        return gateSteps * (gateDelay + (heaterSteps + 1.0) * heaterDelay) / 1e3;
+    }
+
     /**
      * Configures the steps to take in gate voltage.
      *
@@ -228,5 +295,56 @@ public class GatedTEM extends Measurement {
         return this;
     }
 
+    /**
+     * Changes the hold time after changing the gate voltage, from the next gate step of a running measurement.
+     *
+     * @param gateHold Hold time, in seconds (1 ms resolution)
+     */
+    public void retuneGateHold(double gateHold) {
+
+        int delay = (int) (gateHold * 1000);
+
+        retune("gate hold time [ms]", delay, () -> {
+            int old = gateDelay;
+            gateDelay = delay;
+            return old;
+        });
+
+    }
+
+    /**
+     * Changes the hold time after changing the heater voltage, from the next heater step of a running measurement.
+     *
+     * @param heaterHold Hold time, in seconds (1 ms resolution)
+     */
+    public void retuneHeaterHold(double heaterHold) {
+
+        int delay = (int) (heaterHold * 1000);
+
+        retune("heater hold time [ms]", delay, () -> {
+            int old = heaterDelay;
+            heaterDelay = delay;
+            return old;
+        });
+
+    }
+
+    /**
+     * Changes the integration time of the thermo-voltage measurement, from the next heater step of a running
+     * measurement.
+     *
+     * @param integrationTime Integration time, in seconds
+     */
+    public void retuneIntegrationTime(double integrationTime) {
+
+        retune("integration time [s]", integrationTime, () -> {
+            double old = intTime;
+            thermoVoltage.setIntegrationTime(integrationTime);
+            intTime = integrationTime;
+            return old;
+        });
+
+    }
+
 
 }
@@ -0,0 +1,221 @@
+package temeasure.measurement;
+
+import temeasure.data.DataPoint;
+
+import java.util.concurrent.Flow;
+import java.util.function.Consumer;
+
+/**
+ * Stage that checks each data-point of a GatedTEM run, as it is published, for signs that the gate dielectric is failing
+ * or that the heater is in compliance. Checking happens on its own thread, so adds nothing to the readout, and the
+ * measurement only has to look at the verdict (two volatile fields) before each step.
+ * <p>
+ * A gate leakage current above the limit, or rising by more than the trend factor over the given number of consecutive
+ * points of the same gate step, skips the rest of that gate step. If too many gate steps in a row are skipped (ie the
+ * leakage is not going away) or the heater current reaches its limit, the whole run is aborted. NaN readings (see
+ * ResilientInstrument) are ignored. The reason for every skip or abort is passed to the given log.
+ * <p>
+ * The guard must see every point, so should be subscribed with PointPublisher.subscribeLossless(). Should the guard
+ * itself fail, the run is aborted, as it can no longer be protected.
+ */
+public class LeakageGuard implements Flow.Subscriber<DataPoint> {
+
+    private final Consumer<String> log;
+
+    // Limits, with default values (infinite to disable a check)
+    private double gateLimit   = 100e-9;                   // 100 nA
+    private int    trendPoints = 3;                        //   3 Points
+    private double trendFactor = 10.0;                     //  10 Times
+    private double heaterLimit = Double.POSITIVE_INFINITY; //  No Limit
+    private int    maxSkips    = 2;                        //   2 Gate steps
+
+    // State of the current gate step, only touched by the guard thread
+    private double  lastGate    = Double.NaN;
+    private double  trendStart  = Double.NaN;
+    private double  trendLast   = Double.NaN;
+    private int     trendLength = 0;
+    private int     skipsInRow  = 0;
+    private boolean stepSkipped = false;
+
+    // Verdict, read by the measurement thread
+    private volatile double skipGate    = Double.NaN;
+    private volatile String abortReason = null;
+
+    /**
+     * Creates a guard, sending the reason for any skip or abort to the given log.
+     *
+     * @param log Log of reasons
+     */
+    public LeakageGuard(Consumer<String> log) {
+        this.log = log;
+    }
+
+    /**
+     * Configures the checks on gate leakage current.
+     *
+     * @param limit       Largest allowed leakage current magnitude, in Amps (0 for no limit)
+     * @param trendPoints Number of consecutive points of rising leakage that count as a trend (0 for no trend check)
+     * @param trendFactor Factor by which leakage must rise over a trend to skip the step
+     *
+     * @return Self-reference, for chaining
+     */
+    public LeakageGuard configureGate(double limit, int trendPoints, double trendFactor) {
+        this.gateLimit   = limit > 0 ? limit : Double.POSITIVE_INFINITY;
+        this.trendPoints = trendPoints;
+        this.trendFactor = trendFactor;
+        return this;
+    }
+
+    /**
+     * Configures the compliance check on heater current.
+     *
+     * @param limit Heater current magnitude at which the heater is taken to be in compliance, in Amps (0 for no limit)
+     *
+     * @return Self-reference, for chaining
+     */
+    public LeakageGuard configureHeater(double limit) {
+        this.heaterLimit = limit > 0 ? limit : Double.POSITIVE_INFINITY;
+        return this;
+    }
+
+    /**
+     * Configures how many gate steps in a row may be skipped before the whole run is aborted.
+     *
+     * @param maxSkips Number of consecutive skipped gate steps allowed
+     *
+     * @return Self-reference, for chaining
+     */
+    public LeakageGuard configureAbort(int maxSkips) {
+        this.maxSkips = maxSkips;
+        return this;
+    }
+
+    /**
+     * Returns whether the rest of the gate step with the given set-point should be skipped.
+     *
+     * @param gate Gate voltage set-point of the current step
+     *
+     * @return Skip?
+     */
+    public boolean isSkipped(double gate) {
+        return skipGate == gate;
+    }
+
+    /**
+     * Returns whether the run should be aborted.
+     *
+     * @return Abort?
+     */
+    public boolean isAborted() {
+        return abortReason != null;
+    }
+
+    /**
+     * Returns why the run was aborted.
+     *
+     * @return Reason, or null if not aborted
+     */
+    public String getAbortReason() {
+        return abortReason;
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        subscription.request(Long.MAX_VALUE);
+    }
+
+    @Override
+    public void onNext(DataPoint point) {
+
+        if (abortReason != null) {
+            return;
+        }
+
+        double gate    = point.get(GatedTEM.COL_GATE_SET_VOLTAGE);
+        double leakage = Math.abs(point.get(GatedTEM.COL_GATE_CURRENT));
+        double heater  = Math.abs(point.get(GatedTEM.COL_HEATER_CURRENT));
+
+        // == NEW GATE STEP ============================================================================================
+        if (gate != lastGate) {
+
+            // A step that made it through without a skip shows the leakage has recovered
+            if (!Double.isNaN(lastGate) && !stepSkipped) {
+                skipsInRow = 0;
+            }
+
+            lastGate    = gate;
+            trendLength = 0;
+            stepSkipped = false;
+            skipGate    = Double.NaN;
+
+        }
+
+        // == HEATER COMPLIANCE ========================================================================================
+        if (heater >= heaterLimit) {
+            abort(String.format("Heater current %.3e A reached its limit of %.3e A at point %d (gate %.3f V).", heater, heaterLimit, point.getIndex(), gate));
+            return;
+        }
+
+        if (stepSkipped || Double.isNaN(leakage)) {
+            return;
+        }
+
+        // == LEAKAGE LIMIT ============================================================================================
+        if (leakage > gateLimit) {
+            skip(gate, String.format("Gate leakage %.3e A exceeded the limit of %.3e A at point %d.", leakage, gateLimit, point.getIndex()));
+            return;
+        }
+
+        // == LEAKAGE TREND ============================================================================================
+        if (trendPoints > 0) {
+
+            if (trendLength > 0 && leakage > trendLast) {
+                trendLength++;
+            } else {
+                trendStart  = leakage;
+                trendLength = 1;
+            }
+
+            trendLast = leakage;
+
+            if (trendLength >= trendPoints && leakage > trendStart * trendFactor) {
+                skip(gate, String.format("Gate leakage rose from %.3e A to %.3e A over %d points, up to point %d.", trendStart, leakage, trendLength, point.getIndex()));
+            }
+
+        }
+
+    }
+
+    private void skip(double gate, String reason) {
+
+        stepSkipped = true;
+        skipsInRow++;
+
+        if (skipsInRow > maxSkips) {
+            abort(String.format("%s That makes %d gate steps in a row skipped.", reason, skipsInRow));
+            return;
+        }
+
+        log.accept(String.format("Skipping rest of gate step %.3f V: %s", gate, reason));
+        skipGate = gate;
+
+    }
+
+    private void abort(String reason) {
+        log.accept(String.format("Aborting run: %s", reason));
+        abortReason = reason;
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+
+        if (abortReason == null) {
+            abort(String.format("Leakage guard failed: %s", throwable));
+        }
+
+    }
+
+    @Override
+    public void onComplete() {}
+
+}
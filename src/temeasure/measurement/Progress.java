@@ -0,0 +1,132 @@
+package temeasure.measurement;
+
+/**
+ * Snapshot of how far a measurement run has got, when it is expected to finish, and how the time so far splits between
+ * waiting (for things to settle), acquiring (querying instruments) and overhead (commanding instruments, storing results
+ * and everything else).
+ */
+public class Progress {
+
+    private final int    done;
+    private final int    total;
+    private final double elapsed;
+    private final double remaining;
+    private final double settling;
+    private final double querying;
+    private final double writing;
+    private final double storing;
+    private final long   finish;
+
+    Progress(int done, int total, double elapsed, double remaining, double settling, double querying, double writing, double storing) {
+        this.done      = done;
+        this.total     = total;
+        this.elapsed   = elapsed;
+        this.remaining = remaining;
+        this.settling  = settling;
+        this.querying  = querying;
+        this.writing   = writing;
+        this.storing   = storing;
+        this.finish    = System.currentTimeMillis() + Math.round(remaining * 1000);
+    }
+
+    /**
+     * Returns the number of points taken so far.
+     *
+     * @return Number of points
+     */
+    public int getDone() {
+        return done;
+    }
+
+    /**
+     * Returns the number of points the run will take if it runs to completion.
+     *
+     * @return Number of points
+     */
+    public int getTotal() {
+        return total;
+    }
+
+    /**
+     * Returns the fraction of points taken so far.
+     *
+     * @return Fraction, from 0 to 1
+     */
+    public double getFraction() {
+        return total > 0 ? Math.min(1.0, (double) done / total) : 0.0;
+    }
+
+    /**
+     * Returns the time since the run started.
+     *
+     * @return Elapsed time, in seconds
+     */
+    public double getElapsed() {
+        return elapsed;
+    }
+
+    /**
+     * Returns the estimated time left until the run finishes.
+     *
+     * @return Remaining time, in seconds (0 if not running)
+     */
+    public double getRemaining() {
+        return remaining;
+    }
+
+    /**
+     * Returns the estimated finish time.
+     *
+     * @return Finish time, in milliseconds since the epoch
+     */
+    public long getFinishTime() {
+        return finish;
+    }
+
+    /**
+     * Returns the time spent waiting for things to settle so far.
+     *
+     * @return Waiting time, in seconds
+     */
+    public double getWaiting() {
+        return settling;
+    }
+
+    /**
+     * Returns the time spent querying instruments for readings so far.
+     *
+     * @return Acquiring time, in seconds
+     */
+    public double getAcquiring() {
+        return querying;
+    }
+
+    /**
+     * Returns the time spent on everything else so far: commanding instruments, storing results and any time not spent
+     * on any of these (idle).
+     *
+     * @return Overhead time, in seconds
+     */
+    public double getOverhead() {
+        return Math.max(0.0, elapsed - settling - querying);
+    }
+
+    /**
+     * Returns the time spent commanding instruments so far.
+     *
+     * @return Writing time, in seconds
+     */
+    public double getWriting() {
+        return writing;
+    }
+
+    /**
+     * Returns the time spent storing results so far.
+     *
+     * @return Storing time, in seconds
+     */
+    public double getStoring() {
+        return storing;
+    }
+
+}
@@ -4,11 +4,17 @@ import jisa.devices.SMU;
 import jisa.devices.TC;
 import jisa.enums.Source;
 import jisa.experiment.Col;
-import jisa.experiment.Measurement;
-import jisa.experiment.ResultTable;
 import jisa.Util;
+import temeasure.diagnostics.PhaseEvent;
+import temeasure.diagnostics.Phases;
 
-public class RTCalibration extends Measurement {
+public class RTCalibration extends StoredMeasurement {
+
+    // Time between samples of resistance and temperature while resting between sweeps, in milliseconds
+    private static final int REST_INTERVAL = 5000;
+
+    // Number of samples in a row that must be back at baseline to end a rest
+    private static final int REST_SAMPLES = 2;
 
     public static final Col[] COLUMNS = {
             new Col("No."),
@@ -19,7 +25,8 @@ public class RTCalibration extends Measurement {
             new Col("Heater Power", "W"),
             new Col("RT Voltage", "V"),
             new Col("RT Current", "A"),
-            new Col("RT Resistance", "Ohms")
+            new Col("RT Resistance", "Ohms"),
+            new Col("RT Resistance Error", "Ohms")
     };
 
     public static final int    COL_NUMBER            = 0;
@@ -31,6 +38,7 @@ public class RTCalibration extends Measurement {
     public static final int    COL_RT_VOLTAGE        = 6;
     public static final int    COL_RT_CURRENT        = 7;
     public static final int    COL_RT_RESISTANCE     = 8;
+    public static final int    COL_RT_ERROR          = 9;
     private             SMU    heater;
     private             SMU    rt;
     private             TC     stageTC;
@@ -45,6 +53,14 @@ public class RTCalibration extends Measurement {
     private             int    delTime;
     private             int    heaterDelay;
     private             int    restDelay;
+    private             double restRTolerance = 0.002;
+    private             double restTTolerance = 0.05;
+    private             double baselineR;
+    private             double baselineT;
+
+    // Delta mode, and the relative precision at which to stop sweeping (0 to take every sweep)
+    private boolean deltaMode       = false;
+    private double  targetPrecision = 0;
 
     public RTCalibration(SMU heaterSMU, SMU rtSMU, TC stageTC) {
         heater       = heaterSMU;
@@ -55,8 +71,6 @@ public class RTCalibration extends Measurement {
     @Override
     public void run() throws Exception {
 
-        ResultTable results = getResults();
-
         // Create arrays of voltages and currents that we will use
         double[] heaters  = Util.makeLinearArray(heaterStart, heaterStop, heaterSteps);
         double[] currents = Util.makeLinearArray(rtStart, rtStop, rtSteps);
@@ -72,72 +86,279 @@ public class RTCalibration extends Measurement {
         rt.setSource(Source.CURRENT);
         rt.setIntegrationTime(intTime);
 
-        int currentStep = 0;
+        Phases phases      = getPhases();
+        int    currentStep = 0;
+        int    cells       = heaterSteps * rtSteps;
+
+        // Running totals of resistance at each heater/current step over all sweeps, to tell when it is precise enough
+        double[] sum    = new double[cells];
+        double[] sumSq  = new double[cells];
+        double[] sumVar = new double[cells];
+        int[]    count  = new int[cells];
+
+        // Record where resistance and temperature sit with the heater off, to know when each rest is complete
+        baselineR = sampleResistance();
+        baselineT = stageTC.getTemperature();
+
+        note("Rest baseline: %.6e Ohms at %.3f K.", baselineR, baselineT);
 
         for (int sweep = 0; sweep < sweeps; sweep++) {
 
+            int cell = 0;
+
+            applyRetunes();
+
             // Initial value
             heater.setVoltage(heaterStart);
             heater.turnOn();
 
-            sleep(heaterDelay);
+            settle(heaterDelay);
 
             for (double H : heaters) {
 
+                applyRetunes();
+
+                phases.setHeater(H);
+                PhaseEvent heaterStep = phases.begin("Heater Step", "Heater");
+
                 // Set heater voltage and wait heater hold time
                 heater.setVoltage(H);
-                sleep(heaterDelay);
+                settle(heaterDelay);
 
                 // Initial value for rt
                 rt.setCurrent(rtStart);
                 rt.turnOn();
                 for (double I : currents) {
 
+                    applyRetunes();
+
+                    phases.setCurrent(I);
+                    PhaseEvent rtStep = phases.begin("Current Step", "RT");
+
                     // Set current and wait for current hold time
                     rt.setCurrent(I);
-                    sleep(delTime);
+                    settle(delTime);
+
+                    PhaseEvent readout = phases.begin("Readout", null);
 
                     // Calculate heater power
                     double heaterVoltage = heater.getVoltage();
                     double heaterCurrent = heater.getCurrent();
                     double heaterPower   = heaterVoltage * heaterCurrent;
 
-                    // Calculate RT resistance (assuming 0 y-intercept of V vs I)
-                    double rtVoltage    = rt.getVoltage();
-                    double rtCurrent    = rt.getCurrent();
-                    double rtResistance = rtVoltage / rtCurrent;
+                    // Calculate RT resistance, either from one polarity (assuming 0 y-intercept of V vs I) or as a delta
+                    double[] reading      = deltaMode ? readDelta(I) : readSingle();
+                    double   rtVoltage    = reading[0];
+                    double   rtCurrent    = reading[1];
+                    double   rtResistance = reading[2];
+                    double   rtError      = reading[3];
+
+                    if (!Double.isNaN(rtResistance)) {
+                        sum[cell]    += rtResistance;
+                        sumSq[cell]  += rtResistance * rtResistance;
+                        sumVar[cell] += Double.isNaN(rtError) ? 0.0 : rtError * rtError;
+                        count[cell]++;
+                    }
+
+                    cell++;
 
                     // Add data point to results
-                    results.addData(
-                            (double) currentStep,      // Measurement number
-                            (double) sweep,            // Sweep number
-                            stageTC.getTemperature(),  // Sample temperature
-                            heaterVoltage,             // Heater voltage
-                            heaterCurrent,             // Heater current
-                            heaterPower,               // Heater power
-                            rtVoltage,                 // RT voltage
-                            rtCurrent,                 // RT current
-                            rtResistance               // RT resistance
-                    );
+                    double[] row = newRow();
+                    row[COL_NUMBER]            = currentStep;              // Measurement number
+                    row[COL_SWEEP]             = sweep;                    // Sweep number
+                    row[COL_STAGE_TEMPERATURE] = stageTC.getTemperature(); // Sample temperature
+                    row[COL_HEATER_VOLTAGE]    = heaterVoltage;            // Heater voltage
+                    row[COL_HEATER_CURRENT]    = heaterCurrent;            // Heater current
+                    row[COL_HEATER_POWER]      = heaterPower;              // Heater power
+                    row[COL_RT_VOLTAGE]        = rtVoltage;                // RT voltage
+                    row[COL_RT_CURRENT]        = rtCurrent;                // RT current
+                    row[COL_RT_RESISTANCE]     = rtResistance;             // RT resistance
+                    row[COL_RT_ERROR]          = rtError;                  // RT resistance uncertainty (delta mode only)
+                    phases.end(readout);
+                    commitRow();
 
                     // Increment measurement number by 1
                     currentStep++;
 
+                    phases.end(rtStep);
+
                 }
 
                 // Turn off current through RT
                 rt.turnOff();
+                phases.setCurrent(Double.NaN);
+
+                phases.end(heaterStep);
 
             }
 
             // Turn off heater and wait for heater hold time
             heater.turnOff();
-            sleep(heaterDelay);
+            phases.setHeater(Double.NaN);
+            settle(heaterDelay);
+
+            // Any change to the precision target, number of sweeps or rest time counts from here
+            applyRetunes();
+
+            // In delta mode, only sweep again if the resistances are not yet precise enough
+            if (deltaMode && targetPrecision > 0) {
+
+                double worst = worstPrecision(sum, sumSq, sumVar, count);
+
+                note("Sweep %d: worst relative precision %.2e (target %.2e).", sweep, worst, targetPrecision);
+
+                if (worst <= targetPrecision) {
+                    note("Target precision reached after %d sweeps.", sweep + 1);
+                    break;
+                }
+
+            }
+
+            // Let everything cool back down before the next sweep
+            if (sweep < sweeps - 1) {
+                rest(sweep);
+            }
 
         }
 
     }
 
+    /**
+     * Reads the RT voltage and current at the present polarity only.
+     *
+     * @return Voltage, current, resistance and uncertainty (NaN, as a single reading gives none)
+     */
+    private double[] readSingle() throws Exception {
+
+        double voltage = rt.getVoltage();
+        double current = rt.getCurrent();
+
+        return new double[]{voltage, current, voltage / current, Double.NaN};
+
+    }
+
+    /**
+     * Reads the RT voltage and current with alternating polarity (+I, -I, +I), already set to +I, leaving it at +I.
+     * Combining the three readings as a delta cancels any thermal EMF in the leads, along with any linear drift in it.
+     * The two two-point estimates within the delta (first and second readings, second and third) only differ by noise
+     * and any non-linear drift, so half their difference is taken as the uncertainty.
+     *
+     * @param current Current set-point, in Amps
+     *
+     * @return Delta voltage, delta current, resistance and uncertainty
+     */
+    private double[] readDelta(double current) throws Exception {
+
+        double v1 = rt.getVoltage();
+        double i1 = rt.getCurrent();
+
+        rt.setCurrent(-current);
+        settle(delTime);
+
+        double v2 = rt.getVoltage();
+        double i2 = rt.getCurrent();
+
+        rt.setCurrent(current);
+        settle(delTime);
+
+        double v3 = rt.getVoltage();
+        double i3 = rt.getCurrent();
+
+        double deltaV = (v1 - 2 * v2 + v3) / 4;
+        double deltaI = (i1 - 2 * i2 + i3) / 4;
+        double first  = (v1 - v2) / (i1 - i2);
+        double second = (v3 - v2) / (i3 - i2);
+
+        return new double[]{deltaV, deltaI, deltaV / deltaI, Math.abs(first - second) / 2};
+
+    }
+
+    /**
+     * Returns the worst relative uncertainty in mean resistance over all heater/current steps. The uncertainty of each
+     * is the larger of that propagated from the uncertainty of each delta and the standard error of the scatter between
+     * sweeps.
+     */
+    private static double worstPrecision(double[] sum, double[] sumSq, double[] sumVar, int[] count) {
+
+        double worst = 0;
+
+        for (int i = 0; i < sum.length; i++) {
+
+            int n = count[i];
+
+            if (n == 0) {
+                return Double.POSITIVE_INFINITY;
+            }
+
+            double mean       = sum[i] / n;
+            double propagated = Math.sqrt(sumVar[i]) / n;
+            double scatter    = n > 1 ? Math.sqrt(Math.max(0, (sumSq[i] - n * mean * mean) / (n - 1)) / n) : 0.0;
+
+            worst = Math.max(worst, Math.max(propagated, scatter) / Math.abs(mean));
+
+        }
+
+        return worst;
+
+    }
+
+    /**
+     * Measures the RT resistance with a single probe current, at the larger end of the RT current range.
+     */
+    private double sampleResistance() throws Exception {
+
+        rt.setCurrent(Math.abs(rtStop) > Math.abs(rtStart) ? rtStop : rtStart);
+        rt.turnOn();
+        settle(delTime);
+
+        double resistance = rt.getVoltage() / rt.getCurrent();
+
+        rt.turnOff();
+
+        return resistance;
+
+    }
+
+    /**
+     * Rests after a sweep until the RT resistance and stage temperature are both back at their baseline values (within
+     * tolerance) for REST_SAMPLES samples in a row, or until restDelay has passed, whichever is sooner.
+     */
+    private void rest(int sweep) throws Exception {
+
+        PhaseEvent event  = getPhases().begin("Rest", "RT");
+        long       start  = System.currentTimeMillis();
+        int        atBase = 0;
+        double     lastR  = Double.NaN;
+        double     lastT  = Double.NaN;
+
+        while (atBase < REST_SAMPLES && System.currentTimeMillis() - start < restDelay) {
+
+            settle((int) Math.min(REST_INTERVAL, Math.max(0, restDelay - (System.currentTimeMillis() - start))));
+
+            lastR = sampleResistance();
+            lastT = stageTC.getTemperature();
+
+            // NaN readings never count as being back at baseline
+            boolean rBack = Math.abs(lastR - baselineR) <= restRTolerance * Math.abs(baselineR);
+            boolean tBack = Math.abs(lastT - baselineT) <= restTTolerance;
+
+            atBase = rBack && tBack ? atBase + 1 : 0;
+
+        }
+
+        getPhases().end(event);
+
+        note(
+                "Rested %.0f s after sweep %d (%s), at %.6e Ohms and %.3f K.",
+                (System.currentTimeMillis() - start) / 1e3,
+                sweep,
+                atBase >= REST_SAMPLES ? "back to baseline" : "maximum rest reached",
+                lastR,
+                lastT
+        );
+
+    }
+
     @Override
     public void onInterrupt() throws Exception {
 
@@ -145,8 +366,7 @@ public class RTCalibration extends Measurement {
 
     @Override
     public void onFinish() throws Exception {
-        heater.turnOff();
-        rt.turnOff();
+        turnOff(heater, rt);
     }
 
     @Override
@@ -154,7 +374,30 @@ public class RTCalibration extends Measurement {
         return COLUMNS;
     }
 
+    @Override
+    public int getTotalPoints() {
+        return sweeps * heaterSteps * rtSteps;
+    }
+
+    @Override
+    public double getTotalSettleTime() {
+
+        // Each sweep holds before and after its heater steps as well as on each, and a delta takes three holds not one
+        double sweep = (heaterSteps + 2.0) * heaterDelay + heaterSteps * rtSteps * delTime * (deltaMode ? 3.0 : 1.0);
+
+        return (delTime + sweeps * sweep + Math.max(0, sweeps - 1) * (double) restDelay) / 1e3;
+
+    }
+
 
+    /**
+     * Configures the number of sweeps to take. In delta mode with a target precision, this is the most that will be
+     * taken.
+     *
+     * @param numSweeps Number of sweeps
+     *
+     * @return Self-reference, for chaining
+     */
     public RTCalibration configureSweeps(int numSweeps) {
         this.sweeps = numSweeps;
         return this;
@@ -197,6 +440,7 @@ public class RTCalibration extends Measurement {
      *
      * @param heaterHold      Time to hold for after changing heater voltage, in seconds (ms resolution)
      * @param delayTime       Time to hold for before taking resistance measurements, in seconds (ms resolution)
+     * @param restTime        Longest time to rest between sweeps, waiting for the baseline to return, in seconds
      * @param integrationTime Integration time for resistance measurements, in seconds
      *
      * @return Self-reference, for chaining
@@ -209,4 +453,152 @@ public class RTCalibration extends Measurement {
         return this;
     }
 
+    /**
+     * Configures delta mode, where each resistance is measured from three readings of alternating current polarity to
+     * cancel thermal EMFs, giving an uncertainty for each. With a target precision, sweeps stop as soon as the mean
+     * resistance at every step is known to that precision.
+     *
+     * @param enabled   Whether to use delta mode
+     * @param precision Target relative uncertainty in resistance (0 to always take every sweep)
+     *
+     * @return Self-reference, for chaining
+     */
+    public RTCalibration configureDelta(boolean enabled, double precision) {
+        deltaMode       = enabled;
+        targetPrecision = precision;
+        return this;
+    }
+
+    /**
+     * Changes the hold time after changing the heater voltage, from the next heater step of a running measurement.
+     *
+     * @param heaterHold Hold time, in seconds (ms resolution)
+     */
+    public void retuneHeaterHold(double heaterHold) {
+
+        int delay = (int) (heaterHold * 1000);
+
+        retune("heater hold time [ms]", delay, () -> {
+            int old = heaterDelay;
+            heaterDelay = delay;
+            return old;
+        });
+
+    }
+
+    /**
+     * Changes the hold time before taking resistance measurements, from the next current step of a running measurement.
+     *
+     * @param delayTime Hold time, in seconds (ms resolution)
+     */
+    public void retuneCurrentHold(double delayTime) {
+
+        int delay = (int) (delayTime * 1000);
+
+        retune("current hold time [ms]", delay, () -> {
+            int old = delTime;
+            delTime = delay;
+            return old;
+        });
+
+    }
+
+    /**
+     * Changes the longest time to rest between sweeps, from the next rest of a running measurement.
+     *
+     * @param restTime Longest rest, in seconds
+     */
+    public void retuneRestTime(double restTime) {
+
+        int delay = (int) (restTime * 1000);
+
+        retune("rest time [ms]", delay, () -> {
+            int old = restDelay;
+            restDelay = delay;
+            return old;
+        });
+
+    }
+
+    /**
+     * Changes the integration time of resistance measurements, from the next current step of a running measurement.
+     *
+     * @param integrationTime Integration time, in seconds
+     */
+    public void retuneIntegrationTime(double integrationTime) {
+
+        retune("integration time [s]", integrationTime, () -> {
+            double old = intTime;
+            rt.setIntegrationTime(integrationTime);
+            intTime = integrationTime;
+            return old;
+        });
+
+    }
+
+    /**
+     * Changes how many sweeps to average over (at most, in delta mode with a target precision), from the end of the
+     * current sweep of a running measurement. Sweeps already taken are not undone.
+     *
+     * @param numSweeps Number of sweeps
+     */
+    public void retuneSweeps(int numSweeps) {
+
+        retune("number of sweeps", numSweeps, () -> {
+            int old = sweeps;
+            sweeps = numSweeps;
+            return old;
+        });
+
+    }
+
+    /**
+     * Changes the relative precision at which delta mode stops sweeping, from the end of the current sweep of a running
+     * measurement.
+     *
+     * @param precision Target relative uncertainty in resistance (0 to always take every sweep)
+     */
+    public void retunePrecision(double precision) {
+
+        retune("target precision", precision, () -> {
+            double old = targetPrecision;
+            targetPrecision = precision;
+            return old;
+        });
+
+    }
+
+    /**
+     * Configures how close to their baseline (ie before the first sweep) values the RT resistance and stage temperature
+     * must return to end the rest between sweeps.
+     *
+     * @param resistance  Tolerance on resistance, as a fraction of the baseline resistance
+     * @param temperature Tolerance on temperature, in Kelvin
+     *
+     * @return Self-reference, for chaining
+     */
+    public RTCalibration configureRest(double resistance, double temperature) {
+        restRTolerance = resistance;
+        restTTolerance = temperature;
+        return this;
+    }
+
+    /**
+     * Returns how close to its baseline the RT resistance must return to end a rest.
+     *
+     * @return Tolerance, as a fraction of the baseline resistance
+     */
+    public double getRestRTolerance() {
+        return restRTolerance;
+    }
+
+    /**
+     * Returns how close to its baseline the stage temperature must return to end a rest.
+     *
+     * @return Tolerance, in Kelvin
+     */
+    public double getRestTTolerance() {
+        return restTTolerance;
+    }
+
 }
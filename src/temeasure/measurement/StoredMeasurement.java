@@ -0,0 +1,546 @@
+package temeasure.measurement;
+
+import jisa.devices.VMeter;
+import jisa.experiment.Measurement;
+import temeasure.data.ColumnStore;
+import temeasure.data.DataPoint;
+import temeasure.data.PointPublisher;
+import temeasure.devices.Decorators;
+import temeasure.devices.TracingInstrument;
+import temeasure.diagnostics.Diagnostics;
+import temeasure.diagnostics.PhaseEvent;
+import temeasure.diagnostics.Phases;
+import temeasure.diagnostics.Watchdog;
+import temeasure.logging.ResultWriter;
+import temeasure.logging.RunLog;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.function.Consumer;
+
+/**
+ * Measurement whose data-points are held in a primitive column store, which is the only copy kept in memory. Sub-classes
+ * fill in the row returned by newRow() and then call commitRow(). Each committed row is published, without blocking, to
+ * any stages subscribed to getPublisher(), which are completed when the measurement ends. If a results file is given
+ * (see writeTo()), it is written by one such stage, which never drops a row, so the measurement thread never waits on
+ * the disk. While running, the measurement is
+ * watched for stalls, with each committed row and each wait to settle counting as progress. When results are written
+ * to a file, a run log of notable events (see note()) is kept alongside them.
+ * <p>
+ * Parameters that are safe to change mid-run can be retuned from any thread through sub-class retune*() methods. These
+ * only queue the change: the measurement thread applies it at the start of its next step (see applyRetunes()) and notes
+ * it in the run log, so the parameters themselves are only ever touched by one thread at a time.
+ */
+public abstract class StoredMeasurement extends Measurement {
+
+    // Longest a run may go between data-points (outside of settling) before it is flagged as stuck, in seconds
+    private static final double WATCHDOG_LIMIT = 300.0;
+
+    private final PointPublisher publisher = new PointPublisher();
+    private final Phases         phases    = new Phases(getClass().getSimpleName());
+    private final Queue<Retune>  retunes   = new ConcurrentLinkedQueue<>();
+
+    private final List<Consumer<String>> noteListeners = new CopyOnWriteArrayList<>();
+
+    private ColumnStore   store      = null;
+    private Watchdog.Task watch      = null;
+    private String        outputPath = null;
+    private WriterStage   output     = null;
+    private RunLog        runLog     = null;
+
+    private volatile Diagnostics.Breakdown breakdown = Diagnostics.NO_RUN;
+
+    /**
+     * Returns the column store holding the data-points of this measurement, using the same columns (and indices) as
+     * getColumns().
+     *
+     * @return Column store
+     */
+    public synchronized ColumnStore getStore() {
+
+        if (store == null) {
+            store = new ColumnStore(getColumns());
+        }
+
+        return store;
+
+    }
+
+    /**
+     * Returns the publisher through which each data-point is passed to subscribed stages (writers, fitters, viewers
+     * etc) as it is committed. Stages should subscribe before the measurement is started.
+     *
+     * @return Data-point publisher
+     */
+    public PointPublisher getPublisher() {
+        return publisher;
+    }
+
+    /**
+     * Returns the number of data-points the measurement will take if run to completion, with its current configuration.
+     *
+     * @return Total number of data-points
+     */
+    public abstract int getTotalPoints();
+
+    /**
+     * Returns the total time the measurement will spend waiting for things to settle if run to completion, with its
+     * current configuration. Where a wait can end early (eg resting until back at baseline), its maximum is counted.
+     *
+     * @return Total settling time, in seconds
+     */
+    public abstract double getTotalSettleTime();
+
+    /**
+     * Returns how far the current (or last) run has got, and an estimate of when it will finish. The settling still to
+     * come is known from the configuration, while everything else is estimated from the time taken per point so far
+     * outside of settling, so the estimate is refined with every point taken.
+     *
+     * @return Snapshot of progress
+     */
+    public Progress getProgress() {
+
+        Diagnostics.Breakdown run      = breakdown;
+        int                   done     = getStore().size();
+        int                   total    = getTotalPoints();
+        double                elapsed  = run.getElapsed();
+        double                settled  = run.get(Diagnostics.Activity.SETTLE);
+        double                perPoint = done > 0 ? (elapsed - settled) / done : 0.0;
+        double                left     = 0.0;
+
+        if (run.isRunning()) {
+            left = Math.max(0.0, getTotalSettleTime() - settled) + Math.max(0, total - done) * perPoint;
+        }
+
+        return new Progress(
+                done,
+                total,
+                elapsed,
+                left,
+                settled,
+                run.get(Diagnostics.Activity.QUERY),
+                run.get(Diagnostics.Activity.WRITE),
+                run.get(Diagnostics.Activity.STORE)
+        );
+
+    }
+
+    /**
+     * Returns where the time of the current (or last) run of this measurement has gone.
+     *
+     * @return Run breakdown, which is empty if it has not been run
+     */
+    public Diagnostics.Breakdown getBreakdown() {
+        return breakdown;
+    }
+
+    /**
+     * Returns the source of flight recorder events for the phases of this measurement.
+     *
+     * @return Phase events
+     */
+    protected Phases getPhases() {
+        return phases;
+    }
+
+    /**
+     * Returns the run log kept alongside the results file of this measurement.
+     *
+     * @return Run log, or null if results are not being written to a file
+     */
+    public RunLog getRunLog() {
+        return runLog;
+    }
+
+    /**
+     * Notes something notable that happened during the run in the run log, if there is one, and passes it on to any
+     * note listeners.
+     *
+     * @param format Format string, as used by String.format()
+     * @param args   Arguments for the format string
+     */
+    public void note(String format, Object... args) {
+
+        RunLog log  = runLog;
+        String note = String.format(format, args);
+
+        if (log != null) {
+            log.note("%s", note);
+        }
+
+        for (Consumer<String> listener : noteListeners) {
+            listener.accept(note);
+        }
+
+    }
+
+    /**
+     * Adds a listener to be called, on the noting thread, with each note made by note() (eg to show it on the terminal).
+     *
+     * @param listener Listener to add
+     */
+    public void addNoteListener(Consumer<String> listener) {
+        noteListeners.add(listener);
+    }
+
+    public void removeNoteListener(Consumer<String> listener) {
+        noteListeners.remove(listener);
+    }
+
+    /**
+     * Sets the file to stream results to, row by row, when the measurement is run. A run log is kept alongside it (see
+     * RunLog). Both are opened when the run starts and closed when it ends.
+     *
+     * @param path Path of the results file
+     */
+    public void writeTo(String path) {
+        outputPath = path;
+    }
+
+    /**
+     * Returns why the measurement cut its own run short (eg a safety check failing), as opposed to being stopped.
+     *
+     * @return Reason, or null if it has not aborted
+     */
+    public String getAbortReason() {
+        return null;
+    }
+
+    @Override
+    public void performMeasurement() throws Exception {
+
+        if (outputPath != null) {
+            output = new WriterStage(new ResultWriter(outputPath, getColumns()), getColumns().length);
+            runLog = new RunLog(outputPath);
+            publisher.subscribeLossless(output);
+        }
+
+        // Nothing remembered from before the run can be trusted, as the instruments may have been changed in between
+        Decorators.invalidateCaches();
+
+        // Labels this thread's instrument calls, so a trace of the run can be told apart from anything else going on
+        String stream = TracingInstrument.setStream("Measurement");
+
+        breakdown = Diagnostics.startRun();
+        watch = Watchdog.watch(getClass().getSimpleName(), WATCHDOG_LIMIT);
+
+        note("Started, with %d points planned.", getTotalPoints());
+
+        try {
+            super.performMeasurement();
+
+            if (wasStopped()) {
+                note("Stopped after %d points.", getStore().size());
+            } else if (getAbortReason() != null) {
+                note("Aborted after %d points: %s", getStore().size(), getAbortReason());
+            } else {
+                note("Finished after %d points.", getStore().size());
+            }
+
+        } catch (Exception e) {
+            note("Failed after %d points: %s", getStore().size(), e.getMessage());
+            throw e;
+        } finally {
+
+            TracingInstrument.setStream(stream);
+            watch.close();
+            Diagnostics.endRun(breakdown);
+            publisher.close();
+
+            // Rows still queued for the results file are written before it is closed
+            if (output != null && output.finish() != null) {
+                note("Failed to write results after %d rows: %s", output.writer.getRows(), output.failure.getMessage());
+            }
+
+            if (runLog != null) {
+                runLog.close();
+            }
+
+        }
+
+    }
+
+    /**
+     * Turns off the given outputs, as sub-classes do in onFinish(). This must happen even if the measurement was stopped,
+     * so any interrupt of the calling thread is cleared until it is done, and every output is tried even if one fails.
+     *
+     * @param outputs Outputs to turn off
+     *
+     * @throws Exception The first failure to turn an output off, once all have been tried
+     */
+    protected static void turnOff(VMeter... outputs) throws Exception {
+
+        boolean   interrupted = Thread.interrupted();
+        Exception failure     = null;
+
+        try {
+
+            for (VMeter output : outputs) {
+
+                try {
+                    output.turnOff();
+                } catch (Exception e) {
+
+                    if (failure == null) {
+                        failure = e;
+                    } else {
+                        failure.addSuppressed(e);
+                    }
+
+                }
+
+            }
+
+        } finally {
+
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+
+        }
+
+        if (failure != null) {
+            throw failure;
+        }
+
+    }
+
+    /**
+     * Waits for the given time to let things settle, counting the time as settling in the run breakdown.
+     *
+     * @param ms Time to wait, in milliseconds
+     *
+     * @throws InterruptedException If interrupted (ie stopped) while waiting
+     */
+    protected void settle(int ms) throws InterruptedException {
+
+        PhaseEvent event = phases.begin("Settle", null);
+        long       start = System.nanoTime();
+
+        if (watch != null) {
+            watch.expect(ms);
+        }
+
+        try {
+            sleep(ms);
+        } finally {
+            Diagnostics.record(Diagnostics.Activity.SETTLE, System.nanoTime() - start);
+            phases.end(event);
+        }
+
+    }
+
+    /**
+     * Queues a change to a parameter, to be applied by the measurement thread at the start of its next step. Can be
+     * called from any thread.
+     *
+     * @param parameter Name of the parameter, for the run log
+     * @param value     New value
+     * @param change    Applies the new value, returning the old one
+     */
+    protected void retune(String parameter, Object value, Change change) {
+        retunes.add(new Retune(parameter, value, change));
+    }
+
+    /**
+     * Applies any changes queued by retune() since the last call, noting each one that changes anything in the run log.
+     * Sub-classes call this on the measurement thread at the start of each step.
+     *
+     * @throws Exception If applying a change to an instrument fails
+     */
+    protected void applyRetunes() throws Exception {
+
+        Retune retune;
+
+        while ((retune = retunes.poll()) != null) {
+
+            Object old = retune.change.apply();
+
+            if (!Objects.equals(old, retune.value)) {
+                note("Retuned %s from %s to %s, from point %d.", retune.parameter, old, retune.value, getStore().size());
+            }
+
+        }
+
+    }
+
+    /**
+     * Returns the reusable buffer to fill with the values of the next data-point, with every value reset to NaN so that
+     * any column not set for this point is not left holding the last point's value.
+     *
+     * @return Row buffer, indexed by the COL_* constants
+     */
+    protected double[] newRow() {
+
+        double[] row = getStore().row();
+
+        Arrays.fill(row, Double.NaN);
+
+        return row;
+
+    }
+
+    /**
+     * Commits the current row buffer to the column store, then publishes it to any subscribed stages (including the one
+     * writing the results file, if there is one).
+     *
+     * @throws UncheckedIOException If writing an earlier row to the results file failed
+     */
+    protected void commitRow() {
+
+        ColumnStore store  = getStore();
+        WriterStage writer = output;
+        PhaseEvent  event  = phases.begin("Write", null);
+        long        start  = System.nanoTime();
+
+        if (writer != null && writer.failure != null) {
+            throw writer.failure;
+        }
+
+        store.commit();
+
+        publisher.publish(store.size() - 1, store.row());
+
+        if (watch != null) {
+            watch.beat();
+        }
+
+        Diagnostics.record(Diagnostics.Activity.STORE, System.nanoTime() - start);
+        phases.end(event);
+
+    }
+
+    /**
+     * Applies a retuned value to a parameter.
+     */
+    @FunctionalInterface
+    protected interface Change {
+
+        /**
+         * Applies the new value.
+         *
+         * @return The value it replaced
+         *
+         * @throws Exception If applying it to an instrument fails
+         */
+        Object apply() throws Exception;
+
+    }
+
+    /**
+     * Stage writing each data-point to the results file, in the order they were committed.
+     */
+    private static class WriterStage implements Flow.Subscriber<DataPoint> {
+
+        private final ResultWriter   writer;
+        private final double[]       row;
+        private final CountDownLatch done = new CountDownLatch(1);
+
+        private volatile UncheckedIOException failure = null;
+
+        private WriterStage(ResultWriter writer, int columns) {
+            this.writer = writer;
+            this.row    = new double[columns];
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            subscription.request(Long.MAX_VALUE);
+        }
+
+        @Override
+        public void onNext(DataPoint point) {
+
+            for (int c = 0; c < row.length; c++) {
+                row[c] = point.get(c);
+            }
+
+            try {
+                writer.write(row);
+            } catch (UncheckedIOException e) {
+                failure = e;
+                throw e;
+            }
+
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+
+            if (failure == null) {
+                failure = new UncheckedIOException(new IOException("Results writer failed.", throwable));
+            }
+
+            done.countDown();
+
+        }
+
+        @Override
+        public void onComplete() {
+            done.countDown();
+        }
+
+        /**
+         * Waits for every row published before the publisher was closed to be written, then closes the file. This is
+         * done even if the measurement was stopped, so any interrupt is held back until it is done.
+         *
+         * @return Why writing failed, or null if it did not
+         */
+        private UncheckedIOException finish() {
+
+            boolean interrupted = false;
+
+            while (true) {
+
+                try {
+                    done.await();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+
+            }
+
+            try {
+                writer.close();
+            } catch (UncheckedIOException e) {
+
+                if (failure == null) {
+                    failure = e;
+                }
+
+            }
+
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+
+            return failure;
+
+        }
+
+    }
+
+    private static class Retune {
+
+        private final String parameter;
+        private final Object value;
+        private final Change change;
+
+        private Retune(String parameter, Object value, Change change) {
+            this.parameter = parameter;
+            this.value     = value;
+            this.change    = change;
+        }
+
+    }
+
+}